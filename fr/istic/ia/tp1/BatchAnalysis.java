@@ -0,0 +1,288 @@
+package fr.istic.ia.tp1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import fr.istic.ia.tp1.Game.Move;
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MainGameLoop.NamedSupplier;
+import fr.istic.ia.tp1.MonteCarloTreeSearch.EvalNode;
+
+/**
+ * Batch analysis of a file of positions.
+ *
+ * Each line of the input is a position in FEN (see {@link PositionCodec}); the output has one line per
+ * position, in the input order: <code>fen;best move;score;simulations</code>, where the score is the
+ * estimated probability of win of the player to move (empty for engines without score), or
+ * <code>fen;error;message</code> for an invalid position or a failed analysis. The positions which are already
+ * decided are not searched: their best move is <code>none</code> and their score is the result (1 for a win of
+ * the player to move, 0.5 for a draw, 0 for a loss), with 0 simulations.
+ *
+ * A reader thread feeds a pool of workers through a bounded queue, and the results are written back in
+ * order from a reorder buffer. The number of positions between the reader and the writer is bounded,
+ * so that the memory use does not depend on the size of the input.
+ *
+ * Usage: <code>BatchAnalysis input|- output|- [--engine mcts:1000] [--threads n] [--size 8]</code>
+ * (the engine is an MCTS specification, or any player of {@link MatchRunner#parsePlayer(String)}).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class BatchAnalysis {
+	/**
+	 * A position of the input, or a result of the output
+	 */
+	static class Line {
+		/** Number of the line in the input, from 0 */
+		final long index;
+
+		/** Text of the line */
+		final String text;
+
+		Line(long index, String text) {
+			this.index = index;
+			this.text = text;
+		}
+	}
+
+	/** Marker of the end of the input */
+	private static final Line END = new Line(-1, null);
+
+	/** Size of the board of the positions */
+	final int boardSize;
+
+	/** Number of worker threads */
+	final int threads;
+
+	/** Maximal number of positions read but not written yet */
+	final int window;
+
+	/** Search time of the MCTS analysis, or 0 to use {@link #player} */
+	int timeMillis;
+
+	/** RAVE and progressive widening options of the MCTS analysis */
+	boolean rave;
+	boolean progressiveWidening;
+
+	/** The engine used if the analysis is not an MCTS */
+	NamedSupplier<Player> player;
+
+	/**
+	 * Constructor
+	 * @param engine The engine specification: <code>mcts:timeMillis[:rave][:widening]</code> or a player specification
+	 * @param boardSize Size of the board of the positions
+	 * @param threads Number of worker threads
+	 */
+	public BatchAnalysis(String engine, int boardSize, int threads) {
+		this.boardSize = boardSize;
+		this.threads = threads;
+		this.window = 16 * threads;
+		String[] parts = engine.split(":");
+		if (parts[0].equals("mcts")) {
+			timeMillis = parts.length > 1 ? Integer.parseInt(parts[1]) : 1000;
+			for (int i = 2; i < parts.length; ++i) {
+				if (parts[i].equals("rave")) {
+					rave = true;
+				} else if (parts[i].equals("widening")) {
+					progressiveWidening = true;
+				} else {
+					throw new IllegalArgumentException("Unknown MCTS option: " + parts[i]);
+				}
+			}
+		} else {
+			player = MatchRunner.parsePlayer(engine);
+		}
+	}
+
+	/**
+	 * Analyse a position
+	 * @param fen The position
+	 * @param engine The player to use if the analysis is not an MCTS
+	 * @return The output line of the position
+	 */
+	String analyse(String fen, Player engine) {
+		EnglishDraughts game;
+		try {
+			game = PositionCodec.fromFen(fen, boardSize);
+		} catch (IllegalArgumentException e) {
+			return fen + ";error;" + e.getMessage();
+		}
+		PlayerId winner = game.winner();
+		if (winner != null) {
+			double score = winner == game.player() ? 1.0 : winner == PlayerId.NONE ? 0.5 : 0.0;
+			return fen + ";none;" + String.format(Locale.ROOT, "%.4f", score) + ";0";
+		}
+		if (game.possibleMoves().isEmpty())
+			return fen + ";none;" + String.format(Locale.ROOT, "%.4f", 0.0) + ";0";
+		if (engine != null) {
+			Move move = engine.play(game);
+			return fen + ";" + move + ";;";
+		}
+		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game, rave);
+		mcts.setProgressiveWidening(progressiveWidening);
+		mcts.setVerbose(false);
+		mcts.evaluateTreeWithTimeLimit(timeMillis);
+		Move move = mcts.getBestMove();
+		double score = 0.0;
+		for (EvalNode child : mcts.root.children) {
+			if (child.m.equals(move)) {
+				score = child.score();
+			}
+		}
+		return fen + ";" + move + ";" + String.format(Locale.ROOT, "%.4f", score) + ";" + mcts.nTotal;
+	}
+
+	/**
+	 * Analyse a position, turning any failure into an error line so that its result is always written
+	 * @param fen The position
+	 * @param engine The player to use if the analysis is not an MCTS
+	 * @return The output line of the position
+	 */
+	String analyseOrError(String fen, Player engine) {
+		try {
+			return analyse(fen, engine);
+		} catch (RuntimeException | StackOverflowError e) {
+			String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+			return fen + ";error;" + message.replace('\n', ' ');
+		}
+	}
+
+	/**
+	 * Analyse all the positions of the input
+	 * @param input One position per line (empty lines are ignored)
+	 * @param output The results, in the order of the input
+	 * @return The number of analysed positions
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public long run(BufferedReader input, Writer output) throws IOException, InterruptedException {
+		BlockingQueue<Line> tasks = new ArrayBlockingQueue<>(2 * threads);
+		BlockingQueue<Line> results = new LinkedBlockingQueue<>();
+		Semaphore pending = new Semaphore(window);
+		long[] count = new long[1];
+		IOException[] failure = new IOException[1];
+
+		Thread reader = new Thread(() -> {
+			try {
+				String text;
+				long index = 0;
+				while ((text = input.readLine()) != null) {
+					text = text.trim();
+					if (text.isEmpty())
+						continue;
+					pending.acquire();
+					tasks.put(new Line(index++, text));
+				}
+				count[0] = index;
+			} catch (IOException e) {
+				failure[0] = e;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				for (int i = 0; i < threads; ++i) {
+					tasks.put(END);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			results.offer(END);
+		}, "batch-reader");
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Thread(() -> {
+				Player engine = player != null ? player.get() : null;
+				try {
+					Line task;
+					while ((task = tasks.take()) != END) {
+						results.put(new Line(task.index, analyseOrError(task.text, engine)));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, "batch-worker-" + i);
+		}
+
+		reader.start();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+
+		// Write the results in order; the reader signals the end of the input with END
+		Map<Long, String> reorder = new HashMap<>();
+		long next = 0;
+		boolean inputDone = false;
+		while (!inputDone || next < count[0]) {
+			Line result = results.take();
+			if (result == END) {
+				inputDone = true;
+				continue;
+			}
+			reorder.put(result.index, result.text);
+			String text;
+			while ((text = reorder.remove(next)) != null) {
+				output.write(text);
+				output.write('\n');
+				next++;
+				pending.release();
+			}
+		}
+		output.flush();
+		reader.join();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure[0] != null)
+			throw failure[0];
+		return next;
+	}
+
+	/**
+	 * Batch analysis entry point
+	 * @param args See the class documentation
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BatchAnalysis input|- output|- [--engine mcts:1000] [--threads n] [--size 8]");
+			return;
+		}
+		String engine = "mcts:1000";
+		int threads = Runtime.getRuntime().availableProcessors();
+		int boardSize = 8;
+		for (int i = 2; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--engine":  engine = args[i+1]; break;
+			case "--threads": threads = Integer.parseInt(args[i+1]); break;
+			case "--size":    boardSize = Integer.parseInt(args[i+1]); break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				return;
+			}
+		}
+		BatchAnalysis analysis = new BatchAnalysis(engine, boardSize, threads);
+		try (Reader in = args[0].equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+				: Files.newBufferedReader(Paths.get(args[0]));
+				Writer out = args[1].equals("-") ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+						: Files.newBufferedWriter(Paths.get(args[1]))) {
+			long n = analysis.run(new BufferedReader(in), new BufferedWriter(out));
+			System.err.println(n + " positions analysed");
+		}
+	}
+}
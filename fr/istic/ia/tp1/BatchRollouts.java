@@ -0,0 +1,491 @@
+package fr.istic.ia.tp1;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MonteCarloTreeSearch.RolloutResults;
+
+/**
+ * Random playouts of {@link EnglishDraughts} run by batches: many independent games from the same state are
+ * played in lockstep, one ply of every game per step.
+ *
+ * The games are stored as bit masks (bit i-1 for tile i) in arrays indexed by game (structure of arrays),
+ * so that the move masks and the random numbers of all the games are computed by the same loop. This loop
+ * is run by a {@link Kernel}: the SIMD kernel of the <code>jdk.incubator.vector</code> module when it is on
+ * the class path and the JVM provides the module, a scalar kernel otherwise. The random moves are then drawn
+ * and played game by game.
+ *
+ * The SIMD kernel is in the optional source root <code>vector/</code>, so that the other classes compile
+ * without the incubator module. To enable it, compile it after the other classes and run with the module:
+ * <pre>
+ * javac -d out fr/istic/ia/tp1/*.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/fr/istic/ia/tp1/*.java
+ * java --add-modules jdk.incubator.vector -cp out ...
+ * </pre>
+ *
+ * The playouts follow the rules of {@link EnglishDraughts}. Simple moves are drawn uniformly; a capture
+ * draws its first jump uniformly among the jumps of all the pawns, then each next jump among the jumps of
+ * the capturing pawn. Only boards with at most 64 tiles are supported (up to 10x10).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class BatchRollouts {
+	/** Result of a game still running */
+	static final byte RUNNING = 0;
+
+	/** Maximal number of long lanes of a SIMD register: the arrays are padded to a multiple of it */
+	static final int PADDING = 8;
+
+	/** Class of the SIMD kernel, loaded by reflection */
+	static final String VECTOR_KERNEL = "fr.istic.ia.tp1.VectorRolloutKernel";
+
+	/**
+	 * The move masks of a board size. The tiles which have a neighbor in direction d (see
+	 * {@link EnglishDraughts#UP_RIGHT}) are split in two masks, A and B, whose neighbors are at a constant
+	 * bit distance: the neighbors of the tiles of A are their bits shifted by shiftA (left if positive).
+	 */
+	static final class Geometry {
+		final int size;
+		final int tiles;
+		final long full;
+		final long topRow;
+		final long bottomRow;
+		final long[] sourceA = new long[4];
+		final long[] sourceB = new long[4];
+		final int[] shiftA = new int[4];
+		final int[] shiftB = new int[4];
+
+		Geometry(int size) {
+			CheckerBoard board = new CheckerBoard(size);
+			this.size = size;
+			this.tiles = board.nbPlayableTiles();
+			if (tiles > 64)
+				throw new IllegalArgumentException("Batch rollouts need at most 64 tiles: " + size + "x" + size);
+			full = tiles == 64 ? -1L : (1L << tiles) - 1;
+			long top = 0, bottom = 0;
+			for (int square = 1; square <= tiles; ++square) {
+				long bit = 1L << (square - 1);
+				if (board.inTopRow(square))
+					top |= bit;
+				if (board.inBottomRow(square))
+					bottom |= bit;
+				for (int d = 0; d < 4; ++d) {
+					int neighbor = neighbor(board, square, d);
+					if (neighbor == 0)
+						continue;
+					int shift = neighbor - square;
+					if (sourceA[d] == 0 || shiftA[d] == shift) {
+						sourceA[d] |= bit;
+						shiftA[d] = shift;
+					} else if (sourceB[d] == 0 || shiftB[d] == shift) {
+						sourceB[d] |= bit;
+						shiftB[d] = shift;
+					} else {
+						throw new IllegalArgumentException("Irregular board " + size + "x" + size);
+					}
+				}
+			}
+			topRow = top;
+			bottomRow = bottom;
+		}
+
+		private static int neighbor(CheckerBoard board, int square, int direction) {
+			switch (direction) {
+			case EnglishDraughts.UP_RIGHT:   return board.neighborUpRight(square);
+			case EnglishDraughts.UP_LEFT:    return board.neighborUpLeft(square);
+			case EnglishDraughts.DOWN_RIGHT: return board.neighborDownRight(square);
+			default:                         return board.neighborDownLeft(square);
+			}
+		}
+
+		static long shift(long mask, int shift) {
+			return shift >= 0 ? mask << shift : mask >>> -shift;
+		}
+
+		/**
+		 * Neighbors of tiles
+		 * @param mask Tiles
+		 * @param d Direction
+		 * @return The neighbors in direction d of the tiles of <code>mask</code>
+		 */
+		long neighbors(long mask, int d) {
+			return shift(mask & sourceA[d], shiftA[d]) | shift(mask & sourceB[d], shiftB[d]);
+		}
+
+		/**
+		 * Tiles whose neighbor in a direction is in a mask
+		 * @param mask Tiles
+		 * @param d Direction
+		 * @return The tiles whose neighbor in direction d is in <code>mask</code>
+		 */
+		long sources(long mask, int d) {
+			return (shift(mask, -shiftA[d]) & sourceA[d]) | (shift(mask, -shiftB[d]) & sourceB[d]);
+		}
+	}
+
+	/** Geometries by board size */
+	private static final Geometry[] GEOMETRIES = new Geometry[11];
+	static {
+		for (int size = 4; size <= 10; size += 2) {
+			GEOMETRIES[size] = new Geometry(size);
+		}
+	}
+
+	/**
+	 * The data-parallel part of a step, run on all the games of a batch at once
+	 */
+	interface Kernel {
+		/**
+		 * Compute the move masks of the player to move in every game: {@link BatchRollouts#simple} and
+		 * {@link BatchRollouts#jumps} get, for each direction d at index d * capacity + game, the pawns which
+		 * can move or jump in that direction
+		 * @param batch The games
+		 * @param g The geometry of the board
+		 */
+		void moveMasks(BatchRollouts batch, Geometry g);
+
+		/**
+		 * Advance the random generator of every game ({@link BatchRollouts#seeds}) and put a random number
+		 * in {@link BatchRollouts#randoms}
+		 * @param batch The games
+		 */
+		void nextRandoms(BatchRollouts batch);
+
+		/**
+		 * Name of the kernel
+		 * @return A short name
+		 */
+		String name();
+	}
+
+	/**
+	 * Kernel in plain Java
+	 */
+	static class ScalarKernel implements Kernel {
+		@Override
+		public void moveMasks(BatchRollouts batch, Geometry g) {
+			int capacity = batch.capacity;
+			for (int i = 0; i < capacity; ++i) {
+				long wtm = batch.whiteToMove[i];
+				long own = (batch.white[i] & wtm) | (batch.black[i] & ~wtm);
+				long opp = (batch.black[i] & wtm) | (batch.white[i] & ~wtm);
+				long empty = ~(batch.white[i] | batch.black[i]) & g.full;
+				long kings = batch.kings[i];
+				for (int d = 0; d < 4; ++d) {
+					// White checkers move up, black checkers down
+					long allowed = d < 2 ? wtm : ~wtm;
+					long movable = own & (kings | allowed);
+					long toEmpty = g.sources(empty, d);
+					batch.simple[d * capacity + i] = movable & toEmpty;
+					batch.jumps[d * capacity + i] = movable & g.sources(toEmpty & opp, d);
+				}
+			}
+		}
+
+		@Override
+		public void nextRandoms(BatchRollouts batch) {
+			for (int i = 0; i < batch.capacity; ++i) {
+				long x = batch.seeds[i];
+				x ^= x >>> 12;
+				x ^= x << 25;
+				x ^= x >>> 27;
+				batch.seeds[i] = x;
+				batch.randoms[i] = x * 0x2545F4914F6CDD1DL;
+			}
+		}
+
+		@Override
+		public String name() {
+			return "scalar";
+		}
+	}
+
+	/** The kernel shared by all the batches */
+	private static final Kernel KERNEL = loadKernel();
+
+	/**
+	 * Load the SIMD kernel if the JVM provides the vector module, the scalar kernel otherwise
+	 * @return The kernel
+	 */
+	static Kernel loadKernel() {
+		try {
+			Kernel kernel = (Kernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+			// The vector classes are only linked at the first call
+			BatchRollouts probe = new BatchRollouts(kernel);
+			probe.reset(new EnglishDraughts(8), 1);
+			kernel.nextRandoms(probe);
+			kernel.moveMasks(probe, GEOMETRIES[8]);
+			return kernel;
+		} catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+			return new ScalarKernel();
+		}
+	}
+
+	/**
+	 * Name of the kernel used by the batches
+	 * @return <code>vector</code> or <code>scalar</code>
+	 */
+	public static String kernelName() {
+		return KERNEL.name();
+	}
+
+	/**
+	 * Check if the batches can play from a game state
+	 * @param game
+	 * @return <code>true</code> if the state is an {@link EnglishDraughts} state on a board of at most 64 tiles,
+	 *         without the repetition rule (the batches only end the games by the 25 king moves rule)
+	 */
+	public static boolean supports(Game game) {
+		return game instanceof EnglishDraughts && ((EnglishDraughts) game).board.size <= 10
+				&& ((EnglishDraughts) game).repetitionLimit == 0;
+	}
+
+	/** The kernel of this batch */
+	private final Kernel kernel;
+
+	/** Number of games of the batch, and size of the arrays (a multiple of {@link #PADDING}) */
+	int lanes;
+	int capacity;
+
+	/** The pawns of each game */
+	long[] white;
+	long[] black;
+	long[] kings;
+
+	/** All ones if the whites are to move, 0 otherwise */
+	long[] whiteToMove;
+
+	/** The moves of each game, by direction (see {@link Kernel#moveMasks(BatchRollouts, Geometry)}) */
+	long[] simple;
+	long[] jumps;
+
+	/** The random generators of the games, and their last numbers */
+	long[] seeds;
+	long[] randoms;
+
+	/** The number of consecutive king moves without capture of each game */
+	int[] kingMoves;
+
+	/** The winner of each game: {@link #RUNNING}, or 1 + {@link PlayerId#ordinal()} */
+	byte[] results;
+
+	/**
+	 * Constructor
+	 */
+	public BatchRollouts() {
+		this(KERNEL);
+	}
+
+	BatchRollouts(Kernel kernel) {
+		this.kernel = kernel;
+		allocate(PADDING);
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		white = new long[capacity];
+		black = new long[capacity];
+		kings = new long[capacity];
+		whiteToMove = new long[capacity];
+		simple = new long[4 * capacity];
+		jumps = new long[4 * capacity];
+		seeds = new long[capacity];
+		randoms = new long[capacity];
+		kingMoves = new int[capacity];
+		results = new byte[capacity];
+	}
+
+	/**
+	 * Start a batch of games from a state
+	 * @param game The initial state
+	 * @param nbRuns The number of games
+	 */
+	void reset(EnglishDraughts game, int nbRuns) {
+		int needed = (nbRuns + PADDING - 1) / PADDING * PADDING;
+		if (needed > capacity) {
+			allocate(needed);
+		}
+		lanes = nbRuns;
+		long w = game.board.whiteMask();
+		long b = game.board.blackMask();
+		long k = game.board.kingMask();
+		long wtm = game.player() == PlayerId.ONE ? -1L : 0L;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < capacity; ++i) {
+			white[i] = w;
+			black[i] = b;
+			kings[i] = k;
+			whiteToMove[i] = wtm;
+			kingMoves[i] = game.nbKingMovesWithoutCapture;
+			results[i] = RUNNING;
+			long seed = random.nextLong();
+			seeds[i] = seed == 0 ? 1 : seed;
+		}
+	}
+
+	/**
+	 * Play random games from a state until their end
+	 * @param game The initial state (see {@link #supports(Game)}; not modified by the function)
+	 * @param nbRuns The number of games to play
+	 * @return The number of wins of each player, of games and of plies
+	 */
+	public RolloutResults rollOut(Game game, int nbRuns) {
+		EnglishDraughts draughts = (EnglishDraughts) game;
+		RolloutResults r = new RolloutResults();
+		PlayerId winner = draughts.winner();
+		if (winner != null) {
+			for (int i = 0; i < nbRuns; ++i) {
+				r.update(winner);
+				r.n++;
+			}
+			return r;
+		}
+		Geometry g = GEOMETRIES[draughts.board.size];
+		reset(draughts, nbRuns);
+		int running = nbRuns;
+		while (running > 0) {
+			kernel.nextRandoms(this);
+			kernel.moveMasks(this, g);
+			for (int i = 0; i < lanes; ++i) {
+				if (results[i] != RUNNING)
+					continue;
+				play(g, i);
+				r.plies++;
+				if (results[i] != RUNNING) {
+					running--;
+					r.update(PlayerId.values()[results[i] - 1]);
+					r.n++;
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Draw a number
+	 * @param random A random number
+	 * @param n The bound
+	 * @return A number between 0 and n - 1
+	 */
+	private static int draw(long random, int n) {
+		return (int) (((random >>> 32) * n) >>> 32);
+	}
+
+	/**
+	 * Find a move in the move masks of a game
+	 * @param masks {@link #simple} or {@link #jumps}
+	 * @param lane The game
+	 * @param k The number of the move
+	 * @return The direction of the move in the high bits, and the number of the bit of the pawn in the low byte
+	 */
+	private int select(long[] masks, int lane, int k) {
+		for (int d = 0; d < 4; ++d) {
+			long mask = masks[d * capacity + lane];
+			int count = Long.bitCount(mask);
+			if (k < count) {
+				for (; k > 0; --k) {
+					mask &= mask - 1;
+				}
+				return d << 8 | Long.numberOfTrailingZeros(mask);
+			}
+			k -= count;
+		}
+		throw new IllegalStateException();
+	}
+
+	/**
+	 * Play a random move in a game, and set its result if it ends
+	 * @param g The geometry of the board
+	 * @param lane The game
+	 */
+	private void play(Geometry g, int lane) {
+		boolean whites = whiteToMove[lane] != 0;
+		long own = whites ? white[lane] : black[lane];
+		long opp = whites ? black[lane] : white[lane];
+		long random = randoms[lane];
+		int nbJumps = 0;
+		int nbSimple = 0;
+		for (int d = 0; d < 4; ++d) {
+			nbJumps += Long.bitCount(jumps[d * capacity + lane]);
+			nbSimple += Long.bitCount(simple[d * capacity + lane]);
+		}
+		long crowningRow = whites ? g.topRow : g.bottomRow;
+		long from;
+		long to;
+		boolean king;
+		if (nbJumps > 0) {
+			int move = select(jumps, lane, draw(random, nbJumps));
+			int d = move >>> 8;
+			from = 1L << (move & 0xFF);
+			king = (kings[lane] & from) != 0;
+			// The origin counts as empty, the captured pawns stay until the end of the move
+			long empty = (~(own | opp) & g.full) | from;
+			long captured = 0;
+			to = from;
+			while (true) {
+				long over = g.neighbors(to, d);
+				captured |= over;
+				to = g.neighbors(over, d);
+				if (!king && (to & crowningRow) != 0)
+					break;
+				// Directions in which the pawn can jump again, one bit per direction
+				int next = 0;
+				for (int e = 0; e < 4; ++e) {
+					if (!king && (e < 2) != whites)
+						continue;
+					long jumped = g.neighbors(to, e) & opp & ~captured;
+					if ((g.neighbors(jumped, e) & empty) != 0) {
+						next |= 1 << e;
+					}
+				}
+				if (next == 0)
+					break;
+				random = random * 0x5851F42D4C957F2DL + 0x14057B7EF767814FL;
+				for (int k = draw(random, Integer.bitCount(next)); k > 0; --k) {
+					next &= next - 1;
+				}
+				d = Integer.numberOfTrailingZeros(next);
+			}
+			opp &= ~captured;
+			kings[lane] &= ~captured;
+			if (king) {
+				kingMoves[lane] = 0;
+			}
+		} else if (nbSimple > 0) {
+			int move = select(simple, lane, draw(random, nbSimple));
+			from = 1L << (move & 0xFF);
+			to = g.neighbors(from, move >>> 8);
+			king = (kings[lane] & from) != 0;
+			if (king) {
+				kingMoves[lane]++;
+			}
+		} else {
+			// A player who cannot play loses
+			results[lane] = (byte) (1 + (whites ? PlayerId.TWO : PlayerId.ONE).ordinal());
+			return;
+		}
+		own = (own & ~from) | to;
+		if (king) {
+			kings[lane] = (kings[lane] & ~from) | to;
+		} else if ((to & crowningRow) != 0) {
+			kings[lane] |= to;
+		}
+		if (whites) {
+			white[lane] = own;
+			black[lane] = opp;
+		} else {
+			black[lane] = own;
+			white[lane] = opp;
+		}
+		whiteToMove[lane] = ~whiteToMove[lane];
+		// Same end conditions as EnglishDraughts.winner()
+		if (black[lane] == 0) {
+			results[lane] = (byte) (1 + PlayerId.ONE.ordinal());
+		} else if (white[lane] == 0) {
+			results[lane] = (byte) (1 + PlayerId.TWO.ordinal());
+		} else if (kingMoves[lane] >= 25) {
+			results[lane] = (byte) (1 + PlayerId.NONE.ordinal());
+		}
+	}
+}
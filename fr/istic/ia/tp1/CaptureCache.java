@@ -0,0 +1,193 @@
+package fr.istic.ia.tp1;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the capture sequences of {@link EnglishDraughts}, shared by all the games of a board size.
+ *
+ * The capture sequences of a pawn only depend on its square, on its type (white checker, black checker or
+ * king) and on the tiles that a chain of jumps from its square could reach: which of them hold an adversary
+ * pawn and which are empty. An entry stores the jump paths found for such a key, so that the same local
+ * pattern is only searched once.
+ *
+ * The table is direct-mapped with a fixed number of entries: a new entry replaces the previous one of its
+ * slot. The entries are immutable, so the table is read and written without lock by all the threads.
+ * Only boards with at most 64 tiles are cached (up to 10x10).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class CaptureCache {
+	/** Number of entries of a cache */
+	static final int CAPACITY = 1 << 14;
+
+	/** Types of pawns */
+	static final int WHITE_CHECKER = 0, BLACK_CHECKER = 1, KING = 2;
+
+	/**
+	 * The capture sequences of a pawn in a neighborhood
+	 */
+	static final class Entry {
+		/** The key */
+		final int origin;
+		final int type;
+		final long adversaries;
+		final long empty;
+
+		/** The paths: the squares of path i are <code>squares[offsets[i]]</code> to <code>squares[offsets[i+1] - 1]</code> */
+		final int[] squares;
+		final int[] offsets;
+
+		Entry(int origin, int type, long adversaries, long empty, int[] squares, int[] offsets) {
+			this.origin = origin;
+			this.type = type;
+			this.adversaries = adversaries;
+			this.empty = empty;
+			this.squares = squares;
+			this.offsets = offsets;
+		}
+
+		/**
+		 * Number of paths
+		 * @return The number of capture sequences
+		 */
+		int size() {
+			return offsets.length - 1;
+		}
+	}
+
+	/** The caches by board size */
+	private static final CaptureCache[] CACHES = new CaptureCache[11];
+	static {
+		for (int size = 4; size <= 10; size += 2) {
+			CACHES[size] = new CaptureCache(new CheckerBoard(size));
+		}
+	}
+
+	/**
+	 * The cache of a board size
+	 * @param size The board size
+	 * @return The cache, or <code>null</code> if the board is too large
+	 */
+	static CaptureCache forSize(int size) {
+		return size < CACHES.length ? CACHES[size] : null;
+	}
+
+	/** The tiles that a chain of jumps could reach from each square, by type of pawn: index type * (tiles + 1) + square */
+	private final long[] reach;
+
+	/** Number of tiles + 1 */
+	private final int stride;
+
+	/** The entries */
+	private final Entry[] entries = new Entry[CAPACITY];
+
+	/** Counters */
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private CaptureCache(CheckerBoard board) {
+		stride = board.nbPlayableTiles() + 1;
+		reach = new long[3 * stride];
+		for (int type = 0; type < 3; ++type) {
+			for (int square = 1; square < stride; ++square) {
+				reach[type * stride + square] = reach(board, type, square);
+			}
+		}
+	}
+
+	/**
+	 * Tiles reachable by chains of jumps (jumped tiles and landings), whatever the pawns on the board
+	 */
+	private static long reach(CheckerBoard board, int type, int origin) {
+		long reached = 1L << (origin - 1);
+		long visited = 0;
+		long todo = reached;
+		while (todo != 0) {
+			int square = Long.numberOfTrailingZeros(todo) + 1;
+			todo &= todo - 1;
+			visited |= 1L << (square - 1);
+			for (int d = 0; d < 4; ++d) {
+				if (type == WHITE_CHECKER && d >= 2 || type == BLACK_CHECKER && d < 2)
+					continue;
+				int over = neighbor(board, square, d);
+				int landing = over > 0 ? neighbor(board, over, d) : 0;
+				if (landing > 0) {
+					reached |= 1L << (over - 1) | 1L << (landing - 1);
+					if ((visited & 1L << (landing - 1)) == 0) {
+						todo |= 1L << (landing - 1);
+					}
+				}
+			}
+		}
+		return reached;
+	}
+
+	private static int neighbor(CheckerBoard board, int square, int direction) {
+		switch (direction) {
+		case EnglishDraughts.UP_RIGHT:   return board.neighborUpRight(square);
+		case EnglishDraughts.UP_LEFT:    return board.neighborUpLeft(square);
+		case EnglishDraughts.DOWN_RIGHT: return board.neighborDownRight(square);
+		default:                         return board.neighborDownLeft(square);
+		}
+	}
+
+	/**
+	 * The tiles which determine the captures of a pawn
+	 * @param type The type of the pawn
+	 * @param origin Its square
+	 * @return The mask of the tiles reachable by its jumps
+	 */
+	long reach(int type, int origin) {
+		return reach[type * stride + origin];
+	}
+
+	private static int slot(int origin, int type, long adversaries, long empty) {
+		long h = (adversaries * 0x9E3779B97F4A7C15L) ^ (empty * 0xC2B2AE3D27D4EB4FL) ^ (origin * 3L + type);
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 40) & (CAPACITY - 1);
+	}
+
+	/**
+	 * Get the capture sequences of a pawn
+	 * @param origin The square of the pawn
+	 * @param type The type of the pawn
+	 * @param adversaries The adversary pawns, restricted to {@link #reach(int, int)}
+	 * @param empty The empty tiles (including <code>origin</code>), restricted to {@link #reach(int, int)}
+	 * @return The entry, or <code>null</code> if it is not in the cache
+	 */
+	Entry get(int origin, int type, long adversaries, long empty) {
+		Entry entry = entries[slot(origin, type, adversaries, empty)];
+		if (entry != null && entry.origin == origin && entry.type == type && entry.adversaries == adversaries
+				&& entry.empty == empty) {
+			hits.increment();
+			return entry;
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Add the capture sequences of a pawn, replacing the entry of the same slot
+	 * @param entry
+	 */
+	void put(Entry entry) {
+		entries[slot(entry.origin, entry.type, entry.adversaries, entry.empty)] = entry;
+	}
+
+	/**
+	 * Number of lookups which found the sequences
+	 * @return The number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of lookups which did not find the sequences
+	 * @return The number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+}
@@ -4,6 +4,7 @@
 package fr.istic.ia.tp1;
 
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -16,6 +17,30 @@ public class CheckerBoard {
 	final byte size;
 	private byte[] state;
 	
+	/** Zobrist hash of the board, updated on each {@link CheckerBoard#set(int, byte)} */
+	private long hash;
+	
+	/** Zobrist hash of the colour-flipped board (see {@link CheckerBoard#mirror()}), updated on each {@link CheckerBoard#set(int, byte)} */
+	private long mirrorHash;
+	
+	/** Number of modifications of the board, to detect the changes since a cached computation */
+	int modCount;
+	
+	/** Bit masks of the white and black pawns of the first 64 tiles, updated on each {@link CheckerBoard#set(int, byte)} */
+	private long whiteBits;
+	private long blackBits;
+	
+	/** Zobrist keys, indexed by tile number - 1 and pawn ID (zero for empty tiles) */
+	static final long[][] ZOBRIST = new long[72][8];
+	static {
+		SplittableRandom random = new SplittableRandom(0x5EED_D4A6_4E7AL);
+		for (int square = 0; square < ZOBRIST.length; ++square) {
+			for (int pawn = 1; pawn < ZOBRIST[square].length; ++pawn) {
+				ZOBRIST[square][pawn] = random.nextLong();
+			}
+		}
+	}
+	
 	/** An ID indicating a point was not on the checker board. */
 	public static final byte INVALID = -1;
 
@@ -41,6 +66,15 @@ public class CheckerBoard {
 		this(8);
 	}
 	
+	/**
+	 * Check if a board size is supported
+	 * @param size The size of one side of the checker board
+	 * @return <code>true</code> for 4, 6, 8, 10 and 12
+	 */
+	public static boolean isValidSize(int size) {
+		return size >= 4 && size <= 12 && size % 2 == 0;
+	}
+	
 	/**
 	 * Constructor with configurable size. Create a <code>size</code> x <code>size</code> checker-board.
 	 * @param size The size of one side of the checker board. Valid sizes are 4, 6, 8, 10 and 12.
@@ -65,6 +99,10 @@ public class CheckerBoard {
 	protected CheckerBoard(CheckerBoard board) {
 		this.size = board.size;
 		this.state = board.state.clone();
+		this.hash = board.hash;
+		this.mirrorHash = board.mirrorHash;
+		this.whiteBits = board.whiteBits;
+		this.blackBits = board.blackBits;
 	}
 	
 	@Override
@@ -206,7 +244,79 @@ public class CheckerBoard {
 	 * @param value ID of the pawn type (e.g {@link CheckerBoard#BLACK_CHECKER}, {@link CheckerBoard#BLACK_KING}... or {@link CheckerBoard#EMPTY})
 	 */
 	 void set(int square, byte value) {
+		hash ^= ZOBRIST[square-1][state[square-1]] ^ ZOBRIST[square-1][value];
+		mirrorHash ^= ZOBRIST[state.length-square][mirrorPiece(state[square-1])] ^ ZOBRIST[state.length-square][mirrorPiece(value)];
 		state[square-1] = value;
+		modCount++;
+		if (square <= 64) {
+			long bit = 1L << (square-1);
+			whiteBits &= ~bit;
+			blackBits &= ~bit;
+			if (value == WHITE_CHECKER || value == WHITE_KING) {
+				whiteBits |= bit;
+			} else if (value == BLACK_CHECKER || value == BLACK_KING) {
+				blackBits |= bit;
+			}
+		}
+	}
+	
+	/**
+	 * Get the Zobrist hash of the board. Boards with the same pawns have the same hash.
+	 * @return A 64-bit hash of the board contents
+	 */
+	public long hash() {
+		return hash;
+	}
+	
+	/**
+	 * Get the Zobrist hash of the colour-flipped board, without building it
+	 * @return The same value as <code>mirror().hash()</code>
+	 */
+	public long mirrorHash() {
+		return mirrorHash;
+	}
+	
+	/**
+	 * Build the colour-flipped board: the board rotated by a half-turn, with the colours of the pawns swapped.
+	 * The whites of the flipped board play exactly as the blacks of this board, and conversely.
+	 * @return A new board
+	 */
+	public CheckerBoard mirror() {
+		CheckerBoard board = new CheckerBoard(this);
+		for (int square = 1; square <= nbPlayableTiles(); ++square) {
+			board.set(square, mirrorPiece(get(mirrorSquare(square))));
+		}
+		return board;
+	}
+	
+	/**
+	 * Tile number of a square on the colour-flipped board. The tiles are numbered row by row,
+	 * so a half-turn reverses the numbering.
+	 * @param square Tile number
+	 * @return Tile number of the rotated square (the function is its own inverse)
+	 */
+	public int mirrorSquare(int square) {
+		return state.length + 1 - square;
+	}
+	
+	/**
+	 * Swap the colour of a pawn
+	 * @param piece ID of the pawn type (or {@link CheckerBoard#EMPTY})
+	 * @return ID of the pawn of the same kind and of the other colour (or {@link CheckerBoard#EMPTY})
+	 */
+	static byte mirrorPiece(byte piece) {
+		// The colour is the bit of weight 2
+		return piece == EMPTY ? EMPTY : (byte) (piece ^ 2);
+	}
+	
+	/**
+	 * Rotate a bit mask (see {@link CheckerBoard#whiteMask()}) by a half-turn: bit i-1 moves to bit n-i
+	 * for a board of n tiles. Only valid for boards with at most 64 tiles.
+	 * @param mask A bit mask of tiles
+	 * @return The bit mask of the rotated tiles
+	 */
+	public long mirrorMask(long mask) {
+		return Long.reverse(mask) >>> (64 - state.length);
 	}
 	
 	/**
@@ -396,6 +506,66 @@ public class CheckerBoard {
 			set(square, BLACK_KING);
 	}
 
+	/**
+	 * Bit mask of the tiles containing one of two pawn types: bit i-1 is set for tile i.
+	 * Only valid for boards with at most 64 tiles (size 10 or less).
+	 * @param type1 A pawn ID
+	 * @param type2 Another pawn ID
+	 * @return The bit mask
+	 */
+	private long mask(byte type1, byte type2) {
+		long mask = 0L;
+		for (int i = 0; i < state.length; ++i) {
+			if (state[i] == type1 || state[i] == type2) {
+				mask |= 1L << i;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Bit mask of the white pawns (bit i-1 for tile i). Only valid for boards with at most 64 tiles.
+	 * @return The bit mask
+	 */
+	public long whiteMask() {
+		return whiteBits;
+	}
+	
+	/**
+	 * Bit mask of the black pawns (bit i-1 for tile i). Only valid for boards with at most 64 tiles.
+	 * @return The bit mask
+	 */
+	public long blackMask() {
+		return blackBits;
+	}
+	
+	/**
+	 * Bit mask of the kings, black or white (bit i-1 for tile i). Only valid for boards with at most 64 tiles.
+	 * @return The bit mask
+	 */
+	public long kingMask() {
+		return mask(WHITE_KING, BLACK_KING);
+	}
+	
+	/**
+	 * Set the whole board from bit masks (see {@link CheckerBoard#whiteMask()}).
+	 * @param white Bit mask of the white pawns
+	 * @param black Bit mask of the black pawns
+	 * @param kings Bit mask of the kings
+	 */
+	void setFromMasks(long white, long black, long kings) {
+		for (int square = 1; square <= nbPlayableTiles(); ++square) {
+			long bit = 1L << (square - 1);
+			byte value = EMPTY;
+			if ((white & bit) != 0) {
+				value = (kings & bit) != 0 ? WHITE_KING : WHITE_CHECKER;
+			} else if ((black & bit) != 0) {
+				value = (kings & bit) != 0 ? BLACK_KING : BLACK_CHECKER;
+			}
+			set(square, value);
+		}
+	}
+
 	/**
 	 * Retrieve the positions of all white pawns in the board
 	 * @return The list of white pawns
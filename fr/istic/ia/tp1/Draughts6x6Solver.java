@@ -0,0 +1,369 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import fr.istic.ia.tp1.Game.Move;
+
+/**
+ * Parallel solver of English draughts on the 6x6 board.
+ *
+ * The solver first enumerates all the positions reachable from the initial position, with a
+ * breadth-first search whose visited set is a lock-free open-addressing hash table, grown between two depths
+ * when the next one could fill it. The visited set is then compacted into the array of the positions sorted by
+ * key, so that the positions have dense ranks (their index in this array) and the values are stored in an
+ * array of the same size. The values are computed by forward fixed-point passes which generate the moves of
+ * every unresolved position again at each pass (see {@link EndgameTablebaseGenerator}), and the sorted keys and
+ * the values are written to disk as a {@link SolvedPositions} file.
+ * The positions are keyed by their canonical form (see {@link SolvedPositions#key(EnglishDraughts)}), so that
+ * a position and its colour-flipped twin are enumerated and solved once.
+ *
+ * Usage:
+ * <ul>
+ * <li><code>Draughts6x6Solver solve file</code> to solve the game</li>
+ * <li><code>Draughts6x6Solver measure file samples timeMillis...</code> to measure how often MCTS finds
+ * an optimal move with each time budget (on positions drawn with a fixed seed)</li>
+ * </ul>
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class Draughts6x6Solver {
+	/** Base-2 logarithm of the initial capacity of the visited set */
+	static final int INITIAL_LOG2_CAPACITY = 16;
+
+	/** Seed of the positions drawn by {@link #measure(SolvedPositions, int, long, int[])} */
+	static final long MEASURE_SEED = 6;
+
+	/** Keys of the visited set, {@link SolvedPositions#EMPTY} for free slots (<code>null</code> once compacted) */
+	AtomicLongArray keys;
+
+	/** Capacity of the visited set (a power of 2) */
+	int capacity;
+
+	/** Number of positions in the visited set */
+	final AtomicLong size = new AtomicLong();
+
+	/** The positions by increasing key, once enumerated: the rank of a position is its index */
+	long[] positions;
+
+	/** Values of the positions by rank (value in the 2 upper bits, distance in the lower bits) */
+	short[] values;
+
+	/** Print the progress of the enumeration */
+	boolean verbose;
+
+	/** Scratch game of each thread */
+	private final ThreadLocal<EnglishDraughts> scratch = ThreadLocal.withInitial(() -> new EnglishDraughts(6));
+
+	/**
+	 * Constructor
+	 */
+	public Draughts6x6Solver() {
+		keys = emptyTable(1 << INITIAL_LOG2_CAPACITY);
+	}
+
+	private AtomicLongArray emptyTable(int capacity) {
+		this.capacity = capacity;
+		AtomicLongArray table = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; ++i) {
+			table.set(i, SolvedPositions.EMPTY);
+		}
+		return table;
+	}
+
+	/**
+	 * Add a position to the visited set
+	 * @param key The key of the position
+	 * @return <code>true</code> if the position was not in the set yet
+	 */
+	boolean add(long key) {
+		int slot = SolvedPositions.slot(key, capacity);
+		while (true) {
+			long stored = keys.get(slot);
+			if (stored == key)
+				return false;
+			if (stored == SolvedPositions.EMPTY) {
+				if (keys.compareAndSet(slot, SolvedPositions.EMPTY, key)) {
+					size.incrementAndGet();
+					return true;
+				}
+				// Another thread took the slot, check it again
+				continue;
+			}
+			slot = (slot + 1) & (capacity - 1);
+		}
+	}
+
+	/**
+	 * Grow the visited set until it can receive more positions with a load factor of at most 3/4
+	 * @param more The number of positions which may be added
+	 */
+	void reserve(long more) {
+		long needed = size.get() + more;
+		if (needed <= capacity - capacity / 4)
+			return;
+		int newCapacity = capacity;
+		while (needed > newCapacity - newCapacity / 4) {
+			if (newCapacity == 1 << 30)
+				throw new IllegalStateException("Too many positions: " + needed);
+			newCapacity *= 2;
+		}
+		AtomicLongArray old = keys;
+		keys = emptyTable(newCapacity);
+		size.set(0);
+		IntStream.range(0, old.length()).parallel().forEach(slot -> {
+			if (old.get(slot) != SolvedPositions.EMPTY) {
+				add(old.get(slot));
+			}
+		});
+	}
+
+	/**
+	 * Enumerate all the positions reachable from a starting position, then rank them
+	 * @param start The starting position (the initial position to solve the game)
+	 * @return The number of positions
+	 */
+	long enumerate(EnglishDraughts start) {
+		long[] frontier = { SolvedPositions.key(start) };
+		add(frontier[0]);
+		int depth = 0;
+		while (frontier.length > 0) {
+			long[] children = LongStream.of(frontier).parallel().flatMap(key -> {
+				EnglishDraughts game = scratch.get();
+				SolvedPositions.setPosition(key, game);
+				if (game.winner() != null)
+					return LongStream.empty();
+				LongStream.Builder next = LongStream.builder();
+				for (Move move : game.possibleMoves()) {
+					EnglishDraughts child = game.clone();
+					child.play(move);
+					next.add(SolvedPositions.key(child));
+				}
+				return next.build();
+			}).toArray();
+			reserve(children.length);
+			frontier = LongStream.of(children).parallel().filter(this::add).toArray();
+			++depth;
+			if (verbose)
+				System.out.println("Depth " + depth + ": " + frontier.length + " new positions, " + size.get() + " in total");
+		}
+		compact();
+		return positions.length;
+	}
+
+	/**
+	 * Replace the visited set with the array of the positions sorted by key
+	 */
+	void compact() {
+		AtomicLongArray table = keys;
+		positions = IntStream.range(0, capacity).parallel().mapToLong(table::get)
+				.filter(key -> key != SolvedPositions.EMPTY).toArray();
+		Arrays.parallelSort(positions);
+		keys = null;
+	}
+
+	/**
+	 * Rank of an enumerated position
+	 * @param key The key of the position
+	 * @return The index of the position in {@link #positions}
+	 */
+	int rank(long key) {
+		return Arrays.binarySearch(positions, key);
+	}
+
+	/**
+	 * Solve all the enumerated positions
+	 * @return The number of passes
+	 */
+	int solve() {
+		int count = positions.length;
+		values = new short[count];
+		short[] nextValues = new short[count];
+		final short loss = (short) (EndgameTablebase.LOSS << SolvedPositions.DISTANCE_BITS);
+		final int distanceMask = (1 << SolvedPositions.DISTANCE_BITS) - 1;
+
+		// Pass 0: positions where the side to move has no pawn or no move
+		IntStream.range(0, count).parallel().forEach(rank -> {
+			EnglishDraughts game = scratch.get();
+			SolvedPositions.setPosition(positions[rank], game);
+			if (game.winner() != null || game.possibleMoves().isEmpty()) {
+				values[rank] = loss;
+			}
+		});
+
+		AtomicLong resolved = new AtomicLong();
+		int passes = 0;
+		do {
+			resolved.set(0);
+			IntStream.range(0, count).parallel().forEach(rank -> {
+				if (values[rank] != 0)
+					return;
+				EnglishDraughts game = scratch.get();
+				SolvedPositions.setPosition(positions[rank], game);
+				boolean allWon = true;
+				int bestWin = Integer.MAX_VALUE;
+				int worstLoss = 0;
+				for (Move move : game.possibleMoves()) {
+					EnglishDraughts child = game.clone();
+					child.play(move);
+					int raw = values[rank(SolvedPositions.key(child))] & 0xFFFF;
+					int value = raw >>> SolvedPositions.DISTANCE_BITS;
+					int distance = raw & distanceMask;
+					if (value == EndgameTablebase.LOSS) {
+						bestWin = Math.min(bestWin, distance);
+					} else if (value == EndgameTablebase.WIN) {
+						worstLoss = Math.max(worstLoss, distance);
+					} else {
+						allWon = false;
+					}
+				}
+				if (bestWin != Integer.MAX_VALUE) {
+					nextValues[rank] = (short) (EndgameTablebase.WIN << SolvedPositions.DISTANCE_BITS
+							| Math.min(distanceMask, bestWin + 1));
+					resolved.incrementAndGet();
+				} else if (allWon) {
+					nextValues[rank] = (short) (EndgameTablebase.LOSS << SolvedPositions.DISTANCE_BITS
+							| Math.min(distanceMask, worstLoss + 1));
+					resolved.incrementAndGet();
+				}
+			});
+			// Publish the values of this pass for the next one
+			IntStream.range(0, count).parallel().forEach(rank -> {
+				if (nextValues[rank] != 0) {
+					values[rank] = nextValues[rank];
+					nextValues[rank] = 0;
+				}
+			});
+			++passes;
+		} while (resolved.get() > 0);
+
+		// Unresolved positions are draws
+		final short draw = (short) (EndgameTablebase.DRAW << SolvedPositions.DISTANCE_BITS);
+		for (int rank = 0; rank < count; ++rank) {
+			if (values[rank] == 0) {
+				values[rank] = draw;
+			}
+		}
+		return passes;
+	}
+
+	/**
+	 * Write the sorted keys and the values to a file
+	 * @param file
+	 * @throws IOException
+	 */
+	void write(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+			buffer.putInt(SolvedPositions.MAGIC).putInt(SolvedPositions.VERSION).putLong(positions.length);
+			for (long key : positions) {
+				if (buffer.remaining() < 8) {
+					flush(channel, buffer);
+				}
+				buffer.putLong(key);
+			}
+			for (short value : values) {
+				if (buffer.remaining() < 2) {
+					flush(channel, buffer);
+				}
+				buffer.putShort(value);
+			}
+			flush(channel, buffer);
+		}
+	}
+
+	/**
+	 * Write the contents of a buffer to a channel and clear it
+	 * @param channel
+	 * @param buffer
+	 * @throws IOException
+	 */
+	static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Measure how often MCTS finds an optimal move with different time budgets,
+	 * on positions drawn from random games
+	 * @param table The solved positions
+	 * @param samples The number of positions
+	 * @param seed The seed of the random games, so that a measure can be reproduced
+	 * @param budgets The time budgets, in milliseconds
+	 */
+	static void measure(SolvedPositions table, int samples, long seed, int[] budgets) {
+		PlayerPerfect oracle = new PlayerPerfect(table);
+		Random random = new Random(seed);
+		int[] found = new int[budgets.length];
+		int tested = 0;
+		while (tested < samples) {
+			// Random position, where not all moves are optimal
+			EnglishDraughts game = new EnglishDraughts(6);
+			int plies = random.nextInt(20);
+			for (int i = 0; i < plies && !game.isTerminal(); ++i) {
+				game.playIndex(random.nextInt(game.moveCount()));
+			}
+			if (game.isTerminal())
+				continue;
+			List<Move> optimal = oracle.optimalMoves(game);
+			if (optimal.size() == game.possibleMoves().size())
+				continue;
+			for (int b = 0; b < budgets.length; ++b) {
+				MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game);
+				mcts.setVerbose(false);
+				mcts.evaluateTreeWithTimeLimit(budgets[b]);
+				if (optimal.contains(mcts.getBestMove())) {
+					found[b]++;
+				}
+			}
+			++tested;
+		}
+		for (int b = 0; b < budgets.length; ++b) {
+			System.out.println(budgets[b] + " ms: " + found[b] + "/" + samples + " optimal moves");
+		}
+	}
+
+	/**
+	 * Solver entry point
+	 * @param args See the class documentation
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 2 && args[0].equals("solve")) {
+			long start = System.nanoTime();
+			Draughts6x6Solver solver = new Draughts6x6Solver();
+			solver.verbose = true;
+			long positions = solver.enumerate(new EnglishDraughts(6));
+			int passes = solver.solve();
+			solver.write(Paths.get(args[1]));
+			System.out.println(positions + " positions solved in " + passes + " passes, "
+					+ TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s");
+		} else if (args.length >= 4 && args[0].equals("measure")) {
+			int[] budgets = new int[args.length - 3];
+			for (int i = 0; i < budgets.length; ++i) {
+				budgets[i] = Integer.parseInt(args[i + 3]);
+			}
+			measure(new SolvedPositions(Paths.get(args[1])), Integer.parseInt(args[2]), MEASURE_SEED, budgets);
+		} else {
+			System.out.println("Usage: Draughts6x6Solver solve file");
+			System.out.println("       Draughts6x6Solver measure file samples timeMillis...");
+		}
+	}
+}
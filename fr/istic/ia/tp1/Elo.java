@@ -0,0 +1,51 @@
+package fr.istic.ia.tp1;
+
+/**
+ * Elo rating utilities for match results.
+ * @author Le Dourner/Guerin
+ *
+ */
+public class Elo {
+	/** Quantile of the normal distribution for a 95% confidence interval */
+	static final double Z_95 = 1.959964;
+
+	/**
+	 * Elo difference corresponding to an expected score
+	 * @param score The expected score, in ]0, 1[ (clamped otherwise)
+	 * @return The Elo difference of the player with this score
+	 */
+	public static double difference(double score) {
+		double s = Math.min(Math.max(score, 1e-6), 1.0 - 1e-6);
+		return -400.0 * Math.log10(1.0 / s - 1.0);
+	}
+
+	/**
+	 * Score of a match result
+	 * @param wins
+	 * @param draws
+	 * @param losses
+	 * @return The score per game (a draw counts as half a win)
+	 */
+	public static double score(int wins, int draws, int losses) {
+		int games = wins + draws + losses;
+		return games == 0 ? 0.5 : (wins + 0.5 * draws) / games;
+	}
+
+	/**
+	 * 95% confidence interval of the Elo difference of a match result,
+	 * from the standard error of the score per game
+	 * @param wins
+	 * @param draws
+	 * @param losses
+	 * @return The lower and upper bounds of the Elo difference
+	 */
+	public static double[] confidenceInterval(int wins, int draws, int losses) {
+		int games = wins + draws + losses;
+		if (games == 0)
+			return new double[] { Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double s = score(wins, draws, losses);
+		double variance = (wins * (1.0 - s) * (1.0 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / games;
+		double error = Z_95 * Math.sqrt(variance / games);
+		return new double[] { difference(s - error), difference(s + error) };
+	}
+}
@@ -0,0 +1,479 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * Read access to the endgame tablebases of English draughts on the 8x8 board,
+ * as written by {@link EndgameTablebaseGenerator}.
+ *
+ * The positions are split in slices by material (white checkers, white kings, black checkers, black kings).
+ * Each slice is stored in its own file, with 2 bits per position (win/loss/draw for the side to move),
+ * and optionally in a second file with the distance to the end of the game (in plies, one byte per position).
+ * Only the positions with the whites to move are stored: a position with the blacks to move is probed as its
+ * colour-flipped twin (see {@link EnglishDraughts#mirror()}), which is in the slice with the colours swapped.
+ * Files are memory-mapped on first use, so that probing is only a few arithmetic operations and one read.
+ * A missing slice is looked for again only after {@link #MISSING_TIMEOUT_NANOS} or {@link #refresh()}.
+ *
+ * Note: the 25 king moves rule is not taken into account in the tables.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class EndgameTablebase {
+	/** Value of a position not stored in the tables (or not valid) */
+	public static final byte UNKNOWN = 0;
+
+	/** Value of a position won by the side to move */
+	public static final byte WIN = 1;
+
+	/** Value of a position lost by the side to move */
+	public static final byte LOSS = 2;
+
+	/** Value of a drawn position */
+	public static final byte DRAW = 3;
+
+	/** Number of playable squares on the 8x8 board */
+	static final int SQUARES = 32;
+
+	/** Magic number at the beginning of each table file ("EDTB") */
+	static final int MAGIC = 0x45445442;
+
+	/** Version of the file format */
+	static final int VERSION = 2;
+
+	/** Size of the header of the table files: magic, version, number of positions */
+	static final int HEADER_SIZE = 16;
+
+	/** Binomial coefficients C(n, k) for n, k <= 32 */
+	static final long[][] BINOMIAL = new long[SQUARES + 1][SQUARES + 1];
+	static {
+		for (int n = 0; n <= SQUARES; ++n) {
+			BINOMIAL[n][0] = 1;
+			for (int k = 1; k <= n; ++k) {
+				BINOMIAL[n][k] = BINOMIAL[n-1][k-1] + BINOMIAL[n-1][k];
+			}
+		}
+	}
+
+	/**
+	 * A memory-mapped slice of the tablebase
+	 */
+	static class Slice {
+		/** Win/loss/draw values, 4 positions per byte */
+		final MappedByteBuffer values;
+
+		/** Distances to the end, one byte per position (may be <code>null</code>) */
+		final MappedByteBuffer distances;
+
+		Slice(MappedByteBuffer values, MappedByteBuffer distances) {
+			this.values = values;
+			this.distances = distances;
+		}
+	}
+
+	/** The directory containing the table files */
+	final Path directory;
+
+	/** The maximal number of pieces of the positions in the tables */
+	final int maxPieces;
+
+	/** Time during which a slice without file is not looked for again (it may be written later) */
+	static final long MISSING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	/** The slices already opened, by material key */
+	private final ConcurrentHashMap<Integer, Slice> slices = new ConcurrentHashMap<>();
+
+	/** The slices without file (or with a corrupt file), by material key, with the time until which they are not looked for */
+	private final ConcurrentHashMap<Integer, Long> missing = new ConcurrentHashMap<>();
+
+	/** The corrupt files already reported */
+	private final Set<Path> reported = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Open the tablebase stored in a directory.
+	 * @param directory The directory containing the table files
+	 * @throws IOException if the directory cannot be read
+	 */
+	public EndgameTablebase(Path directory) throws IOException {
+		this(directory, scanMaxPieces(directory));
+	}
+
+	/**
+	 * Open the tablebase stored in a directory, with a known maximal number of pieces
+	 * (used during the generation, when the files are not written yet).
+	 * @param directory The directory containing the table files
+	 * @param maxPieces The maximal number of pieces of the positions in the tables
+	 */
+	EndgameTablebase(Path directory, int maxPieces) {
+		this.directory = directory;
+		this.maxPieces = maxPieces;
+	}
+
+	/**
+	 * Find the maximal number of pieces in the table files of a directory
+	 * @param directory
+	 * @return The largest number of pieces of a slice file
+	 * @throws IOException
+	 */
+	static int scanMaxPieces(Path directory) throws IOException {
+		int max = 0;
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if (name.startsWith("tb-") && name.endsWith(".wld")) {
+					int sum = 0;
+					for (String count : name.substring(3, name.length() - 4).split("-")) {
+						sum += Integer.parseInt(count);
+					}
+					max = Math.max(max, sum);
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Get the maximal number of pieces of the positions in the tables
+	 * @return The maximal number of pieces
+	 */
+	public int maxPieces() {
+		return maxPieces;
+	}
+
+	/**
+	 * File name of a slice
+	 * @param material Number of white checkers, white kings, black checkers and black kings
+	 * @param extension "wld" for the values or "dtw" for the distances
+	 * @return The file name
+	 */
+	static String fileName(int[] material, String extension) {
+		return String.format("tb-%d-%d-%d-%d.%s", material[0], material[1], material[2], material[3], extension);
+	}
+
+	/**
+	 * Key of a material in the slices map
+	 * @param material
+	 * @return An integer identifying the material
+	 */
+	static int materialKey(int[] material) {
+		return material[0] | (material[1] << 6) | (material[2] << 12) | (material[3] << 18);
+	}
+
+	/**
+	 * Count the pieces of each kind on the board
+	 * @param board An 8x8 checker board
+	 * @return Number of white checkers, white kings, black checkers and black kings
+	 */
+	static int[] material(CheckerBoard board) {
+		int[] material = new int[4];
+		for (int square = 1; square <= SQUARES; ++square) {
+			switch (board.get(square)) {
+			case CheckerBoard.WHITE_CHECKER: material[0]++; break;
+			case CheckerBoard.WHITE_KING:    material[1]++; break;
+			case CheckerBoard.BLACK_CHECKER: material[2]++; break;
+			case CheckerBoard.BLACK_KING:    material[3]++; break;
+			default: break;
+			}
+		}
+		return material;
+	}
+
+	/**
+	 * Material of the colour-flipped positions of a slice
+	 * @param material Number of white checkers, white kings, black checkers and black kings
+	 * @return The material with the colours swapped
+	 */
+	static int[] mirror(int[] material) {
+		return new int[] { material[2], material[3], material[0], material[1] };
+	}
+
+	/**
+	 * Number of positions in a slice (whites to move)
+	 * @param material Number of white checkers, white kings, black checkers and black kings
+	 * @return The number of positions
+	 */
+	static long sliceSize(int[] material) {
+		long size = 1;
+		int free = SQUARES;
+		for (int count : material) {
+			size *= BINOMIAL[free][count];
+			free -= count;
+		}
+		return size;
+	}
+
+	/**
+	 * Index of a position in its slice.
+	 * Squares of each kind of piece are ranked (colex order) among the squares left free by the previous kinds.
+	 * @param board An 8x8 checker board
+	 * @param material The material of the indexed board (see {@link #material(CheckerBoard)})
+	 * @param mirrored <code>true</code> to index the colour-flipped board (see {@link CheckerBoard#mirror()}),
+	 *                 without building it
+	 * @return The index of the position in the slice
+	 */
+	static long index(CheckerBoard board, int[] material, boolean mirrored) {
+		long[] ranks = new long[4];
+		int[] seen = new int[4];
+		for (int square = 1; square <= SQUARES; ++square) {
+			int kind = kindOf(mirrored ? CheckerBoard.mirrorPiece(board.get(board.mirrorSquare(square))) : board.get(square));
+			if (kind < 0)
+				continue;
+			int relative = square - 1;
+			for (int k = 0; k < kind; ++k) {
+				relative -= seen[k];
+			}
+			seen[kind]++;
+			ranks[kind] += BINOMIAL[relative][seen[kind]];
+		}
+		long index = 0;
+		int free = SQUARES;
+		for (int kind = 0; kind < 4; ++kind) {
+			index = index * BINOMIAL[free][material[kind]] + ranks[kind];
+			free -= material[kind];
+		}
+		return index;
+	}
+
+	/**
+	 * Set up the position of a given index in a slice, with the whites to move
+	 * (inverse of {@link #index(CheckerBoard, int[], boolean)}).
+	 * @param index The index of the position
+	 * @param material The material of the slice
+	 * @param game The 8x8 game in which the position is set (board, player, king moves counter)
+	 * @return <code>false</code> if the position is not valid (checker on its promotion row)
+	 */
+	static boolean setPosition(long index, int[] material, EnglishDraughts game) {
+		CheckerBoard board = game.board;
+		for (int square = 1; square <= SQUARES; ++square) {
+			board.removePawn(square);
+		}
+		game.playerId = PlayerId.ONE;
+		game.nbKingMovesWithoutCapture = 0;
+
+		long[] ranks = new long[4];
+		int free = SQUARES;
+		long[] sizes = new long[4];
+		for (int kind = 0; kind < 4; ++kind) {
+			sizes[kind] = BINOMIAL[free][material[kind]];
+			free -= material[kind];
+		}
+		for (int kind = 3; kind >= 0; --kind) {
+			ranks[kind] = index % sizes[kind];
+			index /= sizes[kind];
+		}
+
+		boolean valid = true;
+		for (int kind = 0; kind < 4; ++kind) {
+			// Colex unranking of the relative positions
+			int[] relatives = new int[material[kind]];
+			long rank = ranks[kind];
+			int c = SQUARES;
+			for (int i = material[kind]; i >= 1; --i) {
+				while (BINOMIAL[c][i] > rank) {
+					--c;
+				}
+				relatives[i-1] = c;
+				rank -= BINOMIAL[c][i];
+			}
+			// Map relative positions to the free squares
+			int next = 0;
+			int relative = 0;
+			for (int square = 1; square <= SQUARES && next < relatives.length; ++square) {
+				if (!board.isEmpty(square))
+					continue;
+				if (relative == relatives[next]) {
+					board.set(square, pieceOfKind(kind));
+					if ((kind == 0 && board.inTopRow(square)) || (kind == 2 && board.inBottomRow(square))) {
+						valid = false;
+					}
+					++next;
+				}
+				++relative;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Kind index of a piece: 0 white checker, 1 white king, 2 black checker, 3 black king
+	 * @param piece The ID of the piece on the board
+	 * @return The kind index, -1 for an empty square
+	 */
+	static int kindOf(byte piece) {
+		switch (piece) {
+		case CheckerBoard.WHITE_CHECKER: return 0;
+		case CheckerBoard.WHITE_KING:    return 1;
+		case CheckerBoard.BLACK_CHECKER: return 2;
+		case CheckerBoard.BLACK_KING:    return 3;
+		default: return -1;
+		}
+	}
+
+	/**
+	 * Piece ID of a kind index (inverse of {@link #kindOf(byte)})
+	 * @param kind
+	 * @return The ID of the piece
+	 */
+	static byte pieceOfKind(int kind) {
+		switch (kind) {
+		case 0: return CheckerBoard.WHITE_CHECKER;
+		case 1: return CheckerBoard.WHITE_KING;
+		case 2: return CheckerBoard.BLACK_CHECKER;
+		default: return CheckerBoard.BLACK_KING;
+		}
+	}
+
+	/**
+	 * Forget the slices without file, so that the files written since are found at the next probe
+	 */
+	public void refresh() {
+		missing.clear();
+	}
+
+	/**
+	 * Get (and map if needed) the slice of a material
+	 * @param material
+	 * @return The slice, or <code>null</code> if it has no file
+	 */
+	private Slice slice(int[] material) {
+		int key = materialKey(material);
+		Slice slice = slices.get(key);
+		if (slice == null) {
+			Long until = missing.get(key);
+			if (until != null && System.nanoTime() - until < 0)
+				return null;
+			slice = open(material);
+			if (slice == null) {
+				missing.put(key, System.nanoTime() + MISSING_TIMEOUT_NANOS);
+				return null;
+			}
+			Slice previous = slices.putIfAbsent(key, slice);
+			if (previous != null) {
+				slice = previous;
+			}
+		}
+		return slice;
+	}
+
+	/**
+	 * Map the files of a slice
+	 * @param material
+	 * @return The slice, or <code>null</code> if it has no file or a file cannot be read (reported once)
+	 */
+	private Slice open(int[] material) {
+		Path values = directory.resolve(fileName(material, "wld"));
+		if (!Files.exists(values))
+			return null;
+		Path distances = directory.resolve(fileName(material, "dtw"));
+		Path file = values;
+		try {
+			MappedByteBuffer mappedValues = map(values);
+			file = distances;
+			return new Slice(mappedValues, Files.exists(distances) ? map(distances) : null);
+		} catch (IOException e) {
+			if (reported.add(file)) {
+				System.err.println("Tablebase file ignored: " + e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Map a table file in memory (read-only), after checking its header
+	 * @param file
+	 * @return The mapped file
+	 * @throws IOException if the file cannot be read or has a wrong header
+	 */
+	static MappedByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("Not a tablebase file: " + file);
+			return buffer;
+		}
+	}
+
+	/**
+	 * Material of the canonical form of a position (see {@link EnglishDraughts#canonical()})
+	 * @param game An English draughts game on the 8x8 board
+	 * @return The material of the board, with the colours swapped if the blacks are to move
+	 */
+	static int[] canonicalMaterial(EnglishDraughts game) {
+		int[] material = material(game.board);
+		return game.isCanonical() ? material : mirror(material);
+	}
+
+	/**
+	 * Probe the value of a position
+	 * @param game An English draughts game on the 8x8 board
+	 * @return {@link #WIN}, {@link #LOSS} or {@link #DRAW} for the player to move,
+	 *         or {@link #UNKNOWN} if the position is not in the tables
+	 */
+	public byte probe(EnglishDraughts game) {
+		if (game.board.size != 8)
+			return UNKNOWN;
+		int[] material = canonicalMaterial(game);
+		int pieces = material[0] + material[1] + material[2] + material[3];
+		if (pieces > maxPieces || material[0] + material[1] == 0 || material[2] + material[3] == 0)
+			return UNKNOWN;
+		Slice slice = slice(material);
+		if (slice == null)
+			return UNKNOWN;
+		long index = index(game.board, material, !game.isCanonical());
+		int packed = slice.values.get(HEADER_SIZE + (int) (index >>> 2));
+		return (byte) ((packed >>> ((index & 3) * 2)) & 3);
+	}
+
+	/**
+	 * Probe the distance to the end of the game of a position
+	 * @param game An English draughts game on the 8x8 board
+	 * @return The number of plies to the end of the game with a perfect play (capped to 255),
+	 *         or -1 if not available
+	 */
+	public int probeDistance(EnglishDraughts game) {
+		if (probe(game) == UNKNOWN)
+			return -1;
+		int[] material = canonicalMaterial(game);
+		Slice slice = slice(material);
+		if (slice.distances == null)
+			return -1;
+		long index = index(game.board, material, !game.isCanonical());
+		return slice.distances.get(HEADER_SIZE + (int) index) & 0xFF;
+	}
+
+	/**
+	 * Probe the winner of a position with a perfect play
+	 * @param game An English draughts game on the 8x8 board
+	 * @return The PlayerId of the winner, {@link PlayerId#NONE} if draw,
+	 *         or <code>null</code> if the position is not in the tables
+	 */
+	public PlayerId probeWinner(EnglishDraughts game) {
+		switch (probe(game)) {
+		case WIN:  return game.player();
+		case LOSS: return game.player().other();
+		case DRAW: return PlayerId.NONE;
+		default:   return null;
+		}
+	}
+
+	/**
+	 * Get the winner of any game state
+	 * @param game A game state
+	 * @return The winner with a perfect play, or <code>null</code> if the state is not an {@link EnglishDraughts}
+	 * state of the tablebase
+	 */
+	public PlayerId probeWinner(Game game) {
+		return game instanceof EnglishDraughts ? probeWinner((EnglishDraughts) game) : null;
+	}
+}
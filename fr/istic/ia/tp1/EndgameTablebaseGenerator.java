@@ -0,0 +1,440 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import fr.istic.ia.tp1.Game.Move;
+
+/**
+ * Offline generator of the English draughts endgame tablebases on the 8x8 board (see {@link EndgameTablebase}).
+ *
+ * Slices are solved by increasing number of pieces, then by increasing number of checkers, so that
+ * every capture or promotion leads to an already solved slice. Inside a slice, the values are computed
+ * by retrograde analysis. A single forward pass generates the moves of every position once: the children
+ * in already solved slices are looked up, and the children inside the slice are only counted. A position is won
+ * if a move leads to a position lost for the opponent, and lost if all the moves lead to positions won by
+ * the opponent (or if no move can be played). Then the values are propagated by waves: the predecessors of the
+ * positions resolved at the previous wave are generated by unplaying a simple move, and their counters of
+ * unresolved children (or their best child) are updated. A position resolved at wave w only uses values of
+ * previous waves, so that distances are exact. The positions which are still unresolved when a wave resolves
+ * nothing are draws. Each position has its moves generated once and its predecessors generated once.
+ * The slices only store the positions with the whites to move, and the moves lead to positions with the blacks
+ * to move, looked up as their colour-flipped twins: a slice is solved together with its mirror slice
+ * (colours swapped), in a single array.
+ * The forward pass and the generation of the predecessors run in parallel on all the cores.
+ *
+ * Usage: <code>EndgameTablebaseGenerator directory maxPieces [--distance]</code> (prints the counts of each slice)
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class EndgameTablebaseGenerator {
+	/** The directory where the table files are written */
+	final Path directory;
+
+	/** Also write the distance tables */
+	final boolean withDistances;
+
+	/** The tables already written, used to look up captures and promotions */
+	EndgameTablebase written;
+
+	/** Print the counts and the time of each slice */
+	boolean verbose;
+
+	/** Value of {@link #remaining} for a position with a child drawn or unknown: it cannot be lost */
+	private static final byte BLOCKED = -1;
+
+	/** Number of positions resolved at a wave whose predecessors are generated together */
+	private static final int PREDECESSORS_CHUNK = 1 << 16;
+
+	/** Scratch game of each thread */
+	private final ThreadLocal<EnglishDraughts> scratch = ThreadLocal.withInitial(() -> new EnglishDraughts(8));
+
+	/**
+	 * Constructor
+	 * @param directory The directory where the table files are written
+	 * @param withDistances if true, also write the distance to the end of the game of each position
+	 */
+	public EndgameTablebaseGenerator(Path directory, boolean withDistances) {
+		this.directory = directory;
+		this.withDistances = withDistances;
+	}
+
+	/**
+	 * List the materials of all slices up to <code>maxPieces</code>, in solving order
+	 * @param maxPieces
+	 * @return The list of materials (white checkers, white kings, black checkers, black kings)
+	 */
+	static List<int[]> materials(int maxPieces) {
+		List<int[]> materials = new ArrayList<>();
+		for (int pieces = 2; pieces <= maxPieces; ++pieces) {
+			for (int checkers = 0; checkers <= pieces; ++checkers) {
+				for (int wc = 0; wc <= checkers; ++wc) {
+					int bc = checkers - wc;
+					for (int wk = 0; wk <= pieces - checkers; ++wk) {
+						int bk = pieces - checkers - wk;
+						if (wc + wk > 0 && bc + bk > 0) {
+							materials.add(new int[] { wc, wk, bc, bk });
+						}
+					}
+				}
+			}
+		}
+		return materials;
+	}
+
+	/**
+	 * Generate all the slices up to <code>maxPieces</code> pieces
+	 * @param maxPieces
+	 * @throws IOException
+	 */
+	public void generate(int maxPieces) throws IOException {
+		Files.createDirectories(directory);
+		written = new EndgameTablebase(directory, maxPieces);
+		Set<Integer> solved = new HashSet<>();
+		for (int[] material : materials(maxPieces)) {
+			// Already solved with its mirror slice
+			if (solved.contains(EndgameTablebase.materialKey(material)))
+				continue;
+			solved.add(EndgameTablebase.materialKey(material));
+			solved.add(EndgameTablebase.materialKey(EndgameTablebase.mirror(material)));
+			long start = System.nanoTime();
+			long[] counts = solve(material);
+			written.refresh();
+			if (verbose) {
+				System.out.println(EndgameTablebase.fileName(material, "wld") + " and mirror: "
+						+ counts[EndgameTablebase.WIN] + " wins, " + counts[EndgameTablebase.LOSS] + " losses, "
+						+ counts[EndgameTablebase.DRAW] + " draws in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+			}
+		}
+	}
+
+	/**
+	 * Solve one slice and its mirror slice, and write their files
+	 * @param material The material of the slice
+	 * @return The number of positions with each value, indexed by value
+	 * @throws IOException
+	 */
+	long[] solve(int[] material) throws IOException {
+		int[] mirror = EndgameTablebase.mirror(material);
+		// The positions of the mirror slice follow those of the slice, unless the material is symmetric
+		long firstSize = EndgameTablebase.sliceSize(material);
+		long longSize = Arrays.equals(material, mirror) ? firstSize : 2 * firstSize;
+		if (longSize > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Slice too large: " + EndgameTablebase.fileName(material, "wld"));
+		int size = (int) longSize;
+		int mirrorStart = (int) firstSize;
+		byte[] values = new byte[size];
+		byte[] distances = new byte[size];
+		byte[] valid = new byte[size];
+		// Number of children in the slice not yet won by the opponent (or BLOCKED)
+		byte[] remaining = new byte[size];
+		// Smallest distance of the children lost for the opponent (-1 if none), largest distance of the children won
+		short[] bestWin = new short[size];
+		byte[] worstLoss = new byte[size];
+
+		// Forward pass: invalid positions, positions without any move, children out of the slice
+		IntStream.range(0, size).parallel().forEach(i -> {
+			bestWin[i] = -1;
+			EnglishDraughts game = scratch.get();
+			if (!setPosition(i, mirrorStart, material, mirror, game))
+				return;
+			valid[i] = 1;
+			List<Move> moves = game.possibleMoves();
+			if (moves.isEmpty()) {
+				values[i] = EndgameTablebase.LOSS;
+				return;
+			}
+			int children = 0;
+			boolean blocked = false;
+			for (Move move : moves) {
+				EnglishDraughts next = game.clone();
+				next.play(move);
+				if (arrayIndex(next, material, mirrorStart) >= 0) {
+					children++;
+					continue;
+				}
+				int value = probeWritten(next);
+				int distance = value >>> 8;
+				value &= 0xFF;
+				if (value == EndgameTablebase.LOSS) {
+					bestWin[i] = (short) (bestWin[i] < 0 ? distance : Math.min(bestWin[i], distance));
+				} else if (value == EndgameTablebase.WIN) {
+					worstLoss[i] = (byte) Math.max(worstLoss[i] & 0xFF, distance);
+				} else {
+					blocked = true;
+				}
+			}
+			remaining[i] = blocked ? BLOCKED : (byte) children;
+		});
+
+		// Waves: the positions without any move are the first resolved ones,
+		// the positions decided by their children out of the slice are the first candidates
+		int[] resolved = IntStream.range(0, size).filter(i -> values[i] == EndgameTablebase.LOSS).toArray();
+		int[] candidates = IntStream.range(0, size).filter(i -> valid[i] != 0 && values[i] == EndgameTablebase.UNKNOWN
+				&& (bestWin[i] >= 0 || remaining[i] == 0)).toArray();
+		do {
+			int[] updated = propagate(resolved, material, mirror, mirrorStart, values, distances, remaining, bestWin, worstLoss);
+			int[] all = Arrays.copyOf(candidates, candidates.length + updated.length);
+			System.arraycopy(updated, 0, all, candidates.length, updated.length);
+			resolved = resolve(all, values, distances, remaining, bestWin, worstLoss);
+			candidates = new int[0];
+		} while (resolved.length > 0);
+
+		long[] counts = new long[4];
+		for (int i = 0; i < size; ++i) {
+			if (valid[i] != 0) {
+				if (values[i] == EndgameTablebase.UNKNOWN) {
+					values[i] = EndgameTablebase.DRAW;
+				}
+				counts[values[i]]++;
+			}
+		}
+		write(material, Arrays.copyOf(values, mirrorStart), withDistances ? Arrays.copyOf(distances, mirrorStart) : null);
+		if (size > mirrorStart) {
+			write(mirror, Arrays.copyOfRange(values, mirrorStart, size),
+					withDistances ? Arrays.copyOfRange(distances, mirrorStart, size) : null);
+		}
+		return counts;
+	}
+
+	/**
+	 * Set up a position of the array of a slice and its mirror slice
+	 * @param i The index in the array
+	 * @param mirrorStart The index of the first position of the mirror slice
+	 * @param material The material of the slice
+	 * @param mirror The material of the mirror slice
+	 * @param game The game in which the position is set
+	 * @return <code>false</code> if the position is not valid
+	 */
+	static boolean setPosition(int i, int mirrorStart, int[] material, int[] mirror, EnglishDraughts game) {
+		return i < mirrorStart ? EndgameTablebase.setPosition(i, material, game)
+				: EndgameTablebase.setPosition(i - mirrorStart, mirror, game);
+	}
+
+	/**
+	 * Update the positions preceding the positions resolved at the last wave
+	 * @param resolved The positions resolved at the last wave
+	 * @param material The material of the slice
+	 * @param mirror The material of the mirror slice
+	 * @param mirrorStart The index of the first position of the mirror slice in the arrays
+	 * @param values The values of the slice and its mirror slice
+	 * @param distances The distances of the resolved positions
+	 * @param remaining The numbers of children not yet won by the opponent
+	 * @param bestWin The smallest distances of the children lost for the opponent
+	 * @param worstLoss The largest distances of the children won by the opponent
+	 * @return The unresolved positions which were updated (with duplicates)
+	 */
+	int[] propagate(int[] resolved, int[] material, int[] mirror, int mirrorStart, byte[] values, byte[] distances,
+			byte[] remaining, short[] bestWin, byte[] worstLoss) {
+		int[] updated = new int[Math.max(16, resolved.length)];
+		int count = 0;
+		for (int from = 0; from < resolved.length; from += PREDECESSORS_CHUNK) {
+			int to = Math.min(resolved.length, from + PREDECESSORS_CHUNK);
+			int[][] predecessors = IntStream.range(from, to).parallel()
+					.mapToObj(k -> predecessors(resolved[k], material, mirror, mirrorStart))
+					.toArray(int[][]::new);
+			for (int k = from; k < to; ++k) {
+				int child = resolved[k];
+				int distance = distances[child] & 0xFF;
+				boolean lost = values[child] == EndgameTablebase.LOSS;
+				for (int i : predecessors[k - from]) {
+					if (values[i] != EndgameTablebase.UNKNOWN)
+						continue;
+					if (lost) {
+						bestWin[i] = (short) (bestWin[i] < 0 ? distance : Math.min(bestWin[i], distance));
+					} else {
+						worstLoss[i] = (byte) Math.max(worstLoss[i] & 0xFF, distance);
+						if (remaining[i] > 0) {
+							remaining[i]--;
+						}
+					}
+					if (count == updated.length) {
+						updated = Arrays.copyOf(updated, 2 * count);
+					}
+					updated[count++] = i;
+				}
+			}
+		}
+		return Arrays.copyOf(updated, count);
+	}
+
+	/**
+	 * Resolve the candidates of a wave: won if a child is lost for the opponent, lost if all the children are won
+	 * @param candidates The positions whose children changed since the last wave (with duplicates)
+	 * @param values The values of the slice and its mirror slice
+	 * @param distances The distances of the slice and its mirror slice
+	 * @param remaining The numbers of children not yet won by the opponent
+	 * @param bestWin The smallest distances of the children lost for the opponent
+	 * @param worstLoss The largest distances of the children won by the opponent
+	 * @return The positions resolved at this wave
+	 */
+	static int[] resolve(int[] candidates, byte[] values, byte[] distances, byte[] remaining, short[] bestWin,
+			byte[] worstLoss) {
+		int[] resolved = new int[candidates.length];
+		int count = 0;
+		for (int i : candidates) {
+			if (values[i] != EndgameTablebase.UNKNOWN)
+				continue;
+			if (bestWin[i] >= 0) {
+				values[i] = EndgameTablebase.WIN;
+				distances[i] = (byte) Math.min(255, bestWin[i] + 1);
+			} else if (remaining[i] == 0) {
+				values[i] = EndgameTablebase.LOSS;
+				distances[i] = (byte) Math.min(255, (worstLoss[i] & 0xFF) + 1);
+			} else {
+				continue;
+			}
+			resolved[count++] = i;
+		}
+		return Arrays.copyOf(resolved, count);
+	}
+
+	/**
+	 * Generate the positions of the slice (or of its mirror slice) from which a simple move of the blacks
+	 * leads to a position: the moved piece goes back, and the positions where the blacks had a capture
+	 * (which is mandatory) are left out. The moves which change the material (captures and promotions)
+	 * lead out of the slice and are not unplayed.
+	 * @param i The index of the position in the array
+	 * @param material The material of the slice
+	 * @param mirror The material of the mirror slice
+	 * @param mirrorStart The index of the first position of the mirror slice in the arrays
+	 * @return The indexes of the predecessors in the array
+	 */
+	int[] predecessors(int i, int[] material, int[] mirror, int mirrorStart) {
+		EnglishDraughts game = scratch.get();
+		setPosition(i, mirrorStart, material, mirror, game);
+		game.playerId = Game.PlayerId.TWO;
+		CheckerBoard board = game.board;
+		int[] predecessors = new int[4 * EndgameTablebase.SQUARES];
+		int count = 0;
+		for (int square = 1; square <= EndgameTablebase.SQUARES; ++square) {
+			if (!board.isBlack(square))
+				continue;
+			// Black checkers move down, so they come from the squares above
+			int[] origins = board.isKing(square)
+					? new int[] { board.neighborUpLeft(square), board.neighborUpRight(square),
+							board.neighborDownLeft(square), board.neighborDownRight(square) }
+					: new int[] { board.neighborUpLeft(square), board.neighborUpRight(square) };
+			for (int origin : origins) {
+				if (origin == 0 || !board.isEmpty(origin))
+					continue;
+				board.movePawn(square, origin);
+				if (!game.hasCapture()) {
+					int index = arrayIndex(game, material, mirrorStart);
+					if (index >= 0) {
+						predecessors[count++] = index;
+					}
+				}
+				board.movePawn(origin, square);
+			}
+		}
+		return Arrays.copyOf(predecessors, count);
+	}
+
+	/**
+	 * Index of a position in the array of the slice being solved
+	 * @param game The position
+	 * @param material The material of the slice being solved
+	 * @param mirrorStart The index of the first position of the mirror slice in the array
+	 * @return The index, or -1 if the position is in another slice
+	 */
+	static int arrayIndex(EnglishDraughts game, int[] material, int mirrorStart) {
+		int[] canonical = EndgameTablebase.canonicalMaterial(game);
+		int key = EndgameTablebase.materialKey(canonical);
+		if (key == EndgameTablebase.materialKey(material))
+			return (int) EndgameTablebase.index(game.board, canonical, !game.isCanonical());
+		if (key == EndgameTablebase.materialKey(EndgameTablebase.mirror(material)))
+			return mirrorStart + (int) EndgameTablebase.index(game.board, canonical, !game.isCanonical());
+		return -1;
+	}
+
+	/**
+	 * Look up the value of a position of an already solved slice
+	 * @param game The position
+	 * @return The value for the side to move, with the distance in the upper bits (value | distance << 8)
+	 */
+	int probeWritten(EnglishDraughts game) {
+		int[] material = EndgameTablebase.material(game.board);
+		boolean noWhite = material[0] + material[1] == 0;
+		boolean noBlack = material[2] + material[3] == 0;
+		if (noWhite || noBlack) {
+			// The side without pieces has lost
+			boolean lost = (game.player() == Game.PlayerId.ONE) ? noWhite : noBlack;
+			return lost ? EndgameTablebase.LOSS : EndgameTablebase.WIN;
+		}
+		byte value = written.probe(game);
+		int distance = withDistances ? Math.max(0, written.probeDistance(game)) : 0;
+		return value | (distance << 8);
+	}
+
+	/**
+	 * Write the files of a slice
+	 * @param material The material of the slice
+	 * @param values The values, one per byte
+	 * @param distances The distances, or <code>null</code> not to write them
+	 * @throws IOException
+	 */
+	void write(int[] material, byte[] values, byte[] distances) throws IOException {
+		byte[] packed = new byte[(values.length + 3) / 4];
+		for (int i = 0; i < values.length; ++i) {
+			packed[i >>> 2] |= values[i] << ((i & 3) * 2);
+		}
+		writeTable(directory.resolve(EndgameTablebase.fileName(material, "wld")), values.length, packed);
+		if (distances != null) {
+			writeTable(directory.resolve(EndgameTablebase.fileName(material, "dtw")), values.length, distances);
+		}
+	}
+
+	/**
+	 * Write a table file (header and contents)
+	 * @param file
+	 * @param entries The number of positions of the table
+	 * @param contents
+	 * @throws IOException
+	 */
+	static void writeTable(Path file, long entries, byte[] contents) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(EndgameTablebase.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		header.putInt(EndgameTablebase.MAGIC).putInt(EndgameTablebase.VERSION).putLong(entries).flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			ByteBuffer body = ByteBuffer.wrap(contents);
+			while (body.hasRemaining()) {
+				channel.write(body);
+			}
+		}
+	}
+
+	/**
+	 * Generator entry point
+	 * @param args directory, maximal number of pieces, and optionally <code>--distance</code>
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: EndgameTablebaseGenerator directory maxPieces [--distance]");
+			return;
+		}
+		boolean withDistances = args.length > 2 && args[2].equals("--distance");
+		EndgameTablebaseGenerator generator = new EndgameTablebaseGenerator(Paths.get(args[0]), withDistances);
+		generator.verbose = true;
+		generator.generate(Integer.parseInt(args[1]));
+	}
+}
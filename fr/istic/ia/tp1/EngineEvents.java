@@ -0,0 +1,121 @@
+package fr.istic.ia.tp1;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the engine.
+ *
+ * All the events are disabled by default, and cost nothing but a check until they are enabled in a
+ * recording, e.g. <code>-XX:StartFlightRecording:settings=profile,+fr.istic.ia.tp1.MoveSearch#enabled=true</code>
+ * or through a custom <code>.jfc</code> file. The fields are only filled when the event is about to be committed.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class EngineEvents {
+	/**
+	 * A call to {@link PlayerMCTS#play(Game)}
+	 */
+	@Name("fr.istic.ia.tp1.MoveSearch")
+	@Label("Move Search")
+	@Category({ "Draughts", "Engine" })
+	@Description("Choice of a move by the MCTS player")
+	@Enabled(false)
+	@StackTrace(false)
+	static class MoveSearchEvent extends Event {
+		@Label("Budget")
+		@Timespan(Timespan.MILLISECONDS)
+		long budget;
+
+		@Label("Iterations")
+		long iterations;
+
+		@Label("Root Visits")
+		int rootVisits;
+
+		@Label("Root Children")
+		int rootChildren;
+
+		@Label("Move")
+		String move;
+
+		@Label("Book Move")
+		boolean bookMove;
+
+		@Label("GC Count")
+		@Description("Number of garbage collections during the search")
+		long gcCount;
+
+		@Label("GC Time")
+		@Description("Time spent in garbage collections during the search")
+		@Timespan(Timespan.MILLISECONDS)
+		long gcTime;
+	}
+
+	/**
+	 * A slow call to {@link Game#possibleMoves()}, typically a deep multi-capture recursion.
+	 * Only the calls longer than the threshold are recorded.
+	 */
+	@Name("fr.istic.ia.tp1.MoveGeneration")
+	@Label("Move Generation")
+	@Category({ "Draughts", "Engine" })
+	@Description("Slow generation of the possible moves of a position")
+	@Enabled(false)
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static class MoveGenerationEvent extends Event {
+		@Label("Position")
+		String position;
+
+		@Label("Moves")
+		int moves;
+
+		@Label("Capture")
+		boolean capture;
+
+		@Label("Longest Capture")
+		@Description("Number of jumps of the longest capture")
+		int longestCapture;
+	}
+
+	/**
+	 * A search tree discarded by its player
+	 */
+	@Name("fr.istic.ia.tp1.TreePrune")
+	@Label("Tree Prune")
+	@Category({ "Draughts", "Engine" })
+	@Description("Search tree released after a move")
+	@Enabled(false)
+	@StackTrace(false)
+	static class TreePruneEvent extends Event {
+		@Label("Released Nodes")
+		long releasedNodes;
+
+		@Label("Kept Nodes")
+		long keptNodes;
+	}
+
+	/**
+	 * Snapshot of the garbage collection counters
+	 * @return The total number of collections and the total collection time in milliseconds
+	 */
+	static long[] gcCounters() {
+		long[] counters = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			counters[0] += Math.max(gc.getCollectionCount(), 0);
+			counters[1] += Math.max(gc.getCollectionTime(), 0);
+		}
+		return counters;
+	}
+}
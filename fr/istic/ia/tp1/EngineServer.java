@@ -0,0 +1,317 @@
+package fr.istic.ia.tp1;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.istic.ia.tp1.Game.Move;
+import fr.istic.ia.tp1.MonteCarloTreeSearch.EvalNode;
+
+/**
+ * Text protocol server, for embedding the engine in a user interface or a game server.
+ *
+ * The server reads one command per line and answers with one or several lines:
+ * <ul>
+ * <li><code>isready</code>: answers <code>readyok</code>;</li>
+ * <li><code>newgame [size]</code>: initial position on a board of the given size (8 by default);</li>
+ * <li><code>position fen [moves m1 m2 ...]</code>: position in FEN (see {@link PositionCodec}),
+ * or <code>startpos</code>, then moves in the game notation (e.g. <code>24-20</code>, <code>18x11x4</code>);</li>
+ * <li><code>go movetime ms [rave] [widening]</code>: search the current position in the background, printing
+ * <code>info time .. iterations .. simulations .. nodes .. score .. pv ..</code> lines during the search and
+ * <code>bestmove m</code> (or <code>bestmove none</code>) at the end;</li>
+ * <li><code>stop</code>: end the current search at once (the best move is still printed);</li>
+ * <li><code>quit</code>: close the session.</li>
+ * </ul>
+ * Errors (unknown commands, missing or invalid arguments, failed commands) are reported with
+ * <code>error message</code> lines, and the session goes on.
+ *
+ * Without argument the server runs a single session on the standard input and output. With
+ * <code>--port n</code> it accepts any number of sessions on a local TCP socket. Each session and each search
+ * runs on its own virtual thread when the JVM provides them, or on a pooled platform thread otherwise.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class EngineServer {
+	/** Delay between two info lines during a search, in milliseconds */
+	static final int INFO_INTERVAL_MILLIS = 500;
+
+	/** The threads of the sessions and of the searches */
+	final ExecutorService executor;
+
+	/**
+	 * Constructor
+	 */
+	public EngineServer() {
+		this.executor = newThreadPerTaskExecutor();
+	}
+
+	/**
+	 * Executor of virtual threads if available (Java 21 and later), cached thread pool otherwise
+	 * @return A new executor
+	 */
+	static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * A connection with a client: its current position and its running search
+	 */
+	class Session {
+		/** The commands of the client */
+		final BufferedReader in;
+
+		/** The answers to the client */
+		final PrintWriter out;
+
+		/** The current position */
+		EnglishDraughts game = new EnglishDraughts(8);
+
+		/** The running search (or the last one) */
+		MonteCarloTreeSearch mcts;
+
+		/** The task of the running search (or of the last one) */
+		Future<?> search;
+
+		Session(InputStream in, OutputStream out) {
+			this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			this.out = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true);
+		}
+
+		/**
+		 * Send a line to the client (from the session or from the search thread)
+		 * @param line
+		 */
+		void send(String line) {
+			synchronized (out) {
+				out.println(line);
+			}
+		}
+
+		/**
+		 * Process the commands until <code>quit</code> or the end of the input
+		 * @throws IOException
+		 */
+		void run() throws IOException {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				try {
+					switch (words[0]) {
+					case "":
+						break;
+					case "isready":
+						send("readyok");
+						break;
+					case "newgame":
+						stopSearch();
+						game = new EnglishDraughts(words.length > 1 ? boardSize(words[1]) : 8);
+						break;
+					case "position":
+						stopSearch();
+						setPosition(words);
+						break;
+					case "go":
+						stopSearch();
+						go(words);
+						break;
+					case "stop":
+						stopSearch();
+						break;
+					case "quit":
+						stopSearch();
+						return;
+					default:
+						send("error unknown command " + words[0]);
+					}
+				} catch (RuntimeException e) {
+					send("error " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+				}
+			}
+			stopSearch();
+		}
+
+		/**
+		 * Parse the board size of <code>newgame</code>
+		 * @param word The argument of the command
+		 * @return The size
+		 * @throws IllegalArgumentException if it is not a supported size
+		 */
+		int boardSize(String word) {
+			int size = Integer.parseInt(word);
+			if (!CheckerBoard.isValidSize(size))
+				throw new IllegalArgumentException("unsupported board size " + size);
+			return size;
+		}
+
+		/**
+		 * <code>position fen|startpos [moves m1 m2 ...]</code>
+		 * @param words The command
+		 */
+		void setPosition(String[] words) {
+			int i = 1;
+			StringBuilder fen = new StringBuilder();
+			while (i < words.length && !words[i].equals("moves")) {
+				fen.append(words[i++]).append(' ');
+			}
+			String text = fen.toString().trim();
+			EnglishDraughts position = text.equals("startpos") ? new EnglishDraughts(game.board.size)
+					: PositionCodec.fromFen(text, game.board.size);
+			for (++i; i < words.length; ++i) {
+				Move move = null;
+				for (Move m : position.possibleMoves()) {
+					if (m.toString().equals(words[i])) {
+						move = m;
+					}
+				}
+				if (move == null)
+					throw new IllegalArgumentException("illegal move " + words[i]);
+				position.play(move);
+			}
+			game = position;
+		}
+
+		/**
+		 * <code>go movetime ms [rave] [widening]</code>: start a search in the background
+		 * @param words The command
+		 */
+		void go(String[] words) {
+			int timeMillis = 1000;
+			boolean rave = false;
+			boolean widening = false;
+			for (int i = 1; i < words.length; ++i) {
+				switch (words[i]) {
+				case "movetime":
+					if (i + 1 >= words.length)
+						throw new IllegalArgumentException("missing movetime value");
+					timeMillis = Integer.parseInt(words[++i]);
+					if (timeMillis <= 0)
+						throw new IllegalArgumentException("invalid movetime " + timeMillis);
+					break;
+				case "rave":     rave = true; break;
+				case "widening": widening = true; break;
+				default: throw new IllegalArgumentException("unknown go option " + words[i]);
+				}
+			}
+			if (game.winner() != null || game.possibleMoves().isEmpty()) {
+				send("bestmove none");
+				return;
+			}
+			MonteCarloTreeSearch search = new MonteCarloTreeSearch(game, rave);
+			search.setProgressiveWidening(widening);
+			search.setVerbose(false);
+			mcts = search;
+			final int budget = timeMillis;
+			this.search = executor.submit(() -> {
+				long start = System.nanoTime();
+				long elapsed = 0;
+				// Search by slices, to report the progress between them
+				while (!search.isStopped() && elapsed < budget) {
+					search.evaluateTreeWithTimeLimit((int) Math.min(INFO_INTERVAL_MILLIS, budget - elapsed));
+					elapsed = (System.nanoTime() - start) / 1000000;
+					send(info(search, elapsed));
+				}
+				// No move if the search was stopped before its first iteration
+				Move best = search.getBestMove();
+				send("bestmove " + (best != null ? best : "none"));
+			});
+		}
+
+		/**
+		 * Stop the running search, if any, and wait for its best move to be sent
+		 */
+		void stopSearch() {
+			if (search == null)
+				return;
+			mcts.stop();
+			try {
+				search.get();
+			} catch (Exception e) {
+				send("error search failed: " + e);
+			}
+			search = null;
+		}
+	}
+
+	/**
+	 * Progress line of a search
+	 * @param mcts The search
+	 * @param elapsed Search time so far, in milliseconds
+	 * @return The <code>info</code> line
+	 */
+	static String info(MonteCarloTreeSearch mcts, long elapsed) {
+		Move best = mcts.getBestMove();
+		double score = 0.0;
+		for (EvalNode child : mcts.root.children) {
+			if (child.m == best) {
+				score = child.score();
+			}
+		}
+		return String.format(Locale.ROOT, "info time %d iterations %d simulations %d nodes %d score %.4f pv %s",
+				elapsed, mcts.nIterations, mcts.nTotal, mcts.treeSize, score, best);
+	}
+
+	/**
+	 * Serve a single session on the standard input and output
+	 * @throws IOException
+	 */
+	public void serveConsole() throws IOException {
+		new Session(System.in, System.out).run();
+	}
+
+	/**
+	 * Accept sessions on a local TCP socket, each on its own thread
+	 * @param port The TCP port (0 for any free port)
+	 * @throws IOException
+	 */
+	public void serveSocket(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.err.println("Listening on " + server.getLocalSocketAddress());
+			while (true) {
+				Socket socket = server.accept();
+				executor.execute(() -> {
+					try (Socket s = socket) {
+						new Session(s.getInputStream(), s.getOutputStream()).run();
+					} catch (IOException e) {
+						// Client gone
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Server entry point
+	 * @param args Nothing for the standard input and output, or <code>--port n</code>
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		EngineServer server = new EngineServer();
+		if (args.length >= 2 && args[0].equals("--port")) {
+			server.serveSocket(Integer.parseInt(args[1]));
+		} else {
+			server.serveConsole();
+		}
+		server.executor.shutdownNow();
+	}
+}
@@ -1,6 +1,7 @@
 package fr.istic.ia.tp1;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -13,7 +14,7 @@ import fr.istic.ia.tp1.Game.PlayerId;
  * @author Le Dourner/Guerin
  *
  */
-public class EnglishDraughts extends Game {
+public class EnglishDraughts extends IndexedGame {
 	/**
 	 * The checker board
 	 */
@@ -37,6 +38,36 @@ public class EnglishDraughts extends Game {
 	 */
 	int nbKingMovesWithoutCapture;
 
+	/**
+	 * Size of the ring buffer of the repetition rule
+	 */
+	static final int HISTORY_SIZE = 32;
+
+	/**
+	 * The repetition rule: the game is a draw when the current position (pawns and player to move) already
+	 * occurred <code>repetitionLimit</code> times since the last capture or checker move (0 disables the rule)
+	 */
+	int repetitionLimit;
+
+	/**
+	 * Generate the captures with the cache of the board size (see {@link CaptureCache}), or with the plain search
+	 * (to check the cache against the search). Inherited by the copies.
+	 */
+	boolean cachedCaptures = true;
+
+	/**
+	 * Ring buffer of the hashes of the last positions since the last capture or checker move
+	 * (allocated when the repetition rule is enabled)
+	 */
+	private long[] history;
+	private int historyHead;
+	private int historySize;
+
+	/**
+	 * The number of earlier occurrences of the current position in {@link #history}
+	 */
+	int repetitions;
+
 	/**
 	 * Class representing a move in the English draughts game A move is an ArrayList
 	 * of Integers, corresponding to the successive tile numbers (Manouri notation)
@@ -101,6 +132,14 @@ public class EnglishDraughts extends Game {
 		this.playerId = d.playerId;
 		this.nbTurn = d.nbTurn;
 		this.nbKingMovesWithoutCapture = d.nbKingMovesWithoutCapture;
+		this.repetitionLimit = d.repetitionLimit;
+		this.cachedCaptures = d.cachedCaptures;
+		this.repetitions = d.repetitions;
+		if (d.history != null) {
+			this.history = d.history.clone();
+			this.historyHead = d.historyHead;
+			this.historySize = d.historySize;
+		}
 	}
 
 	@Override
@@ -108,6 +147,75 @@ public class EnglishDraughts extends Game {
 		return new EnglishDraughts(this);
 	}
 
+	/**
+	 * Zobrist key of the blacks to move
+	 */
+	static final long BLACK_TO_MOVE = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Zobrist hash of the board and of the player to move (the turn number is not taken into account)
+	 */
+	@Override
+	public long hash() {
+		return board.hash() ^ (playerId == PlayerId.TWO ? BLACK_TO_MOVE : 0L);
+	}
+
+	/**
+	 * Build the colour-flipped game: the board rotated by a half-turn with the colours swapped
+	 * (see {@link CheckerBoard#mirror()}), and the other player to move. The turn number and the king
+	 * moves counter are kept, the repetition history is not.
+	 * @return A new game, where the whites play as the blacks of this game and conversely
+	 */
+	public EnglishDraughts mirror() {
+		EnglishDraughts mirror = new EnglishDraughts(this);
+		mirror.board = board.mirror();
+		mirror.playerId = playerId.other();
+		mirror.gameNullWhiteWin = gameNullBlackWin;
+		mirror.gameNullBlackWin = gameNullWhiteWin;
+		mirror.history = null;
+		mirror.repetitions = 0;
+		mirror.setRepetitionLimit(repetitionLimit);
+		return mirror;
+	}
+
+	/**
+	 * The canonical form of a position has the whites to move: the positions with the blacks to move are
+	 * replaced by their mirror (see {@link #mirror()})
+	 */
+	@Override
+	public EnglishDraughts canonical() {
+		return isCanonical() ? this : mirror();
+	}
+
+	@Override
+	public boolean isCanonical() {
+		return playerId == PlayerId.ONE;
+	}
+
+	/**
+	 * Hash of the canonical form, from the hashes maintained by the board (no game is built)
+	 */
+	@Override
+	public long canonicalHash() {
+		// The mirror has the whites to move
+		return isCanonical() ? board.hash() : board.mirrorHash();
+	}
+
+	/**
+	 * Translate a move between the game and its canonical form: the squares are rotated when the game
+	 * is not canonical
+	 */
+	@Override
+	public Move canonicalMove(Move move) {
+		if (isCanonical())
+			return move;
+		DraughtsMove mirror = new DraughtsMove();
+		for (int square : (DraughtsMove) move) {
+			mirror.add(board.mirrorSquare(square));
+		}
+		return mirror;
+	}
+
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
@@ -196,262 +304,399 @@ public class EnglishDraughts extends Game {
 		return res;
 	}
 
+	/** Directions of the neighbor tables */
+	static final int UP_RIGHT = 0, UP_LEFT = 1, DOWN_RIGHT = 2, DOWN_LEFT = 3;
+
+	/** Directions of the moves of the white checkers, of the black checkers and of the kings */
+	private static final int[] WHITE_DIRECTIONS = { UP_RIGHT, UP_LEFT };
+	private static final int[] BLACK_DIRECTIONS = { DOWN_RIGHT, DOWN_LEFT };
+	private static final int[] KING_DIRECTIONS = { UP_RIGHT, UP_LEFT, DOWN_RIGHT, DOWN_LEFT };
+
 	/**
-	 * Generate the list of possible moves - first check moves with captures - if no
-	 * capture possible, return displacement moves
+	 * Neighbor tables by board size: the neighbor of tile t in direction d is at index
+	 * <code>d * (nbPlayableTiles + 1) + t</code> (0 if out of board)
 	 */
-	@Override
-	public List<Move> possibleMoves() {
-		ArrayList<Move> moves = new ArrayList<>();
-		ArrayList<Integer> pawns = myPawns();
-		List<Integer> historique = new ArrayList<>();
-		List<DraughtsMove> prisePossible = new ArrayList<>();
-		List<DraughtsMove> deplPossible = new ArrayList<>();
-		boolean capture = false;
-		boolean king = false;
-		for(Integer i : pawns) {
-			king = board.isKing(i);
-			historique.clear();
-			prisePossible.addAll(prisesPossibles(i, historique, king));
-			if (!prisePossible.isEmpty()) {
-				capture = true;
-			}
-		}
-		if(!capture){
-			for(Integer i : pawns){
-				deplPossible.addAll(DeplacementSimplesPossibles2(i));
+	private static final int[][] NEIGHBORS = new int[13][];
+	static {
+		for (int size = 4; size <= 12; size += 2) {
+			CheckerBoard board = new CheckerBoard(size);
+			int stride = board.nbPlayableTiles() + 1;
+			int[] table = new int[4 * stride];
+			for (int square = 1; square < stride; ++square) {
+				table[UP_RIGHT * stride + square] = board.neighborUpRight(square);
+				table[UP_LEFT * stride + square] = board.neighborUpLeft(square);
+				table[DOWN_RIGHT * stride + square] = board.neighborDownRight(square);
+				table[DOWN_LEFT * stride + square] = board.neighborDownLeft(square);
 			}
-			moves.addAll(deplPossible);
-		}else{
-			moves.addAll(prisePossible);
+			NEIGHBORS[size] = table;
 		}
-
-		return moves;
 	}
-	//
-	// TODO generate the list of possible moves
-	//
-	// Advice:
-	// create two auxiliary functions :
-	// - one for jump moves from a given position, with capture (and multi-capture).
-	// Use recursive calls to explore all multiple capture possibilities
-	// - one function that returns the displacement moves from a given position
-	// (without capture)
-	//
-	/**
-	 * Enregistre les differents deplacements simples selon l'emplacement d'un pion
-	 * @param pawn emplacement du pion
-	 * @return list des deplacements possibles
-	 */
-	public List<DraughtsMove> DeplacementSimplesPossibles2(int pawn){
-		ArrayList<DraughtsMove> destPossibles = new ArrayList<>();
-		
-		if(board.isKing(pawn)){
-			checkUpRightDepl(pawn,destPossibles);
-			checkUpLeftDepl(pawn,destPossibles);
-			checkDownRightDepl(pawn,destPossibles);
-			checkDownLeftDepl(pawn,destPossibles);
-			
-		}else if(board.isBlack(pawn)){
-			checkDownRightDepl(pawn,destPossibles);
-			checkDownLeftDepl(pawn,destPossibles);
-		}else{
-			checkUpRightDepl(pawn,destPossibles);
-			checkUpLeftDepl(pawn,destPossibles);
-		}		
-		return destPossibles;
-	}
-	/**
-	 * Regarde si case Haute/Droite est vide et non au bord, si oui on ajoute le move a destPossibles
-	 * @param pawn	emplacement du pion
-	 * @param destPossibles list des deplacements disponibles a mettre a jour
-	 */
-	public void checkUpRightDepl(int pawn,List<DraughtsMove> destPossibles) {
-		int dest = board.neighborUpRight(pawn);
-		if(dest>0){
-			boolean destB = board.isEmpty(dest);
-			if(destB) {
-				DraughtsMove temp = new DraughtsMove();
-				temp.add(pawn);
-				temp.add(dest);
-				destPossibles.add(temp);
+
+	/**
+	 * The possible moves of the current state: the squares of move i are
+	 * <code>moveSquares[moveOffsets[i]]</code> to <code>moveSquares[moveOffsets[i+1] - 1]</code>
+	 */
+	private int[] moveSquares;
+	private int[] moveOffsets;
+	private int nbMoves;
+
+	/** The board, its modification count and the player for which the moves were generated */
+	private CheckerBoard movesBoard;
+	private int movesModCount;
+	private PlayerId movesPlayer;
+
+	/** The move being built by the capture search, and the squares it captured */
+	private int[] path;
+	private int[] captured;
+
+	/**
+	 * Generate the possible moves of the current state in the move buffers, unless they are already there
+	 */
+	private void ensureMoves() {
+		if (movesBoard == board && movesModCount == board.modCount && movesPlayer == playerId)
+			return;
+		EngineEvents.MoveGenerationEvent event = new EngineEvents.MoveGenerationEvent();
+		event.begin();
+		boolean capture = generateMoves();
+		movesBoard = board;
+		movesModCount = board.modCount;
+		movesPlayer = playerId;
+		event.end();
+		if (event.shouldCommit()) {
+			event.position = toString();
+			event.moves = nbMoves;
+			event.capture = capture;
+			for (int i = 0; capture && i < nbMoves; ++i) {
+				event.longestCapture = Math.max(event.longestCapture, moveOffsets[i + 1] - moveOffsets[i] - 1);
 			}
+			event.commit();
 		}
 	}
+
 	/**
-	 * Regarde si case Haute/Gauche est vide et non au bord, si oui on ajoute le move a destPossibles
-	 * @param pawn	emplacement du pion
-	 * @param destPossibles list des deplacements disponibles a mettre a jour
+	 * Generate the possible moves: the captures if any (they are mandatory), the simple moves otherwise.
+	 * The moves are ordered by origin square.
+	 * @return <code>true</code> if the moves are captures
 	 */
-	public void checkUpLeftDepl(int pawn,List<DraughtsMove> destPossibles) {
-		int dest = board.neighborUpLeft(pawn);
-		if(dest>0){
-			boolean destB = board.isEmpty(dest);
-			if(destB) {
-				DraughtsMove temp = new DraughtsMove();
-				temp.add(pawn);
-				temp.add(dest);
-				destPossibles.add(temp);
+	private boolean generateMoves() {
+		int tiles = board.nbPlayableTiles();
+		if (moveOffsets == null) {
+			moveSquares = new int[64];
+			moveOffsets = new int[17];
+			path = new int[tiles + 1];
+			captured = new int[tiles];
+		}
+		int[] neighbors = NEIGHBORS[board.size];
+		int stride = tiles + 1;
+		nbMoves = 0;
+		CaptureCache cache = cachedCaptures ? CaptureCache.forSize(board.size) : null;
+		for (int square = 1; square <= tiles; ++square) {
+			if (!isMine(square) || !canJump(neighbors, stride, square, directions(square)))
+				continue;
+			path[0] = square;
+			if (cache == null) {
+				captureSearch(neighbors, stride, square, square, directions(square), 0);
+				continue;
+			}
+			int type = board.isKing(square) ? CaptureCache.KING
+					: playerId == PlayerId.ONE ? CaptureCache.WHITE_CHECKER : CaptureCache.BLACK_CHECKER;
+			// The adversaries and the empty tiles that the jumps of the pawn could reach (the origin counts as empty)
+			long reach = cache.reach(type, square);
+			long adversaries = (playerId == PlayerId.ONE ? board.blackMask() : board.whiteMask()) & reach;
+			long empty = (~(board.whiteMask() | board.blackMask()) | 1L << (square - 1)) & reach;
+			CaptureCache.Entry entry = cache.get(square, type, adversaries, empty);
+			if (entry == null) {
+				int first = nbMoves;
+				captureSearch(neighbors, stride, square, square, directions(square), 0);
+				int[] offsets = new int[nbMoves - first + 1];
+				for (int i = 0; i < offsets.length; ++i) {
+					offsets[i] = moveOffsets[first + i] - moveOffsets[first];
+				}
+				cache.put(new CaptureCache.Entry(square, type, adversaries, empty,
+						Arrays.copyOfRange(moveSquares, moveOffsets[first], moveOffsets[nbMoves]), offsets));
+			} else {
+				addMoves(entry);
+			}
+		}
+		if (nbMoves > 0)
+			return true;
+		for (int square = 1; square <= tiles; ++square) {
+			if (isMine(square)) {
+				for (int d : directions(square)) {
+					int dest = neighbors[d * stride + square];
+					if (dest > 0 && board.isEmpty(dest)) {
+						path[0] = square;
+						path[1] = dest;
+						addMove(2);
+					}
+				}
 			}
 		}
+		return false;
+	}
 
+	/**
+	 * Directions in which a pawn of the current player moves
+	 * @param square Tile of the pawn
+	 * @return The directions of the neighbor tables
+	 */
+	private int[] directions(int square) {
+		if (board.isKing(square))
+			return KING_DIRECTIONS;
+		return playerId == PlayerId.ONE ? WHITE_DIRECTIONS : BLACK_DIRECTIONS;
 	}
+
 	/**
-	 * Regarde si case Bas/Droite est vide et non au bord, si oui on ajoute le move a destPossibles
-	 * @param pawn	emplacement du pion
-	 * @param destPossibles list des deplacements disponibles a mettre a jour
+	 * Depth-first search of the captures of a pawn: each capture sequence which cannot be extended is a move.
+	 * The origin of the pawn counts as empty, a pawn cannot be captured twice, and a checker reaching the
+	 * crowning row ends its move.
+	 * @param neighbors The neighbor table of the board
+	 * @param stride The number of tiles + 1
+	 * @param origin Tile where the pawn starts its move
+	 * @param square Tile where the pawn is
+	 * @param directions Directions of the pawn
+	 * @param depth Number of captures so far (<code>path[depth] == square</code>)
 	 */
-	public void checkDownRightDepl(int pawn,List<DraughtsMove> destPossibles) {
-		int dest = board.neighborDownRight(pawn);
-		if(dest>0){
-			boolean destB = board.isEmpty(dest);
-			if(destB) {
-				DraughtsMove temp = new DraughtsMove();
-				temp.add(pawn);
-				temp.add(dest);
-				destPossibles.add(temp);
+	private void captureSearch(int[] neighbors, int stride, int origin, int square, int[] directions, int depth) {
+		boolean extended = false;
+		for (int d : directions) {
+			int over = neighbors[d * stride + square];
+			if (over <= 0 || !isAdversary(over) || isCaptured(over, depth))
+				continue;
+			int landing = neighbors[d * stride + over];
+			if (landing <= 0 || (landing != origin && !board.isEmpty(landing)))
+				continue;
+			extended = true;
+			captured[depth] = over;
+			path[depth + 1] = landing;
+			if (directions != KING_DIRECTIONS
+					&& (playerId == PlayerId.ONE ? board.inTopRow(landing) : board.inBottomRow(landing))) {
+				addMove(depth + 2);
+			} else {
+				captureSearch(neighbors, stride, origin, landing, directions, depth + 1);
 			}
 		}
+		if (!extended && depth > 0) {
+			addMove(depth + 1);
+		}
 	}
+
 	/**
-	 * Regarde si case Bas/Gauche est vide et non au bord, si oui on ajoute le move a destPossibles
-	 * @param pawn	emplacement du pion
-	 * @param destPossibles list des deplacements disponibles a mettre a jour
+	 * Check if a pawn of the current player can jump at least once
+	 * @param neighbors The neighbor table of the board
+	 * @param stride The number of tiles + 1
+	 * @param square Tile of the pawn
+	 * @param directions Directions of the pawn
+	 * @return <code>true</code> if the pawn has a capture
 	 */
-	public void checkDownLeftDepl(int pawn,List<DraughtsMove> destPossibles) {
-		int dest = board.neighborDownLeft(pawn);
-		if(dest>0){
-			boolean destB = board.isEmpty(dest);
-			if(destB) {
-				DraughtsMove temp = new DraughtsMove();
-				temp.add(pawn);
-				temp.add(dest);
-				destPossibles.add(temp);
+	private boolean canJump(int[] neighbors, int stride, int square, int[] directions) {
+		for (int d : directions) {
+			int over = neighbors[d * stride + square];
+			if (over > 0 && isAdversary(over)) {
+				int landing = neighbors[d * stride + over];
+				if (landing > 0 && board.isEmpty(landing))
+					return true;
 			}
 		}
+		return false;
 	}
+
 	/**
-	 * Regarde si une capture depuis un pion est possible et n'est pas deja present dans historique
-	 * @param pawn emplacement du pion
-	 * @param historique case precedente du move
-	 * @return list des emplacements apres capture possibles
-	 */
-	public List<Integer> DeplacementAvecCapturePossibles(int pawn,List<Integer> historique,boolean king){
-		int upRight = board.neighborUpRight(pawn);
-		int upLeft = board.neighborUpLeft(pawn);
-		int downRight = board.neighborDownRight(pawn);
-		int downLeft = board.neighborDownLeft(pawn);
-		List<Integer> emplCapturePossibles = new ArrayList<>();
-		if(king) {
-			//Si Reine, on regarde dans toutes les diagonales
-			checkUpRightCapt(upRight,emplCapturePossibles);
-			checkUpLeftCapt(upLeft,emplCapturePossibles);
-			checkDownRightCapt(downRight,emplCapturePossibles);
-			checkDownLeftCapt(downLeft,emplCapturePossibles);
-		}else if(board.isBlack(pawn)) {
-			//Si Noir, on regarde diagonales basses
-			checkDownRightCapt(downRight,emplCapturePossibles);
-			checkDownLeftCapt(downLeft,emplCapturePossibles);
-		}else {
-			//Si Blanc, on regarde diagonales Hautes
-			checkUpRightCapt(upRight,emplCapturePossibles);
-			checkUpLeftCapt(upLeft,emplCapturePossibles);
-		}
-		SuppDoublon(historique,emplCapturePossibles);
-		return emplCapturePossibles;
-	}
-	/**
-	 * Regarde si une capture est possible vers Haut/Droite depuis un pion et met a jout res
-	 * @param upRight emplacement du pion
-	 * @param emplCapturePossibles
-	 */
-	public void checkUpRightCapt(int upRight,List<Integer> emplCapturePossibles) {
-
-		if(upRight > 0) {
-			if(isAdversary(upRight) && !board.isEmpty(upRight) && board.neighborUpRight(upRight)>0&&board.isEmpty(board.neighborUpRight(upRight))) {
-				emplCapturePossibles.add(board.neighborUpRight(upRight));
-			}
+	 * Check if the current player has a capture, without generating the moves
+	 * @return <code>true</code> if a pawn of the current player can jump
+	 */
+	boolean hasCapture() {
+		int tiles = board.nbPlayableTiles();
+		int[] neighbors = NEIGHBORS[board.size];
+		for (int square = 1; square <= tiles; ++square) {
+			if (isMine(square) && canJump(neighbors, tiles + 1, square, directions(square)))
+				return true;
 		}
+		return false;
 	}
-	
+
+	private boolean isCaptured(int square, int depth) {
+		for (int i = 0; i < depth; ++i) {
+			if (captured[i] == square)
+				return true;
+		}
+		return false;
+	}
+
 	/**
-	 * Regarde si une capture est possible vers Haut/Gauche depuis un pion et met a jout res
-	 * @param upLeft emplacement du pion
-	 * @param emplCapturePossibles
+	 * Add the move in {@link #path} to the move buffers
+	 * @param length Number of squares of the move
 	 */
-	public void checkUpLeftCapt(int upLeft,List<Integer> emplCapturePossibles) {
-		if(upLeft > 0){
-			if(isAdversary(upLeft) && !board.isEmpty(upLeft) && board.neighborUpLeft(upLeft) > 0 && board.isEmpty(board.neighborUpLeft(upLeft))){
-				emplCapturePossibles.add(board.neighborUpLeft(upLeft));
-			}
+	private void addMove(int length) {
+		int start = moveOffsets[nbMoves];
+		if (start + length > moveSquares.length) {
+			moveSquares = Arrays.copyOf(moveSquares, Math.max(2 * moveSquares.length, start + length));
+		}
+		if (nbMoves + 2 > moveOffsets.length) {
+			moveOffsets = Arrays.copyOf(moveOffsets, 2 * moveOffsets.length);
 		}
+		System.arraycopy(path, 0, moveSquares, start, length);
+		nbMoves++;
+		moveOffsets[nbMoves] = start + length;
 	}
-	
+
 	/**
-	 * Regarde si une capture est possible vers Bas/Droite depuis un pion et met a jout res
-	 * @param downRight emplacement du pion
-	 * @param emplCapturePossibles
+	 * Add cached capture sequences to the move buffers
+	 * @param entry
 	 */
-	public void checkDownRightCapt(int downRight,List<Integer> emplCapturePossibles) {
-		if(downRight > 0) {
-			if(isAdversary(downRight) &&!board.isEmpty(downRight) && board.neighborDownRight(downRight)>0 && board.isEmpty(board.neighborDownRight(downRight))) {
-				emplCapturePossibles.add(board.neighborDownRight(downRight));
-			}
+	private void addMoves(CaptureCache.Entry entry) {
+		int start = moveOffsets[nbMoves];
+		int length = entry.squares.length;
+		if (start + length > moveSquares.length) {
+			moveSquares = Arrays.copyOf(moveSquares, Math.max(2 * moveSquares.length, start + length));
+		}
+		if (nbMoves + entry.size() + 1 > moveOffsets.length) {
+			moveOffsets = Arrays.copyOf(moveOffsets, Math.max(2 * moveOffsets.length, nbMoves + entry.size() + 1));
 		}
+		System.arraycopy(entry.squares, 0, moveSquares, start, length);
+		for (int i = 1; i <= entry.size(); ++i) {
+			moveOffsets[nbMoves + i] = start + entry.offsets[i];
+		}
+		nbMoves += entry.size();
 	}
-	
+
 	/**
-	 * Regarde si une capture est possible vers Bas/Droite depuis un pion et met a jout res
-	 * @param downLeft emplacement du pion
-	 * @param emplCapturePossibles
+	 * Generate the list of possible moves - first check moves with captures - if no
+	 * capture possible, return displacement moves
 	 */
-	public void checkDownLeftCapt(int downLeft,List<Integer> emplCapturePossibles) {
-		if(downLeft > 0) {
-			if(isAdversary(downLeft) && !board.isEmpty(downLeft) && board.neighborDownLeft(downLeft)>0&& board.isEmpty(board.neighborDownLeft(downLeft))) {
-				emplCapturePossibles.add(board.neighborDownLeft(downLeft));
-			}
+	@Override
+	public List<Move> possibleMoves() {
+		ensureMoves();
+		ArrayList<Move> moves = new ArrayList<>(nbMoves);
+		for (int i = 0; i < nbMoves; ++i) {
+			moves.add(moveAt(i));
+		}
+		return moves;
+	}
+
+	@Override
+	public int moveCount() {
+		ensureMoves();
+		return nbMoves;
+	}
+
+	@Override
+	public DraughtsMove moveAt(int index) {
+		ensureMoves();
+		DraughtsMove move = new DraughtsMove();
+		for (int i = moveOffsets[index]; i < moveOffsets[index + 1]; ++i) {
+			move.add(moveSquares[i]);
 		}
+		return move;
+	}
+
+	@Override
+	public void playIndex(int index) {
+		ensureMoves();
+		apply(moveSquares, moveOffsets[index], moveOffsets[index + 1] - moveOffsets[index]);
 	}
+
 	/**
-	 * Supprime dans resultat les elements deja present dans historique
-	 * @param historique list integer
-	 * @param resultat list integer
-	 * @return list integer resultat sans les elements de historique 
+	 * Key of a move: its squares in base 73 (unique up to 10 squares, hashed beyond)
 	 */
-	public List<Integer> SuppDoublon (List<Integer> historique, List<Integer> resultat){
-		for(Integer i : historique) {
-			if(resultat.contains(i)) {
-				resultat.remove(i);
-			}
+	@Override
+	public long moveKey(int index) {
+		ensureMoves();
+		long key = 0;
+		for (int i = moveOffsets[index]; i < moveOffsets[index + 1]; ++i) {
+			key = key * 73 + moveSquares[i];
 		}
-		return resultat;
-	}
-	
-	/**
-	 * Ajoute de maniere recursive les prises possibles depuis un pion
-	 * @param pawn emplacement du pion
-	 * @param historique list Integer, historique des deplacement du pion
-	 * @return list DraughtMove des prises possibles
-	 */
-	public List<DraughtsMove> prisesPossibles(int pawn,List<Integer> historique,boolean king){
-		ArrayList<DraughtsMove> moves = new ArrayList<>();
-		List<Integer> destPossibles = DeplacementAvecCapturePossibles(pawn,historique,king);
-		historique.add(pawn);
-		for(int dest : destPossibles){
-			List<DraughtsMove> movesPriseDest = prisesPossibles(dest,historique,king);
-			if(movesPriseDest.isEmpty()){
-				DraughtsMove temp = new DraughtsMove();
-				temp.add(pawn);temp.add(dest);
-				moves.add(temp);
-			}else{
-				for(DraughtsMove moveDest : movesPriseDest){
-					DraughtsMove concat = new DraughtsMove();
-					concat.add(pawn);concat.addAll(moveDest);
-					moves.add(concat);
-				}
+		return key;
+	}
+
+	@Override
+	public double movePrior(int index) {
+		ensureMoves();
+		return prior(moveSquares, moveOffsets[index], moveOffsets[index + 1] - moveOffsets[index]);
+	}
+
+	@Override
+	public boolean isTerminal() {
+		return winner() != null || moveCount() == 0;
+	}
+
+	/**
+	 * Prior of a move: captured pawns first, then promotions, then moves to a square where
+	 * the pawn cannot be taken at once.
+	 */
+	@Override
+	public double movePrior(Move aMove) {
+		if (!(aMove instanceof DraughtsMove))
+			return 0.0;
+		int[] squares = squares((DraughtsMove) aMove);
+		return prior(squares, 0, squares.length);
+	}
+
+	/**
+	 * Prior of a move given by its squares
+	 * @param squares
+	 * @param offset Index of the first square of the move
+	 * @param length Number of squares of the move
+	 * @return The prior of the move
+	 */
+	private double prior(int[] squares, int offset, int length) {
+		int from = squares[offset];
+		int to = squares[offset + length - 1];
+		double prior = 0.0;
+		// One point per captured pawn
+		for (int i = offset; i < offset + length - 1; i++) {
+			if (board.squareBetween(squares[i], squares[i+1]) > 0) {
+				prior += 1.0;
 			}
 		}
-		return moves;
+		// Promotion
+		if (!board.isKing(from) && (playerId == PlayerId.ONE ? board.inTopRow(to) : board.inBottomRow(to))) {
+			prior += 0.5;
+		}
+		// Safety
+		if (!isExposed(to, from)) {
+			prior += 0.25;
+		}
+		return prior;
+	}
+
+	private static int[] squares(DraughtsMove move) {
+		int[] squares = new int[move.size()];
+		for (int i = 0; i < squares.length; ++i) {
+			squares[i] = move.get(i);
+		}
+		return squares;
+	}
+
+	/**
+	 * Check if a pawn of the current player moving from <code>from</code> to <code>square</code>
+	 * could be captured by the adversary at once (the board before the move is used, for speed)
+	 * @param square Destination of the pawn
+	 * @param from Origin of the pawn, which will be empty after the move
+	 * @return <code>true</code> if an adversary pawn can jump over <code>square</code>
+	 */
+	boolean isExposed(int square, int from) {
+		return canJumpOver(board.neighborUpLeft(square), board.neighborDownRight(square), from, false)
+				|| canJumpOver(board.neighborUpRight(square), board.neighborDownLeft(square), from, false)
+				|| canJumpOver(board.neighborDownLeft(square), board.neighborUpRight(square), from, true)
+				|| canJumpOver(board.neighborDownRight(square), board.neighborUpLeft(square), from, true);
+	}
+
+	/**
+	 * Check if the adversary pawn in <code>attacker</code> can jump to <code>landing</code>
+	 * @param attacker Tile number of the attacker (0 if out of board)
+	 * @param landing Tile number after the jump (0 if out of board)
+	 * @param from Tile considered as empty
+	 * @param upwards Direction of the jump (towards the blacks side if true)
+	 * @return <code>true</code> if the jump is possible
+	 */
+	boolean canJumpOver(int attacker, int landing, int from, boolean upwards) {
+		if (attacker <= 0 || landing <= 0 || !isAdversary(attacker))
+			return false;
+		if (!board.isEmpty(landing) && landing != from)
+			return false;
+		// Kings jump in every direction, whites checkers upwards and black checkers downwards
+		return board.isKing(attacker) || upwards == board.isWhite(attacker);
 	}
 
 	@Override
@@ -470,16 +715,25 @@ public class EnglishDraughts extends Game {
 		// We will cast Move to DraughtsMove (kind of ArrayList<Integer>
 		if (!(aMove instanceof DraughtsMove))
 			return;
-		// Cast and apply the move
+		int[] squares = squares((DraughtsMove) aMove);
+		apply(squares, 0, squares.length);
+	}
+
+	/**
+	 * Apply a move given by its squares, and switch to the next player
+	 * @param squares
+	 * @param offset Index of the first square of the move
+	 * @param length Number of squares of the move
+	 */
+	private void apply(int[] squares, int offset, int length) {
 		boolean capture = false;
-		DraughtsMove move = (DraughtsMove) aMove;
-		boolean king = board.isKing(move.get(0));
+		boolean king = board.isKing(squares[offset]);
 		
 		// Move pawn and capture opponents
-		for(int i =0;i<move.size()-1;i++){
+		for(int i = offset; i < offset + length - 1; i++){
 			
-			board.movePawn(move.get(i), move.get(i+1));
-			int bitwin = board.squareBetween(move.get(i), move.get(i+1));
+			board.movePawn(squares[i], squares[i+1]);
+			int bitwin = board.squareBetween(squares[i], squares[i+1]);
 			if(bitwin > 0 && !board.isEmpty(bitwin)){
 				board.removePawn(bitwin);
 				capture = true;
@@ -495,7 +749,7 @@ public class EnglishDraughts extends Game {
 		}
 
 		// Promote to king if the pawn ends on the opposite of the board
-		int lastPos = move.get(move.size()-1);
+		int lastPos = squares[offset + length - 1];
 		if(playerId == PlayerId.ONE && board.inTopRow(lastPos)){
 			board.crownPawn(lastPos);
 		}
@@ -512,6 +766,46 @@ public class EnglishDraughts extends Game {
 		
 		// Update nbTurn
 		nbTurn++;
+
+		// Captures and checker moves cannot be undone: the previous positions cannot repeat
+		record(capture || !king);
+	}
+
+	/**
+	 * Enable the repetition rule. The current position is the first one of the history.
+	 * @param limit Number of earlier occurrences of a position from which the game is a draw
+	 *              (e.g. 1 to stop at the first repetition), or 0 to disable the rule
+	 */
+	@Override
+	public void setRepetitionLimit(int limit) {
+		repetitionLimit = limit;
+		if (limit > 0 && history == null) {
+			history = new long[HISTORY_SIZE];
+			record(true);
+		}
+	}
+
+	/**
+	 * Add the current position to the history of the repetition rule, and count its earlier occurrences
+	 * @param irreversible <code>true</code> to clear the history first
+	 */
+	private void record(boolean irreversible) {
+		if (history == null)
+			return;
+		if (irreversible) {
+			historySize = 0;
+		}
+		long hash = hash();
+		int count = 0;
+		for (int k = 1; k <= historySize; ++k) {
+			if (history[(historyHead - k + HISTORY_SIZE) % HISTORY_SIZE] == hash) {
+				count++;
+			}
+		}
+		repetitions = count;
+		history[historyHead] = hash;
+		historyHead = (historyHead + 1) % HISTORY_SIZE;
+		historySize = Math.min(historySize + 1, HISTORY_SIZE);
 	}
 
 	@Override
@@ -523,23 +817,38 @@ public class EnglishDraughts extends Game {
 	 * Get the winner (or null if the game is still going) Victory conditions are :
 	 * - adversary with no more pawns or no move possibilities Null game condition
 	 * (return PlayerId.NONE) is - more than 25 successive moves of only kings and
-	 * without any capture
+	 * without any capture - or a repetition, if the rule is enabled (see {@link #setRepetitionLimit(int)})
 	 */
 	@Override
 	public PlayerId winner() {
 		// || (playerId == PlayerId.TWO && possibleMoves().isEmpty())
 		// || (playerId == PlayerId.ONE && possibleMoves().isEmpty())
 		// return the winner ID if possible
-		if(board.getBlackPawns().isEmpty() || gameNullWhiteWin){
+		if(!hasPawns(false) || gameNullWhiteWin){
 			return PlayerId.ONE;
-		}else if(board.getWhitePawns().isEmpty() || gameNullBlackWin ){
+		}else if(!hasPawns(true) || gameNullBlackWin ){
 			return PlayerId.TWO;
 		}else if(nbKingMovesWithoutCapture >= 25){
 			// return PlayerId.NONE if the game is null
 			return PlayerId.NONE;
+		}else if(repetitionLimit > 0 && repetitions >= repetitionLimit){
+			return PlayerId.NONE;
 		}else{
 			// Return null is the game has not ended yet
 			return null;
 		}		
 	}
+
+	/**
+	 * Check if a player has pawns left, without building the list of its pawns
+	 * @param white <code>true</code> for the whites, <code>false</code> for the blacks
+	 * @return <code>true</code> if the player has at least one pawn
+	 */
+	private boolean hasPawns(boolean white) {
+		for (int square = 1; square <= board.nbPlayableTiles(); ++square) {
+			if (white ? board.isWhite(square) : board.isBlack(square))
+				return true;
+		}
+		return false;
+	}
 }
@@ -62,6 +62,17 @@ public abstract class Game implements Cloneable {
 	 */
 	public abstract void play(Move move);
 	
+	/**
+	 * Cheap prior of a move, used to try the most promising moves first in a search.
+	 * Default implementation gives the same prior to every move. Can be overrided by games with
+	 * a domain knowledge (e.g. captures in checkers).
+	 * @param move A move from {@link Game#possibleMoves()}
+	 * @return The prior of the move, the higher the better
+	 */
+	public double movePrior(Move move) {
+		return 0.0;
+	}
+	
 	/**
 	 * Get the PlayerID of the current player
 	 * @return The PlayerId of the current player
@@ -78,6 +89,57 @@ public abstract class Game implements Cloneable {
 	@Override
 	public abstract Game clone();
 	
+	/**
+	 * Hash of the game state (position and player to move), used as a key in position stores.
+	 * Default implementation hashes {@link Game#toString()}. Can be overrided with a faster
+	 * or more robust hash (e.g. Zobrist hashing).
+	 * @return A 64-bit hash of the game state
+	 */
+	public long hash() {
+		return toString().hashCode();
+	}
+	
+	/**
+	 * Canonical form of the game state, for the games with a colour-flip symmetry (e.g. checkers, where the
+	 * board rotated by a half-turn with the colours swapped is the same position for the other player).
+	 * Symmetric states have the same canonical form, so that the position stores can keep only one of them.
+	 * Default implementation has no symmetry: the state is its own canonical form.
+	 * @return The canonical state (may be the state itself, must not be modified)
+	 */
+	public Game canonical() {
+		return this;
+	}
+	
+	/**
+	 * Check if the state is its own canonical form (see {@link Game#canonical()}).
+	 * When it is not, the players of the canonical state are swapped: {@link PlayerId#ONE} in the canonical
+	 * state is {@link PlayerId#TWO} in this state, and conversely.
+	 * @return <code>true</code> if the state is canonical
+	 */
+	public boolean isCanonical() {
+		return true;
+	}
+	
+	/**
+	 * Hash of the canonical form of the game state (see {@link Game#canonical()}), used as a key in position stores.
+	 * Can be overrided to avoid building the canonical state.
+	 * @return The same value as <code>canonical().hash()</code>
+	 */
+	public long canonicalHash() {
+		return canonical().hash();
+	}
+	
+	/**
+	 * Translate a move between the game state and its canonical form (see {@link Game#canonical()}).
+	 * The translation is its own inverse: it maps the moves of this state to the moves of the canonical state,
+	 * and the moves of the canonical state back to the moves of this state.
+	 * @param move A move of this state or of the canonical state
+	 * @return The matching move of the other state
+	 */
+	public Move canonicalMove(Move move) {
+		return move;
+	}
+	
 	/**
 	 * Get an ASCII-art representation of the game state
 	 * @return a string containing an ASCII art view of the the game
@@ -0,0 +1,231 @@
+package fr.istic.ia.tp1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two-player game whose moves can also be handled by their index in {@link Game#possibleMoves()}.
+ *
+ * The indexed methods let the searches enumerate and play the moves without building {@link Move} objects
+ * nor lists: the game generates its moves once per state in internal buffers, and {@link #playIndex(int)}
+ * plays the move at an index. The {@link Move} methods stay available for the players and the tests,
+ * and use the same order.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public abstract class IndexedGame extends Game {
+
+	/**
+	 * Number of possible moves from the current state
+	 * @return The size of {@link Game#possibleMoves()}
+	 */
+	public abstract int moveCount();
+
+	/**
+	 * Get a possible move
+	 * @param index Index of the move, between 0 and {@link #moveCount()} - 1
+	 * @return The move at <code>index</code> in {@link Game#possibleMoves()}
+	 */
+	public abstract Move moveAt(int index);
+
+	/**
+	 * Play a possible move. Same as <code>play(moveAt(index))</code>.
+	 * @param index Index of the move, between 0 and {@link #moveCount()} - 1
+	 */
+	public abstract void playIndex(int index);
+
+	/**
+	 * Key of a possible move: equal moves of any state have the same key, and the different moves of a state
+	 * have different keys (used to recognize a move played in another state, e.g. for RAVE)
+	 * @param index Index of the move, between 0 and {@link #moveCount()} - 1
+	 * @return The key of the move
+	 */
+	public abstract long moveKey(int index);
+
+	@Override
+	public abstract IndexedGame clone();
+
+	/**
+	 * Check if the game has ended: a player has won or the player to move cannot play
+	 * @return <code>true</code> if no move will be played from the current state
+	 */
+	public boolean isTerminal() {
+		return winner() != null || moveCount() == 0;
+	}
+
+	/**
+	 * Adjudicate the repeated positions as draws, to end the loops of random play.
+	 * Default implementation ignores the setting (games without repetition).
+	 * @param limit Number of earlier occurrences of a position from which the game is a draw, or 0 to disable
+	 */
+	public void setRepetitionLimit(int limit) {
+	}
+
+	/**
+	 * Prior of a possible move (see {@link Game#movePrior(Move)})
+	 * @param index Index of the move, between 0 and {@link #moveCount()} - 1
+	 * @return The prior of the move, the higher the better
+	 */
+	public double movePrior(int index) {
+		return movePrior(moveAt(index));
+	}
+
+	/**
+	 * Find the index of a move
+	 * @param move
+	 * @return The index of the move, or -1 if it is not a possible move
+	 */
+	public int indexOf(Move move) {
+		for (int i = 0; i < moveCount(); ++i) {
+			if (moveAt(i).equals(move)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * View a game through the indexed API
+	 * @param game Any game
+	 * @return The game itself if it is an {@link IndexedGame}, an adapter playing on <code>game</code> otherwise
+	 */
+	public static IndexedGame of(Game game) {
+		if (game instanceof IndexedGame)
+			return (IndexedGame) game;
+		return new ListAdapter(game);
+	}
+
+	/**
+	 * Indexed API of a game which only has the {@link Move} API: the possible moves are computed once per state
+	 */
+	static class ListAdapter extends IndexedGame {
+		/** The adapted game */
+		final Game game;
+
+		/** The possible moves of the current state, or <code>null</code> if not computed yet */
+		private List<Move> moves;
+
+		/** The keys given to the moves seen so far, shared with the clones of the adapter */
+		private final Map<Move, Long> keys;
+
+		/** The next key to give, shared with the clones of the adapter */
+		private final AtomicLong nextKey;
+
+		ListAdapter(Game game) {
+			this(game, new ConcurrentHashMap<>(), new AtomicLong());
+		}
+
+		private ListAdapter(Game game, Map<Move, Long> keys, AtomicLong nextKey) {
+			this.game = game;
+			this.keys = keys;
+			this.nextKey = nextKey;
+		}
+
+		private List<Move> moves() {
+			if (moves == null) {
+				moves = game.possibleMoves();
+			}
+			return moves;
+		}
+
+		@Override
+		public int moveCount() {
+			return moves().size();
+		}
+
+		@Override
+		public Move moveAt(int index) {
+			return moves().get(index);
+		}
+
+		@Override
+		public void playIndex(int index) {
+			play(moveAt(index));
+		}
+
+		/**
+		 * Key of a move: the number of the move among the moves seen by the adapter and its clones
+		 * (the hash code of a move could collide)
+		 */
+		@Override
+		public long moveKey(int index) {
+			return keys.computeIfAbsent(moveAt(index), move -> nextKey.getAndIncrement());
+		}
+
+		@Override
+		public List<Move> possibleMoves() {
+			// A copy: the callers may modify the list
+			return new ArrayList<>(moves());
+		}
+
+		@Override
+		public void play(Move move) {
+			game.play(move);
+			moves = null;
+		}
+
+		@Override
+		public double movePrior(Move move) {
+			return game.movePrior(move);
+		}
+
+		@Override
+		public PlayerId player() {
+			return game.player();
+		}
+
+		@Override
+		public PlayerId winner() {
+			return game.winner();
+		}
+
+		@Override
+		public ListAdapter clone() {
+			return new ListAdapter(game.clone(), keys, nextKey);
+		}
+
+		@Override
+		public long hash() {
+			return game.hash();
+		}
+
+		@Override
+		public Game canonical() {
+			return game.canonical();
+		}
+
+		@Override
+		public boolean isCanonical() {
+			return game.isCanonical();
+		}
+
+		@Override
+		public long canonicalHash() {
+			return game.canonicalHash();
+		}
+
+		@Override
+		public Move canonicalMove(Move move) {
+			return game.canonicalMove(move);
+		}
+
+		@Override
+		public String view() {
+			return game.view();
+		}
+
+		@Override
+		public String playerName(PlayerId playerId) {
+			return game.playerName(playerId);
+		}
+
+		@Override
+		public String toString() {
+			return game.toString();
+		}
+	}
+}
@@ -88,6 +88,13 @@ public class MainGameLoop {
 		list.add( new NamedSupplier<Player>("MCTS 2 s",  () -> new PlayerMCTS(2000))   );
 		list.add( new NamedSupplier<Player>("MCTS 5 s",  () -> new PlayerMCTS(5000))   );
 		list.add( new NamedSupplier<Player>("MCTS 10 s", () -> new PlayerMCTS(10000))  );
+		list.add( new NamedSupplier<Player>("MCTS RAVE 1 s", () -> new PlayerMCTS(1000, true)) );
+		list.add( new NamedSupplier<Player>("MCTS RAVE 2 s", () -> new PlayerMCTS(2000, true)) );
+		list.add( new NamedSupplier<Player>("MCTS RAVE + widening 1 s", () -> {
+			PlayerMCTS player = new PlayerMCTS(1000, true);
+			player.setProgressiveWidening(true);
+			return player;
+		}) );
 		
 		System.out.println("Select player type for " + name + ":");
 		return chooseInList(list).get();
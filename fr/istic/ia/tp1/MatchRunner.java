@@ -0,0 +1,186 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.istic.ia.tp1.Game.Move;
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MainGameLoop.NamedSupplier;
+
+/**
+ * Headless game loop: plays a game between two {@link Player}s without any console input or output,
+ * and records the result, the moves and the thinking time of each player.
+ * Also parses the player specifications of the command-line tools.
+ * @author Le Dourner/Guerin
+ *
+ */
+public class MatchRunner {
+	/**
+	 * The record of a finished game
+	 */
+	static class GameRecord {
+		/** Name of the player with the whites ({@link PlayerId#ONE}) */
+		String white;
+
+		/** Name of the player with the blacks ({@link PlayerId#TWO}) */
+		String black;
+
+		/** Size of the board */
+		int boardSize;
+
+		/** FEN of the initial position (see {@link PositionCodec#toFen(EnglishDraughts)}), or <code>null</code> for the standard one */
+		String fen;
+
+		/** The winner ({@link PlayerId#NONE} for a draw) */
+		PlayerId winner;
+
+		/** <code>true</code> if the game was stopped at the plies limit (and counted as a draw) */
+		boolean adjudicated;
+
+		/** The played moves, in the notation of the game */
+		List<String> moves = new ArrayList<>();
+
+		/** Thinking time of each player (whites, blacks), in nanoseconds */
+		long[] thinkNanos = new long[2];
+
+		/** Number of moves of each player (whites, blacks) */
+		int[] nbMoves = new int[2];
+
+		/** Number of playouts of each player (whites, blacks), see {@link Player#playouts()} */
+		long[] playouts = new long[2];
+
+		/**
+		 * Average thinking time of a player
+		 * @param playerId
+		 * @return The average time per move in milliseconds
+		 */
+		double millisPerMove(PlayerId playerId) {
+			int i = playerId == PlayerId.ONE ? 0 : 1;
+			return nbMoves[i] == 0 ? 0.0 : thinkNanos[i] / 1e6 / nbMoves[i];
+		}
+	}
+
+	/**
+	 * Play a game until its end or the plies limit
+	 * @param game The initial game state (modified by the function)
+	 * @param white The player with the whites ({@link PlayerId#ONE})
+	 * @param black The player with the blacks ({@link PlayerId#TWO})
+	 * @param maxPlies The plies limit, after which the game is a draw
+	 * @return The record of the game
+	 */
+	public static GameRecord play(Game game, Player white, Player black, int maxPlies) {
+		GameRecord record = new GameRecord();
+		while (game.winner() == null) {
+			if (record.moves.size() >= maxPlies) {
+				record.adjudicated = true;
+				record.winner = PlayerId.NONE;
+				return record;
+			}
+			PlayerId playerId = game.player();
+			int i = playerId == PlayerId.ONE ? 0 : 1;
+			Player player = playerId == PlayerId.ONE ? white : black;
+			long playouts = player.playouts();
+			long start = System.nanoTime();
+			Move move = player.play(game);
+			record.thinkNanos[i] += System.nanoTime() - start;
+			record.nbMoves[i]++;
+			record.playouts[i] += player.playouts() - playouts;
+			// A player who cannot play loses
+			if (move == null) {
+				record.winner = playerId.other();
+				return record;
+			}
+			record.moves.add(move.toString());
+			game.play(move);
+		}
+		record.winner = game.winner();
+		return record;
+	}
+
+	/**
+	 * Create a player factory from a specification:
+	 * <ul>
+	 * <li><code>random</code></li>
+	 * <li><code>mcts:timeMillis[:rave][:widening][:cache][:batchN][:repeatN][:ntuple=file]</code>, e.g. <code>mcts:500:rave</code>
+	 * (<code>cache</code> shares the {@link PositionStatsCache#shared()} statistics, <code>batchN</code>
+	 * plays N rollouts per new node in a {@link BatchRollouts}, <code>repeatN</code> scores the positions repeated
+	 * N times in the search as draws, <code>ntuple=file</code> evaluates the new nodes
+	 * with the {@link NTupleEvaluator} of a weights file instead of rollouts)</li>
+	 * <li><code>perfect:file</code> for a {@link PlayerPerfect} on a table of solved positions</li>
+	 * </ul>
+	 * @param spec The specification
+	 * @return A named factory of players
+	 * @throws IllegalArgumentException if the specification is not valid
+	 */
+	public static NamedSupplier<Player> parsePlayer(String spec) {
+		String[] parts = spec.split(":");
+		switch (parts[0]) {
+		case "random":
+			return new NamedSupplier<Player>(spec, () -> new PlayerRandom());
+		case "mcts": {
+			int timeMillis = parts.length > 1 ? Integer.parseInt(parts[1]) : 1000;
+			boolean rave = false;
+			boolean widening = false;
+			boolean cache = false;
+			int batch = 0;
+			int repetitions = 0;
+			NTupleEvaluator evaluator = null;
+			for (int i = 2; i < parts.length; ++i) {
+				if (parts[i].equals("rave")) {
+					rave = true;
+				} else if (parts[i].equals("widening")) {
+					widening = true;
+				} else if (parts[i].equals("cache")) {
+					cache = true;
+				} else if (parts[i].startsWith("batch")) {
+					batch = Integer.parseInt(parts[i].substring(5));
+				} else if (parts[i].startsWith("repeat")) {
+					repetitions = Integer.parseInt(parts[i].substring(6));
+				} else if (parts[i].startsWith("ntuple=")) {
+					// Loaded once, shared by all the players of the specification
+					try {
+						evaluator = NTupleEvaluator.load(Paths.get(parts[i].substring(7)));
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Cannot open " + parts[i].substring(7), e);
+					}
+				} else {
+					throw new IllegalArgumentException("Unknown MCTS option: " + parts[i]);
+				}
+			}
+			final boolean withRave = rave;
+			final boolean withWidening = widening;
+			final boolean withCache = cache;
+			final int batchPlayouts = batch;
+			final int repetitionLimit = repetitions;
+			final NTupleEvaluator withEvaluator = evaluator;
+			return new NamedSupplier<Player>(spec, () -> {
+				PlayerMCTS player = new PlayerMCTS(timeMillis, withRave);
+				player.setProgressiveWidening(withWidening);
+				player.setBatchRollouts(batchPlayouts);
+				player.setRepetitionLimit(repetitionLimit);
+				player.setEvaluator(withEvaluator);
+				if (withCache) {
+					player.setStatsCache(PositionStatsCache.shared());
+				}
+				player.setVerbose(false);
+				return player;
+			});
+		}
+		case "perfect": {
+			if (parts.length < 2)
+				throw new IllegalArgumentException("Missing table file: " + spec);
+			SolvedPositions table;
+			try {
+				table = new SolvedPositions(Paths.get(parts[1]));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Cannot open " + parts[1], e);
+			}
+			return new NamedSupplier<Player>(spec, () -> new PlayerPerfect(table));
+		}
+		default:
+			throw new IllegalArgumentException("Unknown player: " + spec);
+		}
+	}
+}
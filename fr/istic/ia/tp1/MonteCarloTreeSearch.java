@@ -1,9 +1,10 @@
 package fr.istic.ia.tp1;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import fr.istic.ia.tp1.Game.Move;
@@ -29,74 +30,208 @@ public class MonteCarloTreeSearch {
 		/** The number of winning runs */
 		double w;
 
+		/** The number of all-moves-as-first (AMAF) simulations in which the move of this node was played */
+		int nAmaf;
+
+		/** The number of AMAF winning runs */
+		double wAmaf;
+
 		/** The game state corresponding to this node */
-		Game game;
+		IndexedGame game;
 
 		/** The children of the node: the games states accessible by playing a move from this node state */
 		ArrayList<EvalNode> children;
 
 		Move m;
 
+		/** The index of the move of this node in the moves of its parent state, and its key (see {@link IndexedGame#moveKey(int)}) */
+		int moveIndex = -1;
+		long moveKey;
+
+		/** The indices of the moves of the node state which have no child yet (computed at the first expansion) */
+		int[] untried;
+
+		/** The number of untried moves, at the start of {@link #untried} */
+		int nbUntried;
+
+		/** The winner with a perfect play if the node state is in the endgame tablebase, <code>null</code> otherwise */
+		PlayerId solved;
+
+		/** The result of the game if it is over in the node state (see {@link #ended()}), once computed */
+		private PlayerId ended;
+		private boolean endChecked;
+
+		/** The part of n and w which is already in the position statistics cache */
+		int nCached;
+		double wCached;
+
 		/** 
 		 * The only constructor of EvalNode.
 		 * @param game The game state corresponding to this node.
 		 */
-		EvalNode(Game game) {
+		EvalNode(IndexedGame game) {
 			this.game = game;
 			children = new ArrayList<>();
 			w = 0.0;
 			n = 0;
+			metrics.nodeAllocations.increment();
 		}
 		/**
 		 * Constructeur gardant le move qui a ete effectue (Servira pour les fils)
 		 * @param game The game state corresponding to this node.
 		 * @param m move effectue pour obtenir cet etat de parti
+		 * @param moveIndex index du move dans les moves de l'etat parent
+		 * @param moveKey cle du move
 		 */
-		EvalNode(Game game,Move m) {
+		EvalNode(IndexedGame game,Move m,int moveIndex,long moveKey) {
 			this.game = game;
 			this.m = m;
+			this.moveIndex = moveIndex;
+			this.moveKey = moveKey;
 			children = new ArrayList<>();
 			w = 0.0;
 			n = 0;
+			metrics.nodeAllocations.increment();
 		}
 
 		/**
 		 * Compute the Upper Confidence Bound for Trees (UCT) value for the node.
-		 * @return UCT value for the node
+		 * @return UCT value for the node: the best bound of its children
 		 */
 		double uct() {
-			double max = 0.0;
-			double temp = 0.0;
-
-			for(EvalNode c : children){
-				temp = (c.w/c.n)+Math.sqrt(2.0)*Math.sqrt(Math.log(this.n)/c.n);
-				if(temp>max){
-					max= temp;
-				}
-			}
-			return max;
-
+			EvalNode best = bestBound();
+			if (best == null)
+				return 0.0;
+			if (best.n == 0)
+				return Double.POSITIVE_INFINITY;
+			return best.value() + explorationFactor() * invSqrt(best.n);
 		}
+
 		/**
 		 * Compute the Upper Confidence Bound for Trees (UCT) value for the node.
 		 * @return null s'il reste des moves possibles sinon on cherche le meilleur fils
 		 */
 		EvalNode uctChild() {
-			EvalNode choix = new EvalNode(game);
-			double max = 0.0;
-			double temp =-1.0;
-			if(this.game.possibleMoves().size() != this.children.size()) {
+			if(untriedCount() > 0 && children.size() < maxChildren()) {
 				return null;
-			}else {
-				for(EvalNode c : children){
-					temp = (c.w/c.n)+Math.sqrt(2.0)*Math.sqrt(Math.log(this.n)/c.n);
-					if(temp>=max){
-						max= temp;
-						choix = c;
+			}
+			return bestBound();
+		}
+
+		/**
+		 * Exploration term of the children bounds, without the 1/sqrt(child visits) factor
+		 * @return C * sqrt(log(n))
+		 */
+		private double explorationFactor() {
+			return exploration * Math.sqrt(log(n));
+		}
+
+		/**
+		 * UCB1 selection among the children: value + C * sqrt(log(n) / child visits), where log(n) is computed
+		 * once for all the children. A child without any simulation has an infinite bound. Nothing is allocated.
+		 * @return The child with the best bound (the last one in case of equality), or <code>null</code> if there
+		 *         is no child
+		 */
+		private EvalNode bestBound() {
+			double factor = explorationFactor();
+			EvalNode best = null;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0, size = children.size(); i < size; ++i) {
+				EvalNode c = children.get(i);
+				if (c.n == 0)
+					return c;
+				double bound = c.value() + factor * invSqrt(c.n);
+				if (bound >= max) {
+					max = bound;
+					best = c;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Number of moves which can still be expanded from this node. With progressive widening,
+		 * {@link #untried} is sorted by increasing prior (see {@link IndexedGame#movePrior(int)}),
+		 * so that the most promising move is the last one.
+		 * @return The number of untried moves
+		 */
+		int untriedCount() {
+			if (untried == null) {
+				// Nothing to expand from a state where the game is over, even if moves remain (draw by a rule)
+				int count = ended() == null ? game.moveCount() : 0;
+				boolean[] expanded = new boolean[count];
+				for (EvalNode c : children) {
+					expanded[c.moveIndex] = true;
+				}
+				untried = new int[count];
+				for (int i = 0; i < count; ++i) {
+					if (!expanded[i]) {
+						untried[nbUntried++] = i;
 					}
 				}
+				if (progressiveWidening) {
+					sortByPrior();
+				}
+			}
+			return nbUntried;
+		}
+
+		/**
+		 * Insertion sort of the untried moves by increasing prior (the first of equal moves last)
+		 */
+		private void sortByPrior() {
+			double[] priors = new double[nbUntried];
+			for (int i = 0; i < nbUntried; ++i) {
+				double prior = game.movePrior(untried[i]);
+				int index = untried[i];
+				int j = i;
+				while (j > 0 && priors[j - 1] <= prior) {
+					priors[j] = priors[j - 1];
+					untried[j] = untried[j - 1];
+					j--;
+				}
+				priors[j] = prior;
+				untried[j] = index;
+			}
+		}
+
+		/**
+		 * Remove an untried move
+		 * @param k Position of the move in {@link #untried}
+		 * @return The index of the move in the moves of the node state
+		 */
+		int takeUntried(int k) {
+			int index = untried[k];
+			untried[k] = untried[--nbUntried];
+			return index;
+		}
+
+		/**
+		 * Number of children that the node may have, given its number of simulations.
+		 * Without progressive widening, every move is expanded before the UCT selection starts.
+		 * @return The maximal number of children of the node
+		 */
+		int maxChildren() {
+			if (!progressiveWidening) {
+				return Integer.MAX_VALUE;
+			}
+			return (int) Math.ceil(WIDENING_COEFFICIENT * Math.pow(n + 1, WIDENING_EXPONENT));
+		}
+
+		/**
+		 * Result of the game if it is over in the node state: the winner, {@link PlayerId#NONE} for a draw
+		 * (25 king moves or repetition rule), or the adversary of a player who cannot move
+		 * @return The result, or <code>null</code> if the game goes on
+		 */
+		PlayerId ended() {
+			if (!endChecked) {
+				ended = game.winner();
+				if (ended == null && game.moveCount() == 0) {
+					ended = game.player().other();
+				}
+				endChecked = true;
 			}
-			return choix;
+			return ended;
 		}
 
 		/**
@@ -107,6 +242,20 @@ public class MonteCarloTreeSearch {
 			return this.w/this.n;
 		}
 
+		/**
+		 * Exploitation term used by the selection: the score of the node, blended with its AMAF score in RAVE mode.
+		 * The weight of the AMAF score decays with the number of simulations run through the node
+		 * (it equals the weight of the score after {@link MonteCarloTreeSearch#RAVE_EQUIVALENCE} simulations).
+		 * @return Estimated value of the node for the selection
+		 */
+		double value() {
+			if (!rave || nAmaf == 0) {
+				return score();
+			}
+			double beta = Math.sqrt(RAVE_EQUIVALENCE / (3.0 * n + RAVE_EQUIVALENCE));
+			return (1.0 - beta) * score() + beta * (wAmaf / nAmaf);
+		}
+
 		/**
 		 * Update the stats (n and w) of the node with the provided rollout results
 		 * @param res
@@ -133,6 +282,9 @@ public class MonteCarloTreeSearch {
 		/** The number of playouts */
 		int n;
 
+		/** The number of plies played in the playouts */
+		long plies;
+
 		/**
 		 * The constructor
 		 */
@@ -145,6 +297,7 @@ public class MonteCarloTreeSearch {
 		 */
 		public void reset() {
 			n = 0;
+			plies = 0;
 			win1 = 0.0;
 			win2 = 0.0;
 		}
@@ -157,6 +310,7 @@ public class MonteCarloTreeSearch {
 			win1 += res.win1;
 			win2 += res.win2;
 			n += res.n;
+			plies += res.plies;
 		}
 
 		/**
@@ -198,39 +352,478 @@ public class MonteCarloTreeSearch {
 		}
 	}
 
+	/**
+	 * The moves played by each player during a single playout, to update the all-moves-as-first (AMAF) statistics
+	 * @author Le Dourner/Guerin
+	 *
+	 */
+	static class AmafTrace {
+		/** The winner of the playout */
+		PlayerId winner;
+
+		/** The keys of the moves played by player 1 {@link PlayerId#ONE}*/
+		MoveKeySet movesOne = new MoveKeySet();
+
+		/** The keys of the moves played by player 2 {@link PlayerId#TWO}*/
+		MoveKeySet movesTwo = new MoveKeySet();
+
+		/**
+		 * Record a move played during the simulation
+		 * @param playerId The player who played the move
+		 * @param moveKey The key of the played move (see {@link IndexedGame#moveKey(int)})
+		 */
+		void add(PlayerId playerId, long moveKey) {
+			if (playerId == PlayerId.ONE) {
+				movesOne.add(moveKey);
+			} else if (playerId == PlayerId.TWO) {
+				movesTwo.add(moveKey);
+			}
+		}
+
+		/**
+		 * Check if a move was played by a player during the simulation
+		 * @param playerId
+		 * @param moveKey The key of the move
+		 * @return <code>true</code> if <code>playerId</code> played the move
+		 */
+		boolean played(PlayerId playerId, long moveKey) {
+			switch (playerId) {
+			case ONE: return movesOne.contains(moveKey);
+			case TWO: return movesTwo.contains(moveKey);
+			default: return false;
+			}
+		}
+	}
+
+	/**
+	 * A set of move keys (open addressing with linear probing, 0 marks the empty slots)
+	 * @author Le Dourner/Guerin
+	 *
+	 */
+	static class MoveKeySet {
+		private long[] keys = new long[32];
+		private int size;
+
+		private static long key(long moveKey) {
+			// 0 marks the empty slots
+			return moveKey == 0 ? 1 : moveKey;
+		}
+
+		private int slot(long key) {
+			int mask = keys.length - 1;
+			int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		void add(long moveKey) {
+			long key = key(moveKey);
+			int i = slot(key);
+			if (keys[i] == key)
+				return;
+			keys[i] = key;
+			if (2 * ++size > keys.length) {
+				long[] old = keys;
+				keys = new long[2 * old.length];
+				for (long k : old) {
+					if (k != 0) {
+						keys[slot(k)] = k;
+					}
+				}
+			}
+		}
+
+		boolean contains(long moveKey) {
+			long key = key(moveKey);
+			return keys[slot(key)] == key;
+		}
+	}
+
+	/**
+	 * Number of simulations of a node for which its UCT score and its AMAF score have the same weight in RAVE mode
+	 */
+	static final double RAVE_EQUIVALENCE = 500.0;
+
+	/**
+	 * Maximal number of simulations given to a new node from the position statistics cache
+	 */
+	static final int WARM_START_VISITS = 20;
+
+	/**
+	 * Minimal number of new simulations of a node to be added to the position statistics cache
+	 */
+	static final int PUBLISH_MIN_VISITS = 10;
+
+	/**
+	 * Number of playouts per new node when the rollouts are played one by one
+	 */
+	static final int PLAYOUTS_PER_LEAF = 5;
+
+	/**
+	 * Default exploration constant C of the UCB1 bound value + C * sqrt(log(parent visits) / visits)
+	 */
+	static final double DEFAULT_EXPLORATION = Math.sqrt(2.0);
+
+	/**
+	 * Size of the lookup tables of the UCB1 bound: the numbers of simulations below are looked up
+	 */
+	static final int UCB_TABLE_SIZE = 1 << 12;
+
+	/** log(n), for n < {@link #UCB_TABLE_SIZE} (log(0) is taken as 0) */
+	private static final double[] LOG = new double[UCB_TABLE_SIZE];
+
+	/** 1/sqrt(n), for n < {@link #UCB_TABLE_SIZE} */
+	private static final double[] INV_SQRT = new double[UCB_TABLE_SIZE];
+	static {
+		INV_SQRT[0] = Double.POSITIVE_INFINITY;
+		for (int i = 1; i < UCB_TABLE_SIZE; ++i) {
+			LOG[i] = Math.log(i);
+			INV_SQRT[i] = 1.0 / Math.sqrt(i);
+		}
+	}
+
+	/**
+	 * Natural logarithm of a number of simulations
+	 * @param n
+	 * @return log(n), or 0 if n is 0
+	 */
+	static double log(int n) {
+		return n < UCB_TABLE_SIZE ? LOG[n] : Math.log(n);
+	}
+
+	/**
+	 * Inverse of the square root of a number of simulations
+	 * @param n A positive number
+	 * @return 1/sqrt(n)
+	 */
+	static double invSqrt(int n) {
+		return n < UCB_TABLE_SIZE ? INV_SQRT[n] : 1.0 / Math.sqrt(n);
+	}
+
+	/**
+	 * Progressive widening: a node with n simulations may have ceil(C * (n+1)^alpha) children. This is C.
+	 */
+	static final double WIDENING_COEFFICIENT = 1.0;
+
+	/**
+	 * Progressive widening: a node with n simulations may have ceil(C * (n+1)^alpha) children. This is alpha.
+	 */
+	static final double WIDENING_EXPONENT = 0.5;
+
 	/**
 	 * The root of the MCTS tree
 	 */
 	EvalNode root;
 
+	/**
+	 * Use the Rapid Action Value Estimation (RAVE) in the selection
+	 */
+	boolean rave;
+
+	/**
+	 * Open the children of a node gradually, by decreasing move prior, as its number of simulations grows
+	 */
+	boolean progressiveWidening;
+
+	/**
+	 * The exploration constant of the selection
+	 */
+	double exploration = DEFAULT_EXPLORATION;
+
+	/**
+	 * The nodes visited by the current iteration, from the root to the new leaf (reused by all the iterations)
+	 */
+	private final ArrayList<EvalNode> path = new ArrayList<>();
+
+	/**
+	 * The endgame tablebase probed by the rollouts and the new nodes (may be <code>null</code>)
+	 */
+	EndgameTablebase tablebase;
+
+	/**
+	 * Print the search statistics at the end of {@link #evaluateTreeWithTimeLimit(int)}
+	 */
+	boolean verbose = true;
+
+	/**
+	 * Set by {@link #stop()} to end the current search
+	 */
+	volatile boolean stopRequested;
+
+	/**
+	 * The periodic checkpoint of the tree (may be <code>null</code>)
+	 */
+	TreeCheckpoint checkpoint;
+
+	/**
+	 * The position statistics shared with other searches (may be <code>null</code>)
+	 */
+	PositionStatsCache statsCache;
+
+	/**
+	 * The batched rollouts, if enabled (may be <code>null</code>)
+	 */
+	BatchRollouts batchRollouts;
+
+	/**
+	 * Number of playouts per new node with {@link #batchRollouts}
+	 */
+	int batchPlayouts;
+
+	/**
+	 * The static evaluator of the new nodes, replacing the rollouts (may be <code>null</code>)
+	 */
+	NTupleEvaluator evaluator;
+
 	/**
 	 * The total number of performed simulations (rollouts)
 	 */
 	int nTotal;
 
+	/**
+	 * The number of performed MCTS iterations
+	 */
+	int nIterations;
+
+	/**
+	 * The number of nodes of the tree
+	 */
+	int treeSize = 1;
+
+	/**
+	 * The registry receiving the search metrics
+	 */
+	SearchMetrics metrics = SearchMetrics.global();
+
 
 	/**
 	 * The constructor
 	 * @param game
 	 */
 	public MonteCarloTreeSearch(Game game) {
-		root = new EvalNode(game.clone());
+		this(game, false);
+	}
+
+	/**
+	 * Constructor with the ability to enable RAVE
+	 * @param game
+	 * @param rave: if true, the selection blends the UCT values with all-moves-as-first statistics.
+	 */
+	public MonteCarloTreeSearch(Game game, boolean rave) {
+		root = new EvalNode(IndexedGame.of(game.clone()));
+		metrics.gameClones.increment();
 		nTotal = 0;
+		this.rave = rave;
+	}
+
+	/**
+	 * Enable or disable progressive widening.
+	 * When enabled, the moves are expanded by decreasing prior instead of randomly,
+	 * and the number of children of a node grows with the square root of its number of simulations.
+	 * @param progressiveWidening
+	 */
+	public void setProgressiveWidening(boolean progressiveWidening) {
+		this.progressiveWidening = progressiveWidening;
+	}
+
+	/**
+	 * Set the repetition rule of the searched games, inherited by the tree nodes and the rollouts:
+	 * a rollout ends as soon as a position repeats, instead of looping until the 25 king moves rule.
+	 * This changes the rules of the search, so it is disabled unless the searched game enables it.
+	 * Must be called before the search.
+	 * @param limit Number of earlier occurrences of a position from which the game is a draw, or 0 to disable
+	 *        the rule
+	 */
+	public void setRepetitionLimit(int limit) {
+		root.game.setRepetitionLimit(limit);
+	}
+
+	/**
+	 * Set the exploration constant C of the selection, which picks the child maximizing
+	 * value + C * sqrt(log(parent visits) / visits)
+	 * @param exploration The constant (default {@link #DEFAULT_EXPLORATION}, the higher the broader the search)
+	 */
+	public void setExplorationConstant(double exploration) {
+		this.exploration = exploration;
+	}
+
+	/**
+	 * Play the rollouts of each new node in lockstep batches (see {@link BatchRollouts}).
+	 * Only used for the game states supported by the batches (without the repetition rule, see
+	 * {@link #setRepetitionLimit(int)}), without RAVE and without tablebase; the rollouts are played one by one otherwise.
+	 * @param playoutsPerLeaf Number of playouts per new node, or 0 to play {@value #PLAYOUTS_PER_LEAF}
+	 *        rollouts one by one
+	 */
+	public void setBatchRollouts(int playoutsPerLeaf) {
+		this.batchPlayouts = playoutsPerLeaf;
+		this.batchRollouts = playoutsPerLeaf > 0 ? new BatchRollouts() : null;
+	}
+
+	/**
+	 * Evaluate the new nodes with a static evaluator instead of playing rollouts: a new node counts as one
+	 * simulation, won with the estimated probability. Only used for the game states supported by the evaluator.
+	 * @param evaluator The evaluator, or <code>null</code> to play rollouts
+	 */
+	public void setEvaluator(NTupleEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * Enable or disable the statistics printed at the end of each search (enabled by default)
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Set the registry receiving the search metrics ({@link SearchMetrics#global()} by default)
+	 * @param metrics
+	 */
+	public void setMetrics(SearchMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Share position statistics with other searches: the new nodes (and the root) start with the cached
+	 * statistics of their state, and the statistics learned by the search are added to the cache at the end
+	 * of {@link #evaluateTreeWithTimeLimit(int)}.
+	 * @param statsCache The cache, or <code>null</code> not to use one
+	 */
+	public void setStatsCache(PositionStatsCache statsCache) {
+		this.statsCache = statsCache;
+		if (statsCache != null && root.n == 0) {
+			warmStart(root);
+		}
+	}
+
+	/**
+	 * Give a node the cached statistics of its state, up to {@link #WARM_START_VISITS} simulations
+	 * @param node A new node
+	 */
+	void warmStart(EvalNode node) {
+		PositionStatsCache.Stats stats = statsCache.get(node.game.canonicalHash());
+		if (stats == null)
+			return;
+		if (node.solved == null && node != root && stats.solved != null) {
+			// The cache stores the canonical form, whose players may be swapped
+			node.solved = node.game.isCanonical() ? stats.solved : stats.solved.other();
+		}
+		int n = Math.min(stats.n, WARM_START_VISITS);
+		if (n == 0)
+			return;
+		double w = stats.w * n / stats.n;
+		// The root is scored for its own player, the cache for the player who moved to the position
+		if (node == root) {
+			w = n - w;
+		}
+		node.n += n;
+		node.w += w;
+		node.nCached = node.n;
+		node.wCached = node.w;
+	}
+
+	/**
+	 * Add the statistics learned since the last call to the position statistics cache
+	 */
+	void publishStats() {
+		if (statsCache == null)
+			return;
+		ArrayDeque<EvalNode> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			EvalNode node = stack.pop();
+			int n = node.n - node.nCached;
+			if (n >= PUBLISH_MIN_VISITS) {
+				double w = node.w - node.wCached;
+				PlayerId solved = node.solved == null || node.game.isCanonical() ? node.solved : node.solved.other();
+				statsCache.add(node.game.canonicalHash(), n, node == root ? n - w : w, solved);
+				node.nCached = node.n;
+				node.wCached = node.w;
+			}
+			for (EvalNode child : node.children) {
+				stack.push(child);
+			}
+		}
+	}
+
+	/**
+	 * Save the tree periodically during {@link #evaluateTreeWithTimeLimit(int)}
+	 * (the root state must be an {@link EnglishDraughts})
+	 * @param checkpoint The checkpoint, or <code>null</code> not to save the tree
+	 */
+	public void setCheckpoint(TreeCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Set the endgame tablebase to probe. Rollouts stop as soon as they reach a position of the tablebase,
+	 * and nodes in the tablebase are not expanded.
+	 * @param tablebase The tablebase, or <code>null</code> not to use one
+	 */
+	public void setTablebase(EndgameTablebase tablebase) {
+		this.tablebase = tablebase;
 	}
 
 	/**
 	 * Perform a single random playing rollout from the given game state
-	 * @param game Initial game state. {@code game} will contain an ended game state when the function returns.
+	 * @param game Initial game state (not modified by the function)
 	 * @return The PlayerId of the winner (or NONE if equality or timeout).
 	 */
 	static PlayerId playRandomlyToEnd(Game game) {
-		PlayerRandom rd = new PlayerRandom();
-		EnglishDraughts gameCloned = (EnglishDraughts) game.clone();
-		while(gameCloned.winner() == null) {
-			//System.out.println(gameCloned.board.boardView());
-			gameCloned.play(rd.play(gameCloned));
+		return playRandomlyToEnd(IndexedGame.of(game), null, null, null);
+	}
+
+	/**
+	 * Get the winner of a game state from the endgame tablebase
+	 * @param game The game state
+	 * @param tablebase The tablebase (may be <code>null</code>)
+	 * @return The winner with a perfect play, or <code>null</code> if the state is not in the tablebase
+	 */
+	static PlayerId probe(Game game, EndgameTablebase tablebase) {
+		return tablebase == null ? null : tablebase.probeWinner(game);
+	}
+
+	/**
+	 * Perform a single random playing rollout from the given game state, recording the played moves.
+	 * The moves are drawn and played by index, without building move objects.
+	 * @param game Initial game state (not modified by the function)
+	 * @param trace If not <code>null</code>, receives the moves played by each player and the winner
+	 * @param tablebase If not <code>null</code>, the rollout stops as soon as it reaches a position of the tablebase
+	 * @param results If not <code>null</code>, receives the number of played plies
+	 * @return The PlayerId of the winner (or NONE if equality or timeout).
+	 */
+	static PlayerId playRandomlyToEnd(IndexedGame game, AmafTrace trace, EndgameTablebase tablebase, RolloutResults results) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		IndexedGame gameCloned = game.clone();
+		PlayerId winner = gameCloned.winner();
+		while(winner == null) {
+			winner = probe(gameCloned, tablebase);
+			if (winner != null) {
+				break;
+			}
+			int nbMoves = gameCloned.moveCount();
+			if (nbMoves == 0) {
+				// A player who cannot play loses
+				winner = gameCloned.player().other();
+				break;
+			}
+			int index = random.nextInt(nbMoves);
+			if (trace != null) {
+				trace.add(gameCloned.player(), gameCloned.moveKey(index));
+			}
+			gameCloned.playIndex(index);
+			winner = gameCloned.winner();
+			if (results != null) {
+				results.plies++;
+			}
 		}
-		return gameCloned.winner();
+		if (trace != null) {
+			trace.winner = winner;
+		}
+		return winner;
 	}
 
 
@@ -240,17 +833,61 @@ public class MonteCarloTreeSearch {
 	 * @param nbRuns The number of playouts to perform
 	 * @return A RolloutResults object containing the number of wins for each player and the number of simulations
 	 */
-	static RolloutResults rollOut(final Game game, int nbRuns) {
+	static RolloutResults rollOut(final IndexedGame game, int nbRuns) {
+		return rollOut(game, nbRuns, null, null);
+	}
+
+	/**
+	 * Perform nbRuns rollouts from a game state, keeping a trace of each playout for the AMAF statistics.
+	 * @param game The initial game state to start with (not modified by the function)
+	 * @param nbRuns The number of playouts to perform
+	 * @param traces If not <code>null</code>, receives one {@link AmafTrace} per playout
+	 * @param tablebase If not <code>null</code>, the endgame tablebase probed by the playouts
+	 * @return A RolloutResults object containing the number of wins for each player and the number of simulations
+	 */
+	static RolloutResults rollOut(final IndexedGame game, int nbRuns, List<AmafTrace> traces, EndgameTablebase tablebase) {
 
 		RolloutResults r = new RolloutResults();
 		while(nbRuns>0){
-			r.update(playRandomlyToEnd(game));
+			AmafTrace trace = null;
+			if (traces != null) {
+				trace = new AmafTrace();
+				traces.add(trace);
+			}
+			r.update(playRandomlyToEnd(game, trace, tablebase, r));
 			r.n++;
 			nbRuns--;
 		}
 		return r;
 	}
 
+	/**
+	 * Update the AMAF statistics of the children of the visited nodes:
+	 * a child is credited with a playout if its move was played later in the simulation (in the tree or
+	 * during the rollout) by the player to move at its parent.
+	 * @param noeudVisite The visited nodes, from the root to the new leaf
+	 * @param traces The traces of the playouts run from the leaf
+	 */
+	static void updateAmaf(List<EvalNode> noeudVisite, List<AmafTrace> traces) {
+		for (AmafTrace trace : traces) {
+			for (int i = noeudVisite.size() - 1; i >= 0; --i) {
+				EvalNode node = noeudVisite.get(i);
+				PlayerId p = node.game.player();
+				double win = trace.winner == p ? 1.0 : (trace.winner == PlayerId.NONE ? 0.5 : 0.0);
+				for (EvalNode c : node.children) {
+					if (trace.played(p, c.moveKey)) {
+						c.nAmaf++;
+						c.wAmaf += win;
+					}
+				}
+				// The move leading to this node is played after its parent
+				if (i > 0) {
+					trace.add(noeudVisite.get(i - 1).game.player(), node.moveKey);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Apply the MCTS algorithm during at most <code>timeLimitMillis</code> milliseconds to compute
 	 * the MCTS tree statistics.
@@ -260,19 +897,42 @@ public class MonteCarloTreeSearch {
 		// Record function entry time
 		long startTime = System.nanoTime();
 		// Evaluate the tree until timeout
-		while(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < timeLimitMillis) {
+		while(!stopRequested && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < timeLimitMillis) {
 			// Perform one MCTS step
 			boolean canStop = evaluateTreeOnce();
+			nIterations++;
+			if (checkpoint != null) {
+				checkpoint.afterIteration(this);
+			}
 			// Stop evaluating the tree if there is nothing more to explore
 			if (canStop) {
 				break;
 			}
 
 		}
+		metrics.recordSearch(System.nanoTime() - startTime, treeSize);
+		publishStats();
 		// Print some statistics
-		System.out.println("Stopped search after " 
-				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms. "
-				+ "Root stats is " + root.w + "/" + root.n + String.format(" (%.2f%% win)", 100.0*root.w/root.n));
+		if (verbose)
+			System.out.println("Stopped search after " 
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms. "
+					+ "Root stats is " + root.w + "/" + root.n + String.format(" (%.2f%% win)", 100.0*root.w/root.n));
+	}
+
+	/**
+	 * Ask the current and next searches to stop as soon as possible (may be called from any thread).
+	 * The tree keeps the statistics computed so far.
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Check if {@link #stop()} was called
+	 * @return <code>true</code> if the search was asked to stop
+	 */
+	public boolean isStopped() {
+		return stopRequested;
 	}
 
 	/**
@@ -280,10 +940,12 @@ public class MonteCarloTreeSearch {
 	 * @return <code>true</code> if there is no need for further exploration (to speed up end of games).
 	 */
 	public boolean evaluateTreeOnce() {
+		long startTime = System.nanoTime();
 
 		EvalNode node = root;
-		// List of visited nodes
-		List<EvalNode> noeudVisite = new ArrayList<>();
+		// List of visited nodes, from the root to the new leaf
+		List<EvalNode> noeudVisite = path;
+		noeudVisite.clear();
 		// Start from the root
 
 		noeudVisite.add(node);
@@ -293,47 +955,154 @@ public class MonteCarloTreeSearch {
 
 		while(!node.children.isEmpty()) {
 			temp = node.uctChild();
-			noeudVisite.add(node);
 			if(temp == null) {
 				// il reste des fils a parcourir
 				break;
-			}else if(!temp.game.possibleMoves().isEmpty()) {
-				// tout les fils ont au moins 1 score et le meilleur n'est pas bloquer
-				node = temp;
-			}else {
+			}else if(temp.ended() != null || temp.solved != null) {
+				// partie finie ou etat resolu par la tablebase : pas besoin de l'etendre
+				noeudVisite.add(temp);
+				long selectionTime = System.nanoTime();
+				RolloutResults r = exactResults(temp.ended() != null ? temp.ended() : temp.solved);
+				backPropagate(noeudVisite, r);
+				nTotal += r.n;
+				metrics.recordIteration(noeudVisite.size() - 1, selectionTime - startTime, 0, 0,
+						System.nanoTime() - selectionTime);
 				return false;
+			}else {
+				// tout les fils ont au moins 1 score et le meilleur n'est pas fini
+				node = temp;
+				noeudVisite.add(node);
 			}
 		}
+		long selectionTime = System.nanoTime();
 
-		List<Move> Poss = node.game.possibleMoves();
-		//System.out.println("id" + node.game.player());
-		for(EvalNode e : node.children){
-			Poss.remove(e.m);
+		int nbUntried = node.untriedCount();
+		if (nbUntried == 0) {
+			// Nothing to expand: the game is over in the root state
+			metrics.recordIteration(noeudVisite.size() - 1, selectionTime - startTime, 0, 0, 0);
+			return true;
+		}
+		if (node.children.isEmpty()) {
+			metrics.expandedNodes.increment();
+			metrics.expandedMoves.add(nbUntried);
 		}
-		for(Move p : Poss) {
-			p.toString();
+		//System.out.println("id" + node.game.player());
+		int index;
+		if (progressiveWidening) {
+			// Most promising move (the last one)
+			index = node.takeUntried(nbUntried - 1);
+		} else {
+			index = node.takeUntried(ThreadLocalRandom.current().nextInt(nbUntried));
+			metrics.randomDraws.increment();
 		}
-		Random rd = new Random();
-		Move m = Poss.get(rd.nextInt(Poss.size()));			
-		Game g = node.game.clone();
+		Move m = node.game.moveAt(index);
+		IndexedGame g = node.game.clone();
+		metrics.gameClones.increment();
 		g.play(m);
-		temp = new EvalNode(g,m);	
+		temp = new EvalNode(g,m,index,node.game.moveKey(index));	
+		temp.solved = probe(g, tablebase);
+		if (statsCache != null) {
+			warmStart(temp);
+		}
 
 		// Simulate from new node(s)
 		node.children.add(temp);
+		treeSize++;
 		noeudVisite.add(temp);
-		RolloutResults r = rollOut(temp.game,5);
+		long expansionTime = System.nanoTime();
+		List<AmafTrace> traces = rave ? new ArrayList<>() : null;
+		RolloutResults r;
+		if (temp.ended() != null) {
+			// The game is over in the new node (the rollouts could play on after a draw by a rule)
+			r = exactResults(temp.ended());
+		} else if (evaluator != null && evaluator.supports(temp.game)) {
+			r = evaluate(temp);
+		} else if (batchRollouts != null && !rave && tablebase == null && BatchRollouts.supports(temp.game)) {
+			r = batchRollouts.rollOut(temp.game, batchPlayouts);
+		} else {
+			r = rollOut(temp.game,PLAYOUTS_PER_LEAF,traces,tablebase);
+			// Each playout clones the state
+			metrics.gameClones.add(r.n);
+		}
+		long rolloutTime = System.nanoTime();
+		// Each playout draws one random move per ply
+		metrics.playouts.add(r.n);
+		metrics.playoutPlies.add(r.plies);
+		metrics.randomDraws.add(r.plies);
 		// Backpropagate results
-		for(EvalNode n : noeudVisite) {
-			n.updateStats(r,node.game.player());
+		backPropagate(noeudVisite, r);
+		if (rave) {
+			updateAmaf(noeudVisite, traces);
 		}
+		nTotal += r.n;
+		metrics.recordIteration(noeudVisite.size() - 1, selectionTime - startTime, expansionTime - selectionTime,
+				rolloutTime - expansionTime, System.nanoTime() - rolloutTime);
 		// Return false if tree evaluation should continue
 		return false;
 	}
 
+	/**
+	 * Results of a node whose result is known, weighted as the playouts of a new node
+	 * @param winner The winner ({@link PlayerId#NONE} for a draw)
+	 * @return {@link #PLAYOUTS_PER_LEAF} simulations with this result
+	 */
+	static RolloutResults exactResults(PlayerId winner) {
+		RolloutResults r = new RolloutResults();
+		for (int i = 0; i < PLAYOUTS_PER_LEAF; i++) {
+			r.update(winner);
+			r.n++;
+		}
+		return r;
+	}
+
+	/**
+	 * Evaluate a new node with the static evaluator (the results of the ended or solved states are exact)
+	 * @param node The new node, whose state is supported by {@link #evaluator}
+	 * @return The results of one simulation
+	 */
+	RolloutResults evaluate(EvalNode node) {
+		RolloutResults r = new RolloutResults();
+		r.n = 1;
+		PlayerId winner = node.game.winner();
+		if (winner == null && node.game.moveCount() == 0) {
+			// A player who cannot play loses
+			winner = node.game.player().other();
+		}
+		if (winner == null) {
+			winner = node.solved;
+		}
+		if (winner != null) {
+			r.update(winner);
+			return r;
+		}
+		double value = evaluator.evaluate((EnglishDraughts) node.game);
+		if (node.game.player() == PlayerId.ONE) {
+			r.win1 = value;
+			r.win2 = 1.0 - value;
+		} else {
+			r.win1 = 1.0 - value;
+			r.win2 = value;
+		}
+		return r;
+	}
+
+	/**
+	 * Update the stats of the visited nodes: each node is scored for the player who played its move
+	 * @param noeudVisite The visited nodes, from the root to the leaf
+	 * @param r The results of the simulations
+	 */
+	static void backPropagate(List<EvalNode> noeudVisite, RolloutResults r) {
+		for(int i = 0; i < noeudVisite.size(); i++) {
+			EvalNode n = noeudVisite.get(i);
+			PlayerId p = (i == 0) ? n.game.player() : noeudVisite.get(i-1).game.player();
+			n.updateStats(r,p);
+		}
+	}
+
 	/**
 	 * Select the best move to play, given the current MCTS tree playout statistics
-	 * @return The best move to play from the current MCTS tree state.
+	 * @return The best move to play from the current MCTS tree state,
+	 *         or <code>null</code> if the player to move cannot play.
 	 */
 	public Move getBestMove() {
 		double max = -1.0;
@@ -348,9 +1117,22 @@ public class MonteCarloTreeSearch {
 				res = n;
 			}
 		}
-		return res.m;
+		return res == null ? null : res.m;
 	
 	}
+
+	/**
+	 * Get the visit distribution of the root: the number of simulations of each move of the root state
+	 * @return The number of simulations of each move, indexed as in {@link Game#possibleMoves()}
+	 */
+	public int[] rootVisits() {
+		int[] visits = new int[root.game.moveCount()];
+		for (EvalNode child : root.children) {
+			visits[child.moveIndex] = child.n;
+		}
+		return visits;
+	}
+
 	/**
 	 * Get a few stats about the MTS tree and the possible moves scores
 	 * @return A string containing MCTS stats
@@ -0,0 +1,221 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static evaluator of English draughts positions with N-tuple patterns, as trained by {@link NTupleTrainer}.
+ *
+ * An N-tuple is a fixed list of squares. Each square is in one of 5 states (empty, white checker, white king,
+ * black checker, black king), so the contents of the tuple is a number in base 5, which indexes a weight
+ * table of the tuple. The value of a position is the sigmoid of the sum of the weights of all the tuples: the
+ * estimated probability that the player to move wins (a draw counts as half a win).
+ *
+ * The tuples are the diamonds of 4 squares (a square, its two upper neighbors and the square between them two
+ * rows up) and the rows of the board. The positions are evaluated in their canonical form, with the whites to
+ * move (see {@link EnglishDraughts#canonical()}): with the blacks to move, the tuples read the mirrored squares
+ * with the colours swapped, so that both players share the weights.
+ *
+ * The weights are stored in a binary file: magic, version, board size, number of weights, then the weights
+ * (floats). An evaluation costs one weight lookup per tuple.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class NTupleEvaluator {
+	/** Magic number at the beginning of a weights file ("EDNT") */
+	static final int MAGIC = 0x45444E54;
+
+	/** Version of the file format */
+	static final int VERSION = 1;
+
+	/** Size of the header: magic, version, board size, number of weights */
+	static final int HEADER_SIZE = 16;
+
+	/** Number of states of a square */
+	static final int STATES = 5;
+
+	/** State of each pawn ID, for the whites to move */
+	private static final int[] STATE = new int[8];
+
+	/** State of each pawn ID, for the blacks to move (colours swapped) */
+	private static final int[] MIRROR_STATE = new int[8];
+	static {
+		STATE[CheckerBoard.WHITE_CHECKER] = 1;
+		STATE[CheckerBoard.WHITE_KING] = 2;
+		STATE[CheckerBoard.BLACK_CHECKER] = 3;
+		STATE[CheckerBoard.BLACK_KING] = 4;
+		for (byte piece = 0; piece < 8; ++piece) {
+			MIRROR_STATE[piece] = STATE[CheckerBoard.mirrorPiece(piece)];
+		}
+	}
+
+	/** Size of the evaluated boards */
+	final int boardSize;
+
+	/** The squares of each tuple */
+	final int[][] tuples;
+
+	/** The squares of each tuple on the mirrored board */
+	private final int[][] mirrorTuples;
+
+	/** Index of the first weight of each tuple */
+	private final int[] offsets;
+
+	/** The weights of all the tuples */
+	final float[] weights;
+
+	/**
+	 * Create an evaluator with null weights (every position is evaluated to 0.5)
+	 * @param boardSize Size of the evaluated boards
+	 */
+	public NTupleEvaluator(int boardSize) {
+		this.boardSize = boardSize;
+		CheckerBoard board = new CheckerBoard(boardSize);
+		tuples = tuples(board);
+		mirrorTuples = new int[tuples.length][];
+		offsets = new int[tuples.length + 1];
+		for (int t = 0; t < tuples.length; ++t) {
+			mirrorTuples[t] = new int[tuples[t].length];
+			for (int k = 0; k < tuples[t].length; ++k) {
+				mirrorTuples[t][k] = board.mirrorSquare(tuples[t][k]);
+			}
+			offsets[t + 1] = offsets[t] + (int) Math.pow(STATES, tuples[t].length);
+		}
+		weights = new float[offsets[tuples.length]];
+	}
+
+	/**
+	 * The tuples of a board: the diamonds of 4 squares, then the rows
+	 * @param board
+	 * @return The squares of each tuple
+	 */
+	static int[][] tuples(CheckerBoard board) {
+		List<int[]> tuples = new ArrayList<>();
+		for (int square = 1; square <= board.nbPlayableTiles(); ++square) {
+			int left = board.neighborUpLeft(square);
+			int right = board.neighborUpRight(square);
+			int top = left > 0 ? board.neighborUpRight(left) : 0;
+			if (left > 0 && right > 0 && top > 0) {
+				tuples.add(new int[] { square, left, right, top });
+			}
+		}
+		int perRow = board.size / 2;
+		for (int first = 1; first <= board.nbPlayableTiles(); first += perRow) {
+			int[] row = new int[perRow];
+			for (int k = 0; k < perRow; ++k) {
+				row[k] = first + k;
+			}
+			tuples.add(row);
+		}
+		return tuples.toArray(new int[0][]);
+	}
+
+	/**
+	 * Load an evaluator from a weights file
+	 * @param file
+	 * @return The evaluator
+	 * @throws IOException if the file cannot be read or is not a weights file
+	 */
+	public static NTupleEvaluator load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("Not an N-tuple weights file: " + file);
+			NTupleEvaluator evaluator = new NTupleEvaluator(buffer.getInt());
+			if (buffer.getInt() != evaluator.weights.length || buffer.remaining() != 4 * evaluator.weights.length)
+				throw new IOException("Wrong number of weights: " + file);
+			buffer.asFloatBuffer().get(evaluator.weights);
+			return evaluator;
+		}
+	}
+
+	/**
+	 * Save the weights to a file
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * weights.length);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(boardSize).putInt(weights.length);
+		buffer.asFloatBuffer().put(weights);
+		buffer.position(buffer.limit()).flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Check if a game state can be evaluated
+	 * @param game Any game state
+	 * @return <code>true</code> if the state is an {@link EnglishDraughts} state on a board of {@link #boardSize}
+	 */
+	public boolean supports(Game game) {
+		return game instanceof EnglishDraughts && ((EnglishDraughts) game).board.size == boardSize;
+	}
+
+	/**
+	 * Index of the weight of a tuple in a position
+	 * @param board The board
+	 * @param t The tuple
+	 * @param mirrored <code>true</code> to read the mirrored board (blacks to move)
+	 * @return The index in {@link #weights}
+	 */
+	private int weightIndex(CheckerBoard board, int t, boolean mirrored) {
+		int[] squares = mirrored ? mirrorTuples[t] : tuples[t];
+		int[] state = mirrored ? MIRROR_STATE : STATE;
+		int index = 0;
+		for (int square : squares) {
+			index = index * STATES + state[board.get(square)];
+		}
+		return offsets[t] + index;
+	}
+
+	/**
+	 * Sum of the weights of a position
+	 * @param game
+	 * @return The score of the position for the player to move, before the sigmoid
+	 */
+	double score(EnglishDraughts game) {
+		boolean mirrored = !game.isCanonical();
+		double sum = 0.0;
+		for (int t = 0; t < tuples.length; ++t) {
+			sum += weights[weightIndex(game.board, t, mirrored)];
+		}
+		return sum;
+	}
+
+	/**
+	 * Evaluate a position
+	 * @param game A game on a board of {@link #boardSize}
+	 * @return The estimated probability that the player to move wins
+	 */
+	public double evaluate(EnglishDraughts game) {
+		return 1.0 / (1.0 + Math.exp(-score(game)));
+	}
+
+	/**
+	 * Move the value of a position towards a target (gradient step of the cross-entropy)
+	 * @param game The position
+	 * @param target The target probability that the player to move wins
+	 * @param alpha The learning rate
+	 * @return The error before the update
+	 */
+	double update(EnglishDraughts game, double target, double alpha) {
+		double error = target - evaluate(game);
+		boolean mirrored = !game.isCanonical();
+		float step = (float) (alpha * error);
+		for (int t = 0; t < tuples.length; ++t) {
+			weights[weightIndex(game.board, t, mirrored)] += step;
+		}
+		return error;
+	}
+}
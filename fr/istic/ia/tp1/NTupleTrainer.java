@@ -0,0 +1,150 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * Offline trainer of an {@link NTupleEvaluator} by temporal-difference learning from self-play.
+ *
+ * The evaluator plays against itself: each player chooses the move leading to the position with the lowest
+ * value for the opponent, or a random move with a small probability (exploration). After each move, the value
+ * of the previous position is moved towards the value of the new position for the same player (TD(0)),
+ * or towards the result when the game is over. The weights are saved at the end, and every 1000 games.
+ *
+ * Usage: <code>NTupleTrainer file games [boardSize] [alpha] [epsilon]</code>
+ * (the training continues from the weights of <code>file</code> if it exists)
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class NTupleTrainer {
+	/** Plies limit of a game, after which it is dropped without a final update */
+	static final int MAX_PLIES = 300;
+
+	/** Number of games between two saves and progress reports */
+	static final int REPORT_GAMES = 1000;
+
+	/** Repetition rule of the self-play games: the greedy kings loop, so a position repeated once ends the game as a draw */
+	static final int REPETITION_LIMIT = 1;
+
+	/** The trained evaluator */
+	final NTupleEvaluator evaluator;
+
+	/** Learning rate */
+	final double alpha;
+
+	/** Probability of playing a random move */
+	final double epsilon;
+
+	/** Sum of the squared errors since the last report */
+	double squaredErrors;
+
+	/** Number of updates since the last report */
+	long updates;
+
+	/**
+	 * Constructor
+	 * @param evaluator The evaluator to train
+	 * @param alpha Learning rate
+	 * @param epsilon Probability of playing a random move
+	 */
+	public NTupleTrainer(NTupleEvaluator evaluator, double alpha, double epsilon) {
+		this.evaluator = evaluator;
+		this.alpha = alpha;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Value of the position reached by a move, for the player who moved
+	 * @param next The position after the move
+	 * @param player The player who moved
+	 * @return The result if the game is over, the estimated probability of winning otherwise
+	 */
+	double valueAfter(EnglishDraughts next, PlayerId player) {
+		PlayerId winner = next.winner();
+		if (winner == null && next.moveCount() == 0) {
+			// A player who cannot play loses
+			winner = player;
+		}
+		if (winner != null)
+			return winner == player ? 1.0 : winner == PlayerId.NONE ? 0.5 : 0.0;
+		return 1.0 - evaluator.evaluate(next);
+	}
+
+	/**
+	 * Play one self-play game and update the weights after each move
+	 */
+	void playGame() {
+		EnglishDraughts game = new EnglishDraughts(evaluator.boardSize);
+		game.setRepetitionLimit(REPETITION_LIMIT);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int ply = 0; ply < MAX_PLIES && game.winner() == null && game.moveCount() > 0; ++ply) {
+			PlayerId player = game.player();
+			EnglishDraughts best = null;
+			double bestValue = -1.0;
+			if (random.nextDouble() < epsilon) {
+				best = game.clone();
+				best.playIndex(random.nextInt(game.moveCount()));
+				bestValue = valueAfter(best, player);
+			} else {
+				for (int i = 0; i < game.moveCount(); ++i) {
+					EnglishDraughts next = game.clone();
+					next.playIndex(i);
+					double value = valueAfter(next, player);
+					if (value > bestValue) {
+						bestValue = value;
+						best = next;
+					}
+				}
+			}
+			double error = evaluator.update(game, bestValue, alpha);
+			squaredErrors += error * error;
+			updates++;
+			game = best;
+		}
+	}
+
+	/**
+	 * Run the self-play games, saving the weights regularly
+	 * @param games The number of games
+	 * @param file The weights file
+	 * @throws IOException
+	 */
+	public void run(int games, Path file) throws IOException {
+		for (int i = 1; i <= games; ++i) {
+			playGame();
+			if (i % REPORT_GAMES == 0 || i == games) {
+				evaluator.save(file);
+				System.out.printf("%d/%d games, mean squared TD error %.4f%n", i, games, squaredErrors / Math.max(updates, 1));
+				squaredErrors = 0.0;
+				updates = 0;
+			}
+		}
+	}
+
+	/**
+	 * Trainer entry point
+	 * @param args file, games, and optionally board size, learning rate and exploration probability
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: NTupleTrainer file games [boardSize] [alpha] [epsilon]");
+			return;
+		}
+		Path file = Paths.get(args[0]);
+		int games = Integer.parseInt(args[1]);
+		int boardSize = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		double alpha = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+		double epsilon = args.length > 4 ? Double.parseDouble(args[4]) : 0.1;
+
+		NTupleEvaluator evaluator = Files.exists(file) ? NTupleEvaluator.load(file) : new NTupleEvaluator(boardSize);
+		new NTupleTrainer(evaluator, alpha, epsilon).run(games, file);
+		System.out.println(evaluator.weights.length + " weights saved to " + file);
+	}
+}
@@ -0,0 +1,119 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import fr.istic.ia.tp1.Game.Move;
+
+/**
+ * A memory-mapped opening book, as written by {@link OpeningBookBuilder}.
+ *
+ * The book is a header followed by fixed-size entries sorted by position hash:
+ * <ul>
+ * <li>the hash of the canonical form of the position (8 bytes, see {@link Game#canonicalHash()})</li>
+ * <li>the index of the book move in the {@link Game#possibleMoves()} of the canonical form (2 bytes)</li>
+ * <li>the score of the book move, in 1/10000 of win (2 bytes)</li>
+ * <li>the number of simulations of the book move (4 bytes)</li>
+ * </ul>
+ * Probing is a binary search in the mapped file. A position and its colour-flipped twin share their entry,
+ * and the book move is translated back to the probed position.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class OpeningBook {
+	/** Magic number at the beginning of a book file ("EDOB") */
+	static final int MAGIC = 0x45444F42;
+
+	/** Version of the file format */
+	static final int VERSION = 2;
+
+	/** Size of the header: magic, version, number of entries */
+	static final int HEADER_SIZE = 16;
+
+	/** Size of an entry */
+	static final int ENTRY_SIZE = 16;
+
+	/** The mapped book file */
+	private final MappedByteBuffer buffer;
+
+	/** The number of entries */
+	private final int size;
+
+	/**
+	 * Open a book file
+	 * @param file
+	 * @throws IOException if the file cannot be read or is not a book
+	 */
+	public OpeningBook(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException("Not an opening book: " + file);
+		size = (int) buffer.getLong(8);
+	}
+
+	/**
+	 * Get the number of positions in the book
+	 * @return The number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the entry of a position
+	 * @param hash The hash of the position
+	 * @return The offset of the entry in the file, or -1 if the position is not in the book
+	 */
+	int find(long hash) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long key = buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+			if (key < hash) {
+				low = middle + 1;
+			} else if (key > hash) {
+				high = middle - 1;
+			} else {
+				return HEADER_SIZE + middle * ENTRY_SIZE;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the book move of a game state
+	 * @param game The game state
+	 * @return The move to play, or <code>null</code> if the position is not in the book
+	 */
+	public Move probe(Game game) {
+		int offset = find(game.canonicalHash());
+		if (offset < 0)
+			return null;
+		int moveIndex = buffer.getShort(offset + 8);
+		List<Move> moves = game.canonical().possibleMoves();
+		// A hash collision could point to an invalid index
+		if (moveIndex < 0 || moveIndex >= moves.size())
+			return null;
+		return game.canonicalMove(moves.get(moveIndex));
+	}
+
+	/**
+	 * Get the score of the book move of a game state
+	 * @param game The game state
+	 * @return The estimated probability of winning with the book move, or -1 if the position is not in the book
+	 */
+	public double score(Game game) {
+		int offset = find(game.canonicalHash());
+		if (offset < 0)
+			return -1.0;
+		return (buffer.getShort(offset + 10) & 0xFFFF) / 10000.0;
+	}
+}
@@ -0,0 +1,219 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.istic.ia.tp1.Game.Move;
+import fr.istic.ia.tp1.MonteCarloTreeSearch.EvalNode;
+
+/**
+ * Offline builder of an {@link OpeningBook} from MCTS self-play.
+ *
+ * Self-play games are run in parallel. At each of the first plies of a game, the statistics of the
+ * root children of the search are added to the statistics of the position, and the next move is drawn
+ * with a probability proportional to its number of simulations (so that the games explore several lines).
+ * The book keeps, for each position seen often enough, the move with the most simulations.
+ * The statistics are gathered on the canonical forms of the positions (see {@link Game#canonical()}), so that
+ * the games reaching the colour-flipped twin of a position add to the same statistics.
+ *
+ * Usage: <code>OpeningBookBuilder file games plies timeMillis [boardSize] [threads] [minSearches]</code>
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class OpeningBookBuilder {
+	/**
+	 * Aggregated statistics of the moves of a position
+	 */
+	static class PositionStats {
+		/** Number of simulations of each move, indexed as in the {@link Game#possibleMoves()} of the canonical form */
+		final long[] n;
+
+		/** Number of winning simulations of each move, for the player to move */
+		final double[] w;
+
+		/** Number of searches run from the position */
+		int searches;
+
+		PositionStats(int nbMoves) {
+			n = new long[nbMoves];
+			w = new double[nbMoves];
+		}
+
+		/**
+		 * Index of the move with the most simulations
+		 * @return The index of the best move
+		 */
+		int best() {
+			int best = 0;
+			for (int i = 1; i < n.length; ++i) {
+				if (n[i] > n[best]) {
+					best = i;
+				}
+			}
+			return best;
+		}
+	}
+
+	/** Size of the board of the self-play games */
+	final int boardSize;
+
+	/** Number of plies of each self-play game added to the book */
+	final int plies;
+
+	/** Search time for each move, in milliseconds */
+	final int timeMillis;
+
+	/** Statistics of the positions, by hash */
+	final Map<Long, PositionStats> positions = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor
+	 * @param boardSize Size of the board of the self-play games
+	 * @param plies Number of plies of each self-play game added to the book
+	 * @param timeMillis Search time for each move, in milliseconds
+	 */
+	public OpeningBookBuilder(int boardSize, int plies, int timeMillis) {
+		this.boardSize = boardSize;
+		this.plies = plies;
+		this.timeMillis = timeMillis;
+	}
+
+	/**
+	 * Play the first plies of one self-play game and collect the root statistics
+	 */
+	void playGame() {
+		Game game = new EnglishDraughts(boardSize);
+		for (int ply = 0; ply < plies && game.winner() == null; ++ply) {
+			List<Move> moves = game.possibleMoves();
+			if (moves.isEmpty())
+				break;
+			MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game);
+			mcts.setVerbose(false);
+			mcts.evaluateTreeWithTimeLimit(timeMillis);
+
+			List<Move> canonicalMoves = game.canonical().possibleMoves();
+			PositionStats stats = positions.computeIfAbsent(game.canonicalHash(), hash -> new PositionStats(moves.size()));
+			long total = 0;
+			synchronized (stats) {
+				stats.searches++;
+				for (EvalNode child : mcts.root.children) {
+					int index = canonicalMoves.indexOf(game.canonicalMove(child.m));
+					if (index >= 0 && index < stats.n.length) {
+						stats.n[index] += child.n;
+						stats.w[index] += child.w;
+						total += child.n;
+					}
+				}
+			}
+
+			// Draw the next move proportionally to the number of simulations
+			long draw = ThreadLocalRandom.current().nextLong(Math.max(total, 1));
+			Move next = mcts.getBestMove();
+			for (EvalNode child : mcts.root.children) {
+				draw -= child.n;
+				if (draw < 0) {
+					next = child.m;
+					break;
+				}
+			}
+			game.play(next);
+		}
+	}
+
+	/**
+	 * Run the self-play games in parallel
+	 * @param games The number of games
+	 * @param threads The number of threads
+	 * @throws InterruptedException
+	 */
+	public void run(int games, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < games; ++i) {
+			executor.execute(() -> {
+				playGame();
+				int count = done.incrementAndGet();
+				if (count % 10 == 0) {
+					System.out.println(count + "/" + games + " games, " + positions.size() + " positions");
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Write the book file
+	 * @param file
+	 * @param minSearches Minimal number of searches of a position to be in the book
+	 * @return The number of positions written
+	 * @throws IOException
+	 */
+	public int write(Path file, int minSearches) throws IOException {
+		List<Long> hashes = new ArrayList<>();
+		for (Map.Entry<Long, PositionStats> entry : positions.entrySet()) {
+			if (entry.getValue().searches >= minSearches) {
+				hashes.add(entry.getKey());
+			}
+		}
+		hashes.sort(null);
+
+		ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_SIZE + hashes.size() * OpeningBook.ENTRY_SIZE);
+		buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putLong(hashes.size());
+		for (long hash : hashes) {
+			PositionStats stats = positions.get(hash);
+			int best = stats.best();
+			double score = stats.n[best] > 0 ? stats.w[best] / stats.n[best] : 0.0;
+			buffer.putLong(hash);
+			buffer.putShort((short) best);
+			buffer.putShort((short) Math.round(score * 10000));
+			buffer.putInt((int) Math.min(stats.n[best], Integer.MAX_VALUE));
+		}
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		return hashes.size();
+	}
+
+	/**
+	 * Builder entry point
+	 * @param args file, games, plies, time per move (ms), and optionally board size, number of threads
+	 *             and minimal number of searches of a book position (2 by default)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("Usage: OpeningBookBuilder file games plies timeMillis [boardSize] [threads] [minSearches]");
+			return;
+		}
+		int games = Integer.parseInt(args[1]);
+		int plies = Integer.parseInt(args[2]);
+		int timeMillis = Integer.parseInt(args[3]);
+		int boardSize = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		int minSearches = args.length > 6 ? Integer.parseInt(args[6]) : 2;
+
+		OpeningBookBuilder builder = new OpeningBookBuilder(boardSize, plies, timeMillis);
+		builder.run(games, threads);
+		int written = builder.write(Paths.get(args[0]), minSearches);
+		System.out.println(written + " positions written to " + args[0]);
+	}
+}
@@ -0,0 +1,292 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MatchRunner.GameRecord;
+
+/**
+ * Append-only writer of game records in PDN (Portable Draughts Notation), shared by concurrent games.
+ *
+ * Each game is written as its headers (event, date, round, players, result, game type, and the initial
+ * position if it is not the standard one), then its moves in the notation of {@link EnglishDraughts.DraughtsMove}
+ * and its result. The games are formatted by the submitting threads and queued; a single writer thread copies
+ * them in a large direct buffer and appends it to the file when it is full, when no game has been submitted
+ * for a while, and at least every {@link #FLUSH_INTERVAL_MILLIS} under a continuous load (as
+ * {@link TrainingDataWriter}).
+ *
+ * When a file would exceed the size limit, the writer rotates to the next file: <code>games.pdn</code>,
+ * then <code>games-1.pdn</code>, <code>games-2.pdn</code>... (a game is never split between two files).
+ * The files which are already full are skipped when the writer is opened.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class PdnWriter implements AutoCloseable {
+	/** Size of the write buffer */
+	static final int BUFFER_SIZE = 1 << 20;
+
+	/** Time without submission after which the pending games are written, in milliseconds */
+	static final long IDLE_FLUSH_MILLIS = 200;
+
+	/** Maximal time between two writes of the pending games, in milliseconds */
+	static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	/** Default size limit of an output file, in bytes */
+	static final long DEFAULT_MAX_FILE_BYTES = 64L << 20;
+
+	/** Number of moves per line of the move text */
+	static final int MOVES_PER_LINE = 12;
+
+	/** Marker of the end of the submissions */
+	private static final String END = new String();
+
+	/** The first output file */
+	private final Path file;
+
+	/** The size limit of an output file, in bytes (0 for no limit) */
+	private final long maxFileBytes;
+
+	/** Event header of the games */
+	private final String event;
+
+	/** Date header of the games */
+	private final String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd"));
+
+	/** Number of the current output file (0 for {@link #file}) */
+	private int fileIndex;
+
+	/** The current output file */
+	private FileChannel channel;
+
+	/** Size of the current output file, including the buffered games */
+	private long fileBytes;
+
+	/** Number of the last submitted game */
+	private int round;
+
+	/** The formatted games waiting to be written */
+	private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(4096);
+
+	/** The writer thread */
+	private final Thread writer;
+
+	/** The error of the writer thread, if any */
+	private volatile IOException failure;
+
+	/**
+	 * Open a file for appending games, and start the writer thread
+	 * @param file The first output file
+	 * @param maxFileBytes The size limit of an output file, in bytes, or 0 not to rotate the files
+	 * @param event The event header of the games
+	 * @throws IOException
+	 */
+	public PdnWriter(Path file, long maxFileBytes, String event) throws IOException {
+		this.file = file;
+		this.maxFileBytes = maxFileBytes;
+		this.event = event;
+		openFile();
+		while (maxFileBytes > 0 && fileBytes >= maxFileBytes) {
+			rotate();
+		}
+		writer = new Thread(this::writeLoop, "pdn-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Path of an output file
+	 * @param index The number of the file
+	 * @return The first file for index 0, the file with the index before the extension otherwise
+	 */
+	Path filePath(int index) {
+		if (index == 0)
+			return file;
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return file.resolveSibling(dot > 0 ? name.substring(0, dot) + "-" + index + name.substring(dot)
+				: name + "-" + index);
+	}
+
+	private void openFile() throws IOException {
+		channel = FileChannel.open(filePath(fileIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		fileBytes = channel.size();
+	}
+
+	private void rotate() throws IOException {
+		channel.close();
+		fileIndex++;
+		openFile();
+	}
+
+	/**
+	 * PDN result of a game
+	 * @param winner The winner ({@link PlayerId#NONE} for a draw)
+	 * @return The result, for the whites first
+	 */
+	static String result(PlayerId winner) {
+		return winner == PlayerId.ONE ? "1-0" : winner == PlayerId.TWO ? "0-1" : "1/2-1/2";
+	}
+
+	/**
+	 * Format a game in PDN
+	 * @param record The record of the game
+	 * @param round The number of the game
+	 * @return The headers and the moves of the game, followed by an empty line
+	 */
+	String format(GameRecord record, int round) {
+		String result = result(record.winner);
+		StringBuilder sb = new StringBuilder(256 + 8 * record.moves.size());
+		sb.append("[Event \"").append(event).append("\"]\n");
+		sb.append("[Date \"").append(date).append("\"]\n");
+		sb.append("[Round \"").append(round).append("\"]\n");
+		sb.append("[White \"").append(record.white).append("\"]\n");
+		sb.append("[Black \"").append(record.black).append("\"]\n");
+		sb.append("[Result \"").append(result).append("\"]\n");
+		sb.append("[GameType \"21,W,").append(record.boardSize).append(',').append(record.boardSize)
+				.append(",N1,0\"]\n");
+		if (record.fen != null) {
+			sb.append("[SetUp \"1\"]\n");
+			sb.append("[FEN \"").append(record.fen).append("\"]\n");
+		}
+		if (record.adjudicated) {
+			sb.append("[Termination \"plies limit\"]\n");
+		}
+		// Half-move offset of the blacks starting from a set-up position
+		int offset = record.fen != null && record.fen.startsWith("B") ? 1 : 0;
+		for (int i = 0; i < record.moves.size(); ++i) {
+			int ply = i + offset;
+			if (i > 0) {
+				sb.append(i % MOVES_PER_LINE == 0 ? '\n' : ' ');
+			}
+			if (ply % 2 == 0) {
+				sb.append(ply / 2 + 1).append(". ");
+			} else if (i == 0) {
+				sb.append("1... ");
+			}
+			sb.append(record.moves.get(i));
+		}
+		sb.append(record.moves.isEmpty() ? "" : " ").append(result).append("\n\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Submit a finished game
+	 * @param record The record of the game
+	 * @throws InterruptedException if interrupted while the queue is full
+	 * @throws IOException if the writer thread failed
+	 */
+	public void submit(GameRecord record) throws InterruptedException, IOException {
+		checkWriter();
+		int number;
+		synchronized (this) {
+			number = ++round;
+		}
+		String game = format(record, number);
+		// The writer thread may stop while the queue is full: nobody would take the game
+		while (!queue.offer(game, IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkWriter();
+		}
+	}
+
+	/**
+	 * Check that the writer thread still takes the submissions
+	 * @throws IOException if the writer thread failed or stopped
+	 */
+	private void checkWriter() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (!writer.isAlive())
+			throw new IOException("The PDN writer thread has stopped");
+	}
+
+	/**
+	 * Main loop of the writer thread
+	 */
+	private void writeLoop() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		long lastFlush = System.nanoTime();
+		try {
+			while (true) {
+				String game = queue.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+				if (game == END)
+					break;
+				if (game != null) {
+					if (maxFileBytes > 0 && fileBytes > 0 && fileBytes + game.length() > maxFileBytes) {
+						flush(buffer);
+						rotate();
+					}
+					if (buffer.remaining() < game.length()) {
+						flush(buffer);
+					}
+					if (game.length() > buffer.capacity()) {
+						write(ByteBuffer.wrap(game.getBytes(StandardCharsets.US_ASCII)));
+					} else {
+						// The PDN games are in ASCII
+						for (int i = 0; i < game.length(); ++i) {
+							buffer.put((byte) game.charAt(i));
+						}
+					}
+					fileBytes += game.length();
+				}
+				if (game == null || System.nanoTime() - lastFlush > FLUSH_INTERVAL_MILLIS * 1_000_000) {
+					flush(buffer);
+					lastFlush = System.nanoTime();
+				}
+			}
+			flush(buffer);
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Append the buffered games to the current file, and reset the buffer
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private void flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		write(buffer);
+		buffer.clear();
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Write the pending games and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			// A writer thread stopped on an error does not take the end marker
+			while (writer.isAlive() && !queue.offer(END, IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+			}
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,210 @@
+package fr.istic.ia.tp1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel perft of English draughts: the number of move sequences of a given length from a position,
+ * used to validate the move generator against known counts.
+ *
+ * The first plies are split in tasks of a fork-join pool, the deeper plies are counted sequentially by each
+ * task. The counts of the subtrees are stored in a shared table keyed by (position hash, depth), so that the
+ * transposed subtrees are counted only once. The table is lock-free: each slot holds the key xor the count and
+ * the count, and a read only accepts a slot whose two words match (a slot torn by concurrent writes is a miss).
+ * The draw rules are ignored: a position is a leaf only when its player cannot move.
+ *
+ * Usage: <code>Perft [--size 8] [--depth 8] [--threads n] [--table 22] [--fen position]</code>
+ * (<code>--table</code> is the base-2 logarithm of the number of slots of the table, 0 to disable it)
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class Perft {
+	/** Number of plies split in parallel tasks */
+	static final int SPLIT_PLIES = 2;
+
+	/** Minimal depth of a subtree stored in the table (the counts at depth 1 are cheap) */
+	static final int MIN_STORED_DEPTH = 2;
+
+	/** The slots of the table: key xor count at 2 * slot, count at 2 * slot + 1 (may be <code>null</code>) */
+	private final AtomicLongArray table;
+
+	/** Mask of the slot numbers */
+	private final int slotMask;
+
+	/** Counters of the table */
+	final LongAdder probes = new LongAdder();
+	final LongAdder hits = new LongAdder();
+
+	/**
+	 * Constructor
+	 * @param log2Capacity Base-2 logarithm of the number of slots of the table, or 0 not to use a table
+	 */
+	public Perft(int log2Capacity) {
+		table = log2Capacity > 0 ? new AtomicLongArray(2 << log2Capacity) : null;
+		slotMask = (1 << log2Capacity) - 1;
+	}
+
+	/**
+	 * Key of a subtree
+	 * @param hash The hash of the position
+	 * @param depth The depth of the subtree
+	 * @return The key
+	 */
+	private static long key(long hash, int depth) {
+		return hash ^ (depth * 0xC2B2AE3D27D4EB4FL);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & slotMask;
+	}
+
+	/**
+	 * Find the count of a subtree in the table
+	 * @param key
+	 * @return The count, or -1 if the subtree is not in the table
+	 */
+	private long lookup(long key) {
+		probes.increment();
+		int slot = slot(key);
+		long check = table.get(2 * slot);
+		long count = table.get(2 * slot + 1);
+		if ((check ^ count) != key || count == 0)
+			return -1;
+		hits.increment();
+		return count;
+	}
+
+	/**
+	 * Store the count of a subtree, replacing the previous subtree of its slot
+	 * @param key
+	 * @param count
+	 */
+	private void store(long key, long count) {
+		int slot = slot(key);
+		table.set(2 * slot, key ^ count);
+		table.set(2 * slot + 1, count);
+	}
+
+	/**
+	 * Count the move sequences sequentially
+	 * @param game The position (not modified)
+	 * @param depth The length of the sequences
+	 * @return The number of sequences
+	 */
+	long count(EnglishDraughts game, int depth) {
+		if (depth == 0)
+			return 1;
+		int nbMoves = game.moveCount();
+		if (depth == 1 || nbMoves == 0)
+			return nbMoves;
+		long key = 0;
+		if (table != null && depth >= MIN_STORED_DEPTH) {
+			key = key(game.hash(), depth);
+			long count = lookup(key);
+			if (count >= 0)
+				return count;
+		}
+		long count = 0;
+		for (int i = 0; i < nbMoves; ++i) {
+			EnglishDraughts next = game.clone();
+			next.playIndex(i);
+			count += count(next, depth - 1);
+		}
+		if (table != null && depth >= MIN_STORED_DEPTH) {
+			store(key, count);
+		}
+		return count;
+	}
+
+	/**
+	 * A subtree of the first {@link #SPLIT_PLIES} plies, whose children are counted in parallel
+	 */
+	class Task extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		final EnglishDraughts game;
+		final int depth;
+		final int ply;
+
+		Task(EnglishDraughts game, int depth, int ply) {
+			this.game = game;
+			this.depth = depth;
+			this.ply = ply;
+		}
+
+		@Override
+		protected Long compute() {
+			if (ply >= SPLIT_PLIES || depth <= MIN_STORED_DEPTH)
+				return count(game, depth);
+			List<Task> tasks = new ArrayList<>();
+			for (int i = 0; i < game.moveCount(); ++i) {
+				EnglishDraughts next = game.clone();
+				next.playIndex(i);
+				tasks.add(new Task(next, depth - 1, ply + 1));
+			}
+			long count = 0;
+			for (Task task : invokeAll(tasks)) {
+				count += task.join();
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Count the move sequences in parallel
+	 * @param game The position (not modified)
+	 * @param depth The length of the sequences
+	 * @param pool The pool running the tasks
+	 * @return The number of sequences
+	 */
+	public long perft(EnglishDraughts game, int depth, ForkJoinPool pool) {
+		return pool.invoke(new Task(game.clone(), depth, 0));
+	}
+
+	/**
+	 * Perft entry point: prints the count, the speed and the table hit rate of each depth up to the maximal depth
+	 * @param args See the class documentation
+	 */
+	public static void main(String[] args) {
+		int size = 8;
+		int depth = 8;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int log2Capacity = 22;
+		String fen = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--size":    size = Integer.parseInt(args[i+1]); break;
+			case "--depth":   depth = Integer.parseInt(args[i+1]); break;
+			case "--threads": threads = Integer.parseInt(args[i+1]); break;
+			case "--table":   log2Capacity = Integer.parseInt(args[i+1]); break;
+			case "--fen":     fen = args[i+1]; break;
+			default:
+				System.err.println("Usage: Perft [--size 8] [--depth 8] [--threads n] [--table 22] [--fen position]");
+				return;
+			}
+		}
+		EnglishDraughts game = fen != null ? PositionCodec.fromFen(fen, size) : new EnglishDraughts(size);
+		Perft perft = new Perft(log2Capacity);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int d = 1; d <= depth; ++d) {
+				perft.probes.reset();
+				perft.hits.reset();
+				long start = System.nanoTime();
+				long nodes = perft.perft(game, d, pool);
+				double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+				long probes = perft.probes.sum();
+				System.out.printf("perft(%d) = %d in %.3f s, %.0f nodes/s, table hits %.1f%%%n", d, nodes, seconds,
+						nodes / seconds, probes == 0 ? 0.0 : 100.0 * perft.hits.sum() / probes);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -13,4 +13,13 @@ public interface Player {
 	 * @return The move ({@link Game.Move}) chosen by the user or the algorithm
 	 */
 	public Game.Move play(Game game);
+	
+	/**
+	 * Number of playouts (simulations) run by the searches of the player since its creation.
+	 * Default implementation returns 0 (players without search).
+	 * @return The total number of playouts
+	 */
+	public default long playouts() {
+		return 0;
+	}
 }
@@ -9,6 +9,32 @@ public class PlayerMCTS implements Player {
 	
 	private int timeAllowedMillis;
 	
+	private boolean rave;
+	
+	private boolean progressiveWidening;
+	
+	private EndgameTablebase tablebase;
+	
+	private OpeningBook openingBook;
+	
+	private boolean verbose = true;
+	
+	private SearchScheduler scheduler;
+	
+	private PositionStatsCache statsCache;
+	
+	private int priority;
+	
+	private int batchPlayouts;
+	
+	private NTupleEvaluator evaluator;
+	
+	private double exploration = MonteCarloTreeSearch.DEFAULT_EXPLORATION;
+	
+	private int repetitionLimit;
+	
+	private long playouts;
+	
 	/**
 	 * Default constructor, sets a computation timeout of 1000 ms.
 	 */
@@ -21,13 +47,170 @@ public class PlayerMCTS implements Player {
 	 * @param timeAllowedMillis: allowed computation time, in milliseconds.
 	 */
 	public PlayerMCTS(int timeAllowedMillis) {
+		this(timeAllowedMillis, false);
+	}
+	
+	/**
+	 * Constructor with ability to set the maximum allowed computation time and to enable RAVE
+	 * @param timeAllowedMillis: allowed computation time, in milliseconds.
+	 * @param rave: if true, the search blends UCT values with all-moves-as-first statistics.
+	 */
+	public PlayerMCTS(int timeAllowedMillis, boolean rave) {
 		this.timeAllowedMillis = timeAllowedMillis;
+		this.rave = rave;
+	}
+	
+	/**
+	 * Enable or disable progressive widening in the search (see {@link MonteCarloTreeSearch#setProgressiveWidening(boolean)})
+	 * @param progressiveWidening
+	 */
+	public void setProgressiveWidening(boolean progressiveWidening) {
+		this.progressiveWidening = progressiveWidening;
+	}
+	
+	/**
+	 * Play the rollouts in lockstep batches (see {@link MonteCarloTreeSearch#setBatchRollouts(int)})
+	 * @param playoutsPerLeaf Number of playouts per new node, or 0 to play the rollouts one by one
+	 */
+	public void setBatchRollouts(int playoutsPerLeaf) {
+		this.batchPlayouts = playoutsPerLeaf;
+	}
+	
+	/**
+	 * Adjudicate the repeated positions of the search as draws (see {@link MonteCarloTreeSearch#setRepetitionLimit(int)})
+	 * @param limit Number of earlier occurrences of a position from which the game is a draw, or 0 (default) to disable the rule
+	 */
+	public void setRepetitionLimit(int limit) {
+		this.repetitionLimit = limit;
+	}
+	
+	/**
+	 * Set the exploration constant of the search (see {@link MonteCarloTreeSearch#setExplorationConstant(double)})
+	 * @param exploration
+	 */
+	public void setExplorationConstant(double exploration) {
+		this.exploration = exploration;
+	}
+	
+	/**
+	 * Evaluate the new nodes of the search with a static evaluator (see {@link MonteCarloTreeSearch#setEvaluator(NTupleEvaluator)})
+	 * @param evaluator The evaluator, or <code>null</code> to play rollouts
+	 */
+	public void setEvaluator(NTupleEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+	
+	/**
+	 * Set the endgame tablebase used by the search (see {@link MonteCarloTreeSearch#setTablebase(EndgameTablebase)})
+	 * @param tablebase The tablebase, or <code>null</code> not to use one
+	 */
+	public void setTablebase(EndgameTablebase tablebase) {
+		this.tablebase = tablebase;
+	}
+	
+	/**
+	 * Enable or disable the statistics printed after each search (enabled by default)
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+	
+	/**
+	 * Set the opening book: while the game is in book, the book move is played at once
+	 * @param openingBook The book, or <code>null</code> not to use one
+	 */
+	public void setOpeningBook(OpeningBook openingBook) {
+		this.openingBook = openingBook;
+	}
+	
+	/**
+	 * Run the searches on a shared scheduler instead of the calling thread
+	 * @param scheduler The scheduler, or <code>null</code> to search on the calling thread
+	 * @param priority Priority of the searches of this player (see {@link SearchScheduler#submit(MonteCarloTreeSearch, int, int)})
+	 */
+	public void setScheduler(SearchScheduler scheduler, int priority) {
+		this.scheduler = scheduler;
+		this.priority = priority;
+	}
+	
+	/**
+	 * Share position statistics with other players (see {@link MonteCarloTreeSearch#setStatsCache(PositionStatsCache)})
+	 * @param statsCache The cache, or <code>null</code> not to use one
+	 */
+	public void setStatsCache(PositionStatsCache statsCache) {
+		this.statsCache = statsCache;
 	}
 	
 	@Override
 	public Game.Move play(Game game) {
-		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game);
-		mcts.evaluateTreeWithTimeLimit(timeAllowedMillis);
-		return mcts.getBestMove();
+		EngineEvents.MoveSearchEvent event = new EngineEvents.MoveSearchEvent();
+		long[] gcBefore = event.isEnabled() ? EngineEvents.gcCounters() : null;
+		event.begin();
+		if (openingBook != null) {
+			Game.Move move = openingBook.probe(game);
+			if (move != null) {
+				event.bookMove = true;
+				commit(event, gcBefore, move);
+				return move;
+			}
+		}
+		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game, rave);
+		mcts.setProgressiveWidening(progressiveWidening);
+		mcts.setTablebase(tablebase);
+		mcts.setBatchRollouts(batchPlayouts);
+		mcts.setEvaluator(evaluator);
+		mcts.setExplorationConstant(exploration);
+		if (repetitionLimit > 0) {
+			mcts.setRepetitionLimit(repetitionLimit);
+		}
+		mcts.setVerbose(verbose);
+		mcts.setStatsCache(statsCache);
+		Game.Move move;
+		if (scheduler != null) {
+			move = scheduler.submit(mcts, timeAllowedMillis, priority).result().join();
+		} else {
+			mcts.evaluateTreeWithTimeLimit(timeAllowedMillis);
+			move = mcts.getBestMove();
+		}
+		playouts += mcts.nTotal;
+		event.iterations = mcts.nIterations;
+		event.rootVisits = mcts.root.n;
+		event.rootChildren = mcts.root.children.size();
+		commit(event, gcBefore, move);
+
+		// The tree is not reused for the next move
+		EngineEvents.TreePruneEvent prune = new EngineEvents.TreePruneEvent();
+		if (prune.shouldCommit()) {
+			prune.releasedNodes = mcts.treeSize;
+			prune.keptNodes = 0;
+			prune.commit();
+		}
+		return move;
+	}
+
+	@Override
+	public long playouts() {
+		return playouts;
+	}
+
+	/**
+	 * Fill and commit a move search event, if it is enabled
+	 * @param event The event, begun before the search
+	 * @param gcBefore The garbage collection counters before the search
+	 * @param move The chosen move
+	 */
+	private void commit(EngineEvents.MoveSearchEvent event, long[] gcBefore, Game.Move move) {
+		event.end();
+		if (event.shouldCommit()) {
+			long[] gcAfter = EngineEvents.gcCounters();
+			event.budget = timeAllowedMillis;
+			event.move = String.valueOf(move);
+			if (gcBefore != null) {
+				event.gcCount = gcAfter[0] - gcBefore[0];
+				event.gcTime = gcAfter[1] - gcBefore[1];
+			}
+			event.commit();
+		}
 	}
 }
@@ -0,0 +1,86 @@
+package fr.istic.ia.tp1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.istic.ia.tp1.Game.Move;
+
+/**
+ * An implementation of {@link Player} that plays perfectly from a table of solved positions
+ * (see {@link Draughts6x6Solver}): it wins as fast as possible, otherwise draws,
+ * otherwise loses as slowly as possible.
+ * @author Le Dourner/Guerin
+ *
+ */
+public class PlayerPerfect implements Player {
+	/** The solved positions */
+	private final SolvedPositions table;
+
+	/**
+	 * Constructor
+	 * @param table The solved positions
+	 */
+	public PlayerPerfect(SolvedPositions table) {
+		this.table = table;
+	}
+
+	/**
+	 * Rank of a move from the value of the position it leads to (for the opponent):
+	 * the higher the better for the player who moves.
+	 * @param next The game state after the move
+	 * @return The rank of the move
+	 */
+	long rank(EnglishDraughts next) {
+		int distance = Math.max(0, table.distance(next));
+		switch (table.value(next)) {
+		case EndgameTablebase.LOSS: return 3_000_000L - distance;   // win, the faster the better
+		case EndgameTablebase.DRAW: return 2_000_000L;
+		case EndgameTablebase.WIN:  return 1_000_000L + distance;   // loss, the slower the better
+		default: return 0L;                                          // unknown position
+		}
+	}
+
+	/**
+	 * Get all the moves which keep the best game-theoretic value (win, draw or loss)
+	 * @param game
+	 * @return The optimal moves
+	 */
+	public List<Move> optimalMoves(EnglishDraughts game) {
+		List<Move> optimal = new ArrayList<>();
+		int best = -1;
+		for (Move move : game.possibleMoves()) {
+			EnglishDraughts next = game.clone();
+			next.play(move);
+			int value = table.value(next);
+			// Order of the values for the player who moves: win (opponent loss), draw, loss
+			int order = value == EndgameTablebase.LOSS ? 3 : value == EndgameTablebase.DRAW ? 2
+					: value == EndgameTablebase.WIN ? 1 : 0;
+			if (order > best) {
+				best = order;
+				optimal.clear();
+			}
+			if (order == best) {
+				optimal.add(move);
+			}
+		}
+		return optimal;
+	}
+
+	@Override
+	public Move play(Game game) {
+		if (!(game instanceof EnglishDraughts))
+			return null;
+		Move bestMove = null;
+		long bestRank = -1;
+		for (Move move : game.possibleMoves()) {
+			EnglishDraughts next = (EnglishDraughts) game.clone();
+			next.play(move);
+			long rank = rank(next);
+			if (rank > bestRank) {
+				bestRank = rank;
+				bestMove = move;
+			}
+		}
+		return bestMove;
+	}
+}
@@ -0,0 +1,226 @@
+package fr.istic.ia.tp1;
+
+import java.nio.ByteBuffer;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * Text and binary encodings of {@link EnglishDraughts} positions.
+ *
+ * The text form is the PDN FEN, as printed by {@link EnglishDraughts#toString()}:
+ * <code>W:W21,22,K30:B1,2,K5</code> (player to move, then the white and black pawns, kings prefixed by K),
+ * optionally preceded by the turn number (<code>12. W:...</code>). The parser also accepts square ranges
+ * (<code>W1-12</code>) and a final dot.
+ *
+ * The binary form has a fixed width for a board size (16 bytes for 8x8 boards):
+ * <ul>
+ * <li>1 byte: board size, with the high bit set when the blacks are to move;</li>
+ * <li>1 byte: number of king moves without capture (saturated at 255);</li>
+ * <li>2 bytes: turn number;</li>
+ * <li>three bit sets of the white pawns, black pawns and kings (tile i on bit (i-1)%8 of byte (i-1)/8),
+ * of ceil(tiles/8) bytes each.</li>
+ * </ul>
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class PositionCodec {
+	/** Size of the header of the binary form */
+	static final int HEADER_SIZE = 4;
+
+	/** Flag of the blacks to move in the first byte of the binary form */
+	static final int BLACK_TO_MOVE = 0x80;
+
+	/**
+	 * Text form of a position
+	 * @param game
+	 * @return The FEN of the position, without the turn number
+	 */
+	public static String toFen(EnglishDraughts game) {
+		return (game.playerId == PlayerId.ONE ? "W:" : "B:") + game.board.toString();
+	}
+
+	/**
+	 * Parse the text form of a position
+	 * @param fen The FEN of the position (see the class documentation)
+	 * @param boardSize The size of the board
+	 * @return A new game in the position
+	 * @throws IllegalArgumentException if the FEN is not valid
+	 */
+	public static EnglishDraughts fromFen(String fen, int boardSize) {
+		EnglishDraughts game = new EnglishDraughts(boardSize);
+		CheckerBoard board = game.board;
+		for (int square = 1; square <= board.nbPlayableTiles(); ++square) {
+			board.set(square, CheckerBoard.EMPTY);
+		}
+		int length = fen.length();
+		int i = skipSpaces(fen, 0);
+
+		// Optional turn number
+		if (i < length && Character.isDigit(fen.charAt(i))) {
+			int turn = 0;
+			while (i < length && Character.isDigit(fen.charAt(i))) {
+				turn = turn * 10 + (fen.charAt(i++) - '0');
+			}
+			if (i >= length || fen.charAt(i) != '.')
+				throw new IllegalArgumentException("Invalid turn number in FEN: " + fen);
+			game.nbTurn = turn;
+			i = skipSpaces(fen, i + 1);
+		}
+
+		// Player to move
+		if (i >= length)
+			throw new IllegalArgumentException("Empty FEN");
+		switch (fen.charAt(i++)) {
+		case 'W': game.playerId = PlayerId.ONE; break;
+		case 'B': game.playerId = PlayerId.TWO; break;
+		default: throw new IllegalArgumentException("Invalid player to move in FEN: " + fen);
+		}
+
+		// Pawn lists
+		while (i < length && fen.charAt(i) == ':') {
+			char color = ++i < length ? fen.charAt(i++) : ' ';
+			if (color != 'W' && color != 'B')
+				throw new IllegalArgumentException("Invalid color in FEN: " + fen);
+			while (i < length && fen.charAt(i) != ':' && fen.charAt(i) != '.') {
+				boolean king = fen.charAt(i) == 'K';
+				if (king) {
+					++i;
+				}
+				int from = 0;
+				int start = i;
+				while (i < length && Character.isDigit(fen.charAt(i))) {
+					from = from * 10 + (fen.charAt(i++) - '0');
+				}
+				int to = from;
+				if (i < length && fen.charAt(i) == '-') {
+					to = 0;
+					while (++i < length && Character.isDigit(fen.charAt(i))) {
+						to = to * 10 + (fen.charAt(i) - '0');
+					}
+				}
+				if (i == start || from < 1 || to < from || to > board.nbPlayableTiles())
+					throw new IllegalArgumentException("Invalid square in FEN: " + fen);
+				byte value = color == 'W' ? (king ? CheckerBoard.WHITE_KING : CheckerBoard.WHITE_CHECKER)
+						: (king ? CheckerBoard.BLACK_KING : CheckerBoard.BLACK_CHECKER);
+				for (int square = from; square <= to; ++square) {
+					board.set(square, value);
+				}
+				if (i < length && fen.charAt(i) == ',') {
+					++i;
+				}
+			}
+		}
+		if (i < length && fen.charAt(i) == '.') {
+			++i;
+		}
+		if (skipSpaces(fen, i) != length)
+			throw new IllegalArgumentException("Unexpected characters in FEN: " + fen);
+		return game;
+	}
+
+	private static int skipSpaces(String s, int i) {
+		while (i < s.length() && s.charAt(i) == ' ') {
+			++i;
+		}
+		return i;
+	}
+
+	/**
+	 * Size of the binary form of the positions of a board size
+	 * @param boardSize
+	 * @return The number of bytes written by {@link #encode(EnglishDraughts, ByteBuffer)}
+	 */
+	public static int binarySize(int boardSize) {
+		return HEADER_SIZE + 3 * bitSetSize(boardSize);
+	}
+
+	private static int bitSetSize(int boardSize) {
+		return (boardSize * boardSize / 2 + 7) / 8;
+	}
+
+	/**
+	 * Write the binary form of a position
+	 * @param game
+	 * @param buffer The output, with at least {@link #binarySize(int)} bytes remaining
+	 */
+	public static void encode(EnglishDraughts game, ByteBuffer buffer) {
+		CheckerBoard board = game.board;
+		int tiles = board.nbPlayableTiles();
+		buffer.put((byte) (board.size | (game.playerId == PlayerId.TWO ? BLACK_TO_MOVE : 0)));
+		buffer.put((byte) Math.min(game.nbKingMovesWithoutCapture, 255));
+		buffer.putShort((short) game.nbTurn);
+		int bytes = bitSetSize(board.size);
+		int base = buffer.position();
+		for (int k = 0; k < 3 * bytes; ++k) {
+			buffer.put(base + k, (byte) 0);
+		}
+		for (int square = 1; square <= tiles; ++square) {
+			byte value = board.get(square);
+			if (value == CheckerBoard.EMPTY)
+				continue;
+			int offset = (square - 1) >> 3;
+			int bit = 1 << ((square - 1) & 7);
+			int color = board.isWhite(square) ? 0 : bytes;
+			buffer.put(base + color + offset, (byte) (buffer.get(base + color + offset) | bit));
+			if (board.isKing(square)) {
+				buffer.put(base + 2 * bytes + offset, (byte) (buffer.get(base + 2 * bytes + offset) | bit));
+			}
+		}
+		buffer.position(base + 3 * bytes);
+	}
+
+	/**
+	 * Binary form of a position
+	 * @param game
+	 * @return A new array of {@link #binarySize(int)} bytes
+	 */
+	public static byte[] encode(EnglishDraughts game) {
+		byte[] bytes = new byte[binarySize(game.board.size)];
+		encode(game, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/**
+	 * Read the binary form of a position
+	 * @param buffer The input, positioned at the beginning of the position
+	 * @return A new game in the position
+	 * @throws IllegalArgumentException if the board size is not valid
+	 */
+	public static EnglishDraughts decode(ByteBuffer buffer) {
+		int first = buffer.get() & 0xFF;
+		int boardSize = first & ~BLACK_TO_MOVE;
+		if (!CheckerBoard.isValidSize(boardSize))
+			throw new IllegalArgumentException("Invalid board size: " + boardSize);
+		EnglishDraughts game = new EnglishDraughts(boardSize);
+		game.playerId = (first & BLACK_TO_MOVE) != 0 ? PlayerId.TWO : PlayerId.ONE;
+		game.nbKingMovesWithoutCapture = buffer.get() & 0xFF;
+		game.nbTurn = buffer.getShort() & 0xFFFF;
+		int bytes = bitSetSize(boardSize);
+		int base = buffer.position();
+		CheckerBoard board = game.board;
+		for (int square = 1; square <= board.nbPlayableTiles(); ++square) {
+			int offset = (square - 1) >> 3;
+			int bit = 1 << ((square - 1) & 7);
+			boolean king = (buffer.get(base + 2 * bytes + offset) & bit) != 0;
+			byte value = CheckerBoard.EMPTY;
+			if ((buffer.get(base + offset) & bit) != 0) {
+				value = king ? CheckerBoard.WHITE_KING : CheckerBoard.WHITE_CHECKER;
+			} else if ((buffer.get(base + bytes + offset) & bit) != 0) {
+				value = king ? CheckerBoard.BLACK_KING : CheckerBoard.BLACK_CHECKER;
+			}
+			board.set(square, value);
+		}
+		buffer.position(base + 3 * bytes);
+		return game;
+	}
+
+	/**
+	 * Read the binary form of a position
+	 * @param bytes
+	 * @return A new game in the position
+	 */
+	public static EnglishDraughts decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+}
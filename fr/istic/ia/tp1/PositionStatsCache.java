@@ -0,0 +1,241 @@
+package fr.istic.ia.tp1;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * Process-wide cache of position statistics, shared by concurrent searches.
+ *
+ * The cache maps position hashes to aggregated simulation statistics: number of
+ * simulations, number of wins of the player who moved to the position, and the winner with a perfect play when
+ * known. The searches add what they learned at their end, and start new nodes with the cached statistics.
+ * The searches key the positions by {@link Game#canonicalHash()}, so that a position and its colour-flipped
+ * twin share their statistics (the winner is then stored for the players of the canonical form).
+ *
+ * The table has a fixed size: it is split in buckets of {@link #WAYS} entries, and a full bucket evicts its first
+ * entry not used since the last pass of the clock hand (second-chance or CLOCK eviction). The buckets are
+ * guarded by a fixed number of striped locks.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class PositionStatsCache {
+	/** Number of entries of a bucket */
+	static final int WAYS = 4;
+
+	/** Number of locks */
+	static final int STRIPES = 256;
+
+	/** Number of entries of the {@link #shared()} cache */
+	static final int SHARED_CAPACITY = 1 << 20;
+
+	/**
+	 * Cached statistics of a position
+	 */
+	public static class Stats {
+		/** Number of simulations */
+		public final int n;
+
+		/** Number of wins of the player who moved to the position */
+		public final double w;
+
+		/** Winner with a perfect play, or <code>null</code> if unknown */
+		public final PlayerId solved;
+
+		Stats(int n, double w, PlayerId solved) {
+			this.n = n;
+			this.w = w;
+			this.solved = solved;
+		}
+	}
+
+	/** Lazy holder of the shared cache */
+	private static class Shared {
+		static final PositionStatsCache INSTANCE = new PositionStatsCache(SHARED_CAPACITY);
+	}
+
+	/** Position hashes (0 for an empty entry) */
+	private final long[] keys;
+
+	/** Number of simulations */
+	private final int[] visits;
+
+	/** Number of wins of the player who moved to the position */
+	private final float[] wins;
+
+	/** 0 if unknown, 1 + {@link PlayerId#ordinal()} of the winner otherwise */
+	private final byte[] solved;
+
+	/** Reference bits of the CLOCK eviction */
+	private final boolean[] referenced;
+
+	/** Clock hand of each bucket */
+	private final byte[] hands;
+
+	/** Mask of the bucket numbers */
+	private final int bucketMask;
+
+	/** The locks of the buckets */
+	private final Object[] locks = new Object[STRIPES];
+
+	/** Counters */
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor
+	 * @param capacity Number of entries (rounded to a power of two)
+	 */
+	public PositionStatsCache(int capacity) {
+		int buckets = Integer.highestOneBit(Math.max(capacity / WAYS, 1));
+		bucketMask = buckets - 1;
+		keys = new long[buckets * WAYS];
+		visits = new int[buckets * WAYS];
+		wins = new float[buckets * WAYS];
+		solved = new byte[buckets * WAYS];
+		referenced = new boolean[buckets * WAYS];
+		hands = new byte[buckets];
+		for (int i = 0; i < STRIPES; ++i) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * The cache shared by the whole process (created at the first call)
+	 * @return The shared cache
+	 */
+	public static PositionStatsCache shared() {
+		return Shared.INSTANCE;
+	}
+
+	private int bucket(long hash) {
+		long h = hash * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & bucketMask;
+	}
+
+	private static long key(long hash) {
+		// 0 marks the empty entries
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Get the statistics of a position
+	 * @param hash The hash of the position
+	 * @return The statistics, or <code>null</code> if the position is not in the cache
+	 */
+	public Stats get(long hash) {
+		long key = key(hash);
+		int bucket = bucket(hash);
+		synchronized (locks[bucket & (STRIPES - 1)]) {
+			for (int i = bucket * WAYS; i < (bucket + 1) * WAYS; ++i) {
+				if (keys[i] == key) {
+					referenced[i] = true;
+					hits.increment();
+					return new Stats(visits[i], wins[i], solved[i] == 0 ? null : PlayerId.values()[solved[i] - 1]);
+				}
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Add statistics to a position
+	 * @param hash The hash of the position
+	 * @param n Number of new simulations
+	 * @param w Number of new wins of the player who moved to the position
+	 * @param winner Winner with a perfect play, or <code>null</code> if unknown
+	 */
+	public void add(long hash, int n, double w, PlayerId winner) {
+		long key = key(hash);
+		int bucket = bucket(hash);
+		int first = bucket * WAYS;
+		synchronized (locks[bucket & (STRIPES - 1)]) {
+			int slot = -1;
+			for (int i = first; i < first + WAYS; ++i) {
+				if (keys[i] == key) {
+					slot = i;
+					break;
+				}
+				if (slot < 0 && keys[i] == 0) {
+					slot = i;
+				}
+			}
+			if (slot < 0) {
+				slot = evict(bucket);
+			}
+			if (keys[slot] != key) {
+				keys[slot] = key;
+				visits[slot] = 0;
+				wins[slot] = 0f;
+				solved[slot] = 0;
+			}
+			long total = (long) visits[slot] + n;
+			if (total > Integer.MAX_VALUE) {
+				// Saturate, keeping the win rate
+				wins[slot] = (float) ((wins[slot] + w) * Integer.MAX_VALUE / total);
+				visits[slot] = Integer.MAX_VALUE;
+			} else {
+				visits[slot] = (int) total;
+				wins[slot] += (float) w;
+			}
+			if (winner != null) {
+				solved[slot] = (byte) (1 + winner.ordinal());
+			}
+			referenced[slot] = true;
+		}
+	}
+
+	/**
+	 * Choose the entry to replace in a full bucket (the lock of the bucket must be held)
+	 * @param bucket
+	 * @return The index of the entry
+	 */
+	private int evict(int bucket) {
+		int first = bucket * WAYS;
+		while (true) {
+			int i = first + hands[bucket];
+			hands[bucket] = (byte) ((hands[bucket] + 1) % WAYS);
+			if (referenced[i]) {
+				referenced[i] = false;
+			} else {
+				evictions.increment();
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Number of entries of the cache
+	 * @return The capacity
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Number of lookups which found the position
+	 * @return The number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of lookups which did not find the position
+	 * @return The number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of entries replaced by other positions
+	 * @return The number of evictions
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+}
@@ -0,0 +1,227 @@
+package fr.istic.ia.tp1;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * Counters of the {@link MonteCarloTreeSearch} searches: throughput, shape of the trees, time spent in each
+ * phase of the iterations, random draws and allocations.
+ *
+ * The counters are striped ({@link LongAdder}), so that concurrent searches can update them without
+ * contention: they are cheap enough to be always enabled. Unless told otherwise, the searches report to
+ * the {@link #global()} registry, which is published in the platform MBean server.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+	/** Name of the global registry in the platform MBean server */
+	public static final String OBJECT_NAME = "fr.istic.ia.tp1:type=SearchMetrics";
+
+	/** The registry shared by the searches */
+	private static final SearchMetrics GLOBAL = new SearchMetrics();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+		} catch (Exception | LinkageError e) {
+			// No JMX: the metrics are still available through global()
+		}
+	}
+
+	/** Number of searches (calls to {@link MonteCarloTreeSearch#evaluateTreeWithTimeLimit(int)}) */
+	final LongAdder searches = new LongAdder();
+
+	/** Number of MCTS iterations */
+	final LongAdder iterations = new LongAdder();
+
+	/** Number of playouts */
+	final LongAdder playouts = new LongAdder();
+
+	/** Number of plies played in the playouts */
+	final LongAdder playoutPlies = new LongAdder();
+
+	/** Number of nodes expanded for the first time, and their total number of moves */
+	final LongAdder expandedNodes = new LongAdder();
+	final LongAdder expandedMoves = new LongAdder();
+
+	/** Total and maximal depth of the new leaves */
+	final LongAdder depthSum = new LongAdder();
+	final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+	/** Number of nodes of the tree of the last search */
+	final AtomicLong treeNodes = new AtomicLong();
+
+	/** Time spent in each phase of the iterations, and in the searches, in nanoseconds */
+	final LongAdder selectionNanos = new LongAdder();
+	final LongAdder expansionNanos = new LongAdder();
+	final LongAdder rolloutNanos = new LongAdder();
+	final LongAdder backPropagationNanos = new LongAdder();
+	final LongAdder searchNanos = new LongAdder();
+
+	/** Number of values drawn from random generators */
+	final LongAdder randomDraws = new LongAdder();
+
+	/** Number of allocated tree nodes and cloned game states */
+	final LongAdder nodeAllocations = new LongAdder();
+	final LongAdder gameClones = new LongAdder();
+
+	/**
+	 * The registry shared by the searches
+	 * @return The global registry
+	 */
+	public static SearchMetrics global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Record the phases of an iteration
+	 * @param depth Depth of the new leaf
+	 * @param selection Time of the selection, in nanoseconds
+	 * @param expansion Time of the expansion, in nanoseconds
+	 * @param rollout Time of the playouts, in nanoseconds
+	 * @param backPropagation Time of the backpropagation, in nanoseconds
+	 */
+	void recordIteration(int depth, long selection, long expansion, long rollout, long backPropagation) {
+		iterations.increment();
+		depthSum.add(depth);
+		maxDepth.accumulate(depth);
+		selectionNanos.add(selection);
+		expansionNanos.add(expansion);
+		rolloutNanos.add(rollout);
+		backPropagationNanos.add(backPropagation);
+	}
+
+	/**
+	 * Record the end of a search
+	 * @param nanos Duration of the search
+	 * @param nodes Number of nodes of the tree
+	 */
+	void recordSearch(long nanos, long nodes) {
+		searches.increment();
+		searchNanos.add(nanos);
+		treeNodes.set(nodes);
+	}
+
+	private static double ratio(long a, long b) {
+		return b == 0 ? 0.0 : (double) a / b;
+	}
+
+	private double phaseRatio(LongAdder phase) {
+		long total = selectionNanos.sum() + expansionNanos.sum() + rolloutNanos.sum() + backPropagationNanos.sum();
+		return ratio(phase.sum(), total);
+	}
+
+	@Override
+	public long getSearches() {
+		return searches.sum();
+	}
+
+	@Override
+	public long getIterations() {
+		return iterations.sum();
+	}
+
+	@Override
+	public long getPlayouts() {
+		return playouts.sum();
+	}
+
+	@Override
+	public double getIterationsPerSecond() {
+		return ratio(iterations.sum(), searchNanos.sum()) * 1e9;
+	}
+
+	@Override
+	public double getPlayoutsPerSecond() {
+		return ratio(playouts.sum(), searchNanos.sum()) * 1e9;
+	}
+
+	@Override
+	public long getTreeNodes() {
+		return treeNodes.get();
+	}
+
+	@Override
+	public long getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	@Override
+	public double getMeanDepth() {
+		return ratio(depthSum.sum(), iterations.sum());
+	}
+
+	@Override
+	public double getBranchingFactor() {
+		return ratio(expandedMoves.sum(), expandedNodes.sum());
+	}
+
+	@Override
+	public double getMeanPlayoutLength() {
+		return ratio(playoutPlies.sum(), playouts.sum());
+	}
+
+	@Override
+	public double getSelectionTimeRatio() {
+		return phaseRatio(selectionNanos);
+	}
+
+	@Override
+	public double getExpansionTimeRatio() {
+		return phaseRatio(expansionNanos);
+	}
+
+	@Override
+	public double getRolloutTimeRatio() {
+		return phaseRatio(rolloutNanos);
+	}
+
+	@Override
+	public double getBackPropagationTimeRatio() {
+		return phaseRatio(backPropagationNanos);
+	}
+
+	@Override
+	public long getRandomDraws() {
+		return randomDraws.sum();
+	}
+
+	@Override
+	public long getNodeAllocations() {
+		return nodeAllocations.sum();
+	}
+
+	@Override
+	public long getGameClones() {
+		return gameClones.sum();
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder adder : new LongAdder[] { searches, iterations, playouts, playoutPlies, expandedNodes,
+				expandedMoves, depthSum, selectionNanos, expansionNanos, rolloutNanos, backPropagationNanos,
+				searchNanos, randomDraws, nodeAllocations, gameClones }) {
+			adder.reset();
+		}
+		maxDepth.reset();
+		treeNodes.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%d searches, %d iterations (%.0f/s), %d playouts (%.0f/s, %.1f plies), "
+				+ "tree %d nodes, depth %.1f (max %d), branching %.2f, "
+				+ "time selection %.1f%% expansion %.1f%% rollout %.1f%% backpropagation %.1f%%, "
+				+ "%d random draws, %d nodes allocated, %d games cloned",
+				getSearches(), getIterations(), getIterationsPerSecond(), getPlayouts(), getPlayoutsPerSecond(),
+				getMeanPlayoutLength(), getTreeNodes(), getMeanDepth(), getMaxDepth(), getBranchingFactor(),
+				100 * getSelectionTimeRatio(), 100 * getExpansionTimeRatio(), 100 * getRolloutTimeRatio(),
+				100 * getBackPropagationTimeRatio(), getRandomDraws(), getNodeAllocations(), getGameClones());
+	}
+}
@@ -0,0 +1,29 @@
+package fr.istic.ia.tp1;
+
+/**
+ * Management interface of the {@link SearchMetrics}, as seen in JMX clients
+ * (object name <code>fr.istic.ia.tp1:type=SearchMetrics</code>).
+ * The rates are given per second of search time of a single thread.
+ * @author Le Dourner/Guerin
+ *
+ */
+public interface SearchMetricsMXBean {
+	long getSearches();
+	long getIterations();
+	long getPlayouts();
+	double getIterationsPerSecond();
+	double getPlayoutsPerSecond();
+	long getTreeNodes();
+	long getMaxDepth();
+	double getMeanDepth();
+	double getBranchingFactor();
+	double getMeanPlayoutLength();
+	double getSelectionTimeRatio();
+	double getExpansionTimeRatio();
+	double getRolloutTimeRatio();
+	double getBackPropagationTimeRatio();
+	long getRandomDraws();
+	long getNodeAllocations();
+	long getGameClones();
+	void reset();
+}
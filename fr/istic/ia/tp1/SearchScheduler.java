@@ -0,0 +1,316 @@
+package fr.istic.ia.tp1;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fr.istic.ia.tp1.Game.Move;
+
+/**
+ * Scheduler of many {@link MonteCarloTreeSearch} on a shared pool of worker threads.
+ *
+ * The searches are run by time slices: batches of iterations of at most {@link #BATCH_MILLIS}. A free worker
+ * takes, among the searches whose deadline is less than {@link #FAIR_WINDOW_MILLIS} after the earliest one,
+ * the search which has received the least CPU time, so that the searches with close deadlines share the
+ * workers in a round-robin way instead of running one after the other. The priority of a search advances its deadline by {@link #PRIORITY_ADVANCE_MILLIS}
+ * per level, so that urgent games are served first under load.
+ * A search is only run by one worker at a time, and it is completed with its best move at its deadline,
+ * or earlier if it is stopped or has nothing more to explore. A search which fails, or which is still pending
+ * when the scheduler is closed, is completed exceptionally.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class SearchScheduler implements AutoCloseable {
+	/** Maximal number of iterations of a batch */
+	static final int BATCH_ITERATIONS = 16;
+
+	/** Maximal duration of a batch, in milliseconds: a more urgent search never waits longer for a worker */
+	static final long BATCH_MILLIS = 10;
+
+	/** Width of the deadline window inside which the searches share the workers equally, in milliseconds */
+	static final long FAIR_WINDOW_MILLIS = 50;
+
+	/** Advance of the deadline of a search per priority level, in milliseconds */
+	static final long PRIORITY_ADVANCE_MILLIS = 50;
+
+	/** Delay after its deadline from which a search is counted as late, in milliseconds */
+	static final long LATE_MILLIS = 10;
+
+	/**
+	 * A search submitted to the scheduler
+	 */
+	public static class ScheduledSearch {
+		/** The search */
+		final MonteCarloTreeSearch mcts;
+
+		/** The time at which the best move must be given, in {@link System#nanoTime()} units */
+		final long deadline;
+
+		/** The deadline used to order the searches, advanced by the priority */
+		final long effectiveDeadline;
+
+		/** Submission number, to break ties */
+		final long sequence;
+
+		/** The best move, available at the end of the search */
+		final CompletableFuture<Move> result = new CompletableFuture<>();
+
+		/** Number of batches and CPU time given to the search, in nanoseconds */
+		volatile int batches;
+		volatile long cpuNanos;
+
+		ScheduledSearch(MonteCarloTreeSearch mcts, long deadline, int priority, long sequence) {
+			this.mcts = mcts;
+			this.deadline = deadline;
+			this.effectiveDeadline = deadline - priority * PRIORITY_ADVANCE_MILLIS * 1000000;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * The result of the search
+		 * @return A future completed with the best move at the end of the search
+		 */
+		public CompletableFuture<Move> result() {
+			return result;
+		}
+
+		/**
+		 * Number of playouts of the search so far
+		 * @return The number of playouts
+		 */
+		public long playouts() {
+			return mcts.nTotal;
+		}
+
+		/**
+		 * Number of batches of iterations run so far
+		 * @return The number of batches
+		 */
+		public int batches() {
+			return batches;
+		}
+
+		/**
+		 * CPU time given to the search so far
+		 * @return The time in milliseconds
+		 */
+		public long cpuMillis() {
+			return cpuNanos / 1000000;
+		}
+	}
+
+	/**
+	 * The searches waiting for a worker, by effective deadline (a search is not in the queue while it runs, so
+	 * its CPU time does not change in the queue)
+	 */
+	private final PriorityQueue<ScheduledSearch> ready = new PriorityQueue<>(
+			Comparator.comparingLong((ScheduledSearch s) -> s.effectiveDeadline).thenComparingLong(s -> s.sequence));
+
+	/** Lock of {@link #ready} */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signaled when a search is added to {@link #ready} */
+	private final Condition notEmpty = lock.newCondition();
+
+	/** The worker threads */
+	private final List<Thread> workers = new ArrayList<>();
+
+	/** Number of submitted searches */
+	private final AtomicLong submitted = new AtomicLong();
+
+	/** Number of playouts of the finished searches */
+	private final AtomicLong finishedPlayouts = new AtomicLong();
+
+	/** Number of searches completed after their deadline */
+	private final AtomicLong missedDeadlines = new AtomicLong();
+
+	/** Set when the scheduler is closed */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor: start the worker threads
+	 * @param threads Number of worker threads
+	 */
+	public SearchScheduler(int threads) {
+		for (int i = 0; i < threads; ++i) {
+			Thread worker = new Thread(this::workLoop, "search-worker-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Submit a search
+	 * @param mcts The search (must not be used elsewhere until its end)
+	 * @param timeMillis Time until the best move is needed, in milliseconds
+	 * @param priority Priority of the search (0 by default, higher is more urgent)
+	 * @return The handle of the search
+	 */
+	public ScheduledSearch submit(MonteCarloTreeSearch mcts, int timeMillis, int priority) {
+		if (closed)
+			throw new IllegalStateException("Scheduler closed");
+		ScheduledSearch search = new ScheduledSearch(mcts, System.nanoTime() + timeMillis * 1000000L, priority,
+				submitted.getAndIncrement());
+		schedule(search);
+		return search;
+	}
+
+	private void schedule(ScheduledSearch search) {
+		lock.lock();
+		try {
+			if (closed) {
+				search.result.completeExceptionally(new IllegalStateException("Scheduler closed"));
+				return;
+			}
+			ready.add(search);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Main loop of the workers
+	 */
+	private void workLoop() {
+		while (true) {
+			ScheduledSearch search;
+			lock.lock();
+			try {
+				while (ready.isEmpty() && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (closed)
+					return;
+				search = next();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				if (runBatch(search)) {
+					complete(search);
+				} else {
+					schedule(search);
+				}
+			} catch (Throwable e) {
+				// Never leave a search without result, even after an error
+				search.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Remove the next search to run from the queue (with the lock held and the queue not empty)
+	 * @return The search with the least CPU time among those within {@link #FAIR_WINDOW_MILLIS} of the earliest
+	 * deadline
+	 */
+	private ScheduledSearch next() {
+		long limit = ready.peek().effectiveDeadline + FAIR_WINDOW_MILLIS * 1000000;
+		ScheduledSearch next = null;
+		for (ScheduledSearch search : ready) {
+			if (search.effectiveDeadline - limit < 0 && (next == null || search.cpuNanos < next.cpuNanos
+					|| (search.cpuNanos == next.cpuNanos && search.sequence < next.sequence))) {
+				next = search;
+			}
+		}
+		ready.remove(next);
+		return next;
+	}
+
+	/**
+	 * Run a batch of iterations of a search
+	 * @param search
+	 * @return <code>true</code> if the search is over
+	 */
+	private boolean runBatch(ScheduledSearch search) {
+		MonteCarloTreeSearch mcts = search.mcts;
+		long start = System.nanoTime();
+		boolean over = false;
+		for (int i = 0; i < BATCH_ITERATIONS; ++i) {
+			// At least one iteration, so that the root has a child
+			if (!mcts.root.children.isEmpty()
+					&& (mcts.isStopped() || System.nanoTime() - search.deadline >= 0)) {
+				over = true;
+				break;
+			}
+			over = mcts.evaluateTreeOnce();
+			mcts.nIterations++;
+			if (over || System.nanoTime() - start > BATCH_MILLIS * 1000000)
+				break;
+		}
+		long end = System.nanoTime();
+		search.cpuNanos += end - start;
+		search.batches++;
+		return over || mcts.isStopped() || end - search.deadline >= 0;
+	}
+
+	/**
+	 * Complete a finished search with its best move
+	 * @param search
+	 */
+	private void complete(ScheduledSearch search) {
+		MonteCarloTreeSearch mcts = search.mcts;
+		mcts.metrics.recordSearch(search.cpuNanos, mcts.treeSize);
+		mcts.publishStats();
+		finishedPlayouts.addAndGet(mcts.nTotal);
+		if (System.nanoTime() - search.deadline > LATE_MILLIS * 1000000) {
+			missedDeadlines.incrementAndGet();
+		}
+		search.result.complete(mcts.root.children.isEmpty() ? null : mcts.getBestMove());
+	}
+
+	/**
+	 * Number of searches waiting for a worker
+	 * @return The number of searches in the queue
+	 */
+	public int pending() {
+		lock.lock();
+		try {
+			return ready.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Number of playouts of the finished searches
+	 * @return The total number of playouts
+	 */
+	public long finishedPlayouts() {
+		return finishedPlayouts.get();
+	}
+
+	/**
+	 * Number of searches completed more than {@link #LATE_MILLIS} after their deadline
+	 * @return The number of late searches
+	 */
+	public long missedDeadlines() {
+		return missedDeadlines.get();
+	}
+
+	/**
+	 * Stop the workers. The pending searches are completed exceptionally (the running ones after their batch).
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			IllegalStateException failure = new IllegalStateException("Scheduler closed");
+			for (ScheduledSearch search : ready) {
+				search.result.completeExceptionally(failure);
+			}
+			ready.clear();
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package fr.istic.ia.tp1;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.istic.ia.tp1.Game.Move;
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MatchRunner.GameRecord;
+
+/**
+ * Self-play generator of training data.
+ *
+ * Self-play games are run in parallel. Every position of a game is recorded with the visit distribution
+ * of the search at the root, and the samples of the game are sent to a {@link TrainingDataWriter} with
+ * the final result once the game is over. In the first plies, the next move is drawn with a probability
+ * proportional to its number of simulations, so that the games do not all follow the same line.
+ *
+ * The games can also be recorded in PDN by a {@link PdnWriter}.
+ *
+ * Usage: <code>SelfPlayGenerator file games timeMillis [boardSize] [threads] [samplingPlies] [maxPlies] [pdnFile]</code>
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class SelfPlayGenerator {
+	/** Size of the board of the self-play games */
+	final int boardSize;
+
+	/** Search time for each move, in milliseconds */
+	final int timeMillis;
+
+	/** Number of plies in which the next move is drawn from the visit distribution */
+	final int samplingPlies;
+
+	/** Plies limit of a game, after which it is a draw */
+	final int maxPlies;
+
+	/** The output of the samples */
+	final TrainingDataWriter writer;
+
+	/** The recorder of the games, or <code>null</code> not to record them */
+	private PdnWriter pdn;
+
+	/**
+	 * Constructor
+	 * @param writer The output of the samples
+	 * @param boardSize Size of the board of the self-play games
+	 * @param timeMillis Search time for each move, in milliseconds
+	 * @param samplingPlies Number of plies in which the next move is drawn from the visit distribution
+	 * @param maxPlies Plies limit of a game, after which it is a draw
+	 * @throws IllegalArgumentException if the samples cannot record the board (see {@link TrainingSample#supports(int)})
+	 */
+	public SelfPlayGenerator(TrainingDataWriter writer, int boardSize, int timeMillis, int samplingPlies, int maxPlies) {
+		if (!TrainingSample.supports(boardSize))
+			throw new IllegalArgumentException("Training samples need at most " + TrainingSample.MAX_TILES
+					+ " tiles: " + boardSize + "x" + boardSize);
+		this.writer = writer;
+		this.boardSize = boardSize;
+		this.timeMillis = timeMillis;
+		this.samplingPlies = samplingPlies;
+		this.maxPlies = maxPlies;
+	}
+
+	/**
+	 * Record the games in PDN
+	 * @param pdn The writer of the games, or <code>null</code> not to record them
+	 */
+	public void setPdnWriter(PdnWriter pdn) {
+		this.pdn = pdn;
+	}
+
+	/**
+	 * Play one self-play game and submit its samples
+	 * @throws Exception if the samples cannot be written
+	 */
+	void playGame() throws Exception {
+		EnglishDraughts game = new EnglishDraughts(boardSize);
+		List<TrainingSample> samples = new ArrayList<>();
+		GameRecord record = new GameRecord();
+		PlayerId winner = PlayerId.NONE;
+		record.adjudicated = true;
+		for (int ply = 0; ply < maxPlies; ++ply) {
+			if (game.winner() != null) {
+				winner = game.winner();
+				record.adjudicated = false;
+				break;
+			}
+			List<Move> moves = game.possibleMoves();
+			// A player who cannot play loses
+			if (moves.isEmpty()) {
+				winner = game.player().other();
+				record.adjudicated = false;
+				break;
+			}
+			MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(game);
+			mcts.setVerbose(false);
+			mcts.evaluateTreeWithTimeLimit(timeMillis);
+			int[] visits = mcts.rootVisits();
+			samples.add(new TrainingSample(game, visits));
+
+			Move next = mcts.getBestMove();
+			if (ply < samplingPlies) {
+				long total = 0;
+				for (int count : visits) {
+					total += count;
+				}
+				long draw = ThreadLocalRandom.current().nextLong(Math.max(total, 1));
+				for (int i = 0; i < visits.length; ++i) {
+					draw -= visits[i];
+					if (draw < 0) {
+						next = moves.get(i);
+						break;
+					}
+				}
+			}
+			record.moves.add(next.toString());
+			game.play(next);
+		}
+		for (TrainingSample sample : samples) {
+			sample.winner = winner;
+		}
+		writer.submit(samples);
+		if (pdn != null) {
+			record.white = record.black = "mcts:" + timeMillis;
+			record.boardSize = boardSize;
+			record.winner = winner;
+			pdn.submit(record);
+		}
+	}
+
+	/**
+	 * Run the self-play games in parallel
+	 * @param games The number of games
+	 * @param threads The number of threads
+	 * @throws InterruptedException
+	 */
+	public void run(int games, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < games; ++i) {
+			executor.execute(() -> {
+				try {
+					playGame();
+				} catch (Exception e) {
+					System.err.println("Self-play game failed: " + e);
+					return;
+				}
+				int count = done.incrementAndGet();
+				if (count % 10 == 0) {
+					System.out.println(count + "/" + games + " games");
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Generator entry point
+	 * @param args file, games, time per move (ms), and optionally board size, number of threads,
+	 *             number of sampled plies (10 by default), plies limit (500 by default) and PDN file
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: SelfPlayGenerator file games timeMillis [boardSize] [threads] [samplingPlies] [maxPlies] [pdnFile]");
+			return;
+		}
+		int games = Integer.parseInt(args[1]);
+		int timeMillis = Integer.parseInt(args[2]);
+		int boardSize = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		int samplingPlies = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+		int maxPlies = args.length > 6 ? Integer.parseInt(args[6]) : 500;
+		if (!TrainingSample.supports(boardSize)) {
+			System.err.println("Training samples need at most " + TrainingSample.MAX_TILES + " tiles: "
+					+ boardSize + "x" + boardSize);
+			return;
+		}
+
+		try (TrainingDataWriter writer = new TrainingDataWriter(Paths.get(args[0]));
+				PdnWriter pdn = args.length > 7 ? new PdnWriter(Paths.get(args[7]), PdnWriter.DEFAULT_MAX_FILE_BYTES, "Self-play") : null) {
+			SelfPlayGenerator generator = new SelfPlayGenerator(writer, boardSize, timeMillis, samplingPlies, maxPlies);
+			generator.setPdnWriter(pdn);
+			generator.run(games, threads);
+		}
+		System.out.println(games + " games appended to " + args[0]);
+	}
+}
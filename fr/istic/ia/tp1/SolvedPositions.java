@@ -0,0 +1,167 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * A memory-mapped table of solved positions, as written by {@link Draughts6x6Solver}.
+ *
+ * The table is dense: a header, then the keys of the <code>count</code> solved positions by increasing
+ * value (8 bytes each, see {@link #key(EnglishDraughts)}), then their <code>count</code> values in the same
+ * order (2 bytes each: the value for the side to move in the 2 upper bits, with the {@link EndgameTablebase}
+ * constants, and the distance to the end of the game in plies in the 14 lower bits). The rank of a position
+ * is the index of its key, found by a binary search (O(log count) reads), and there is no empty slot.
+ *
+ * Only the canonical positions, with the whites to move, are stored: a position with the blacks to move is
+ * looked up as its colour-flipped twin (see {@link EnglishDraughts#mirror()}), which has the same value for
+ * the side to move. This halves the number of positions to solve and to store.
+ *
+ * Note: the 25 king moves rule is not taken into account in the values.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class SolvedPositions {
+	/** Magic number at the beginning of a table file ("ED6S") */
+	static final int MAGIC = 0x45443653;
+
+	/** Version of the file format */
+	static final int VERSION = 3;
+
+	/** Size of the header: magic, version, number of positions */
+	static final int HEADER_SIZE = 16;
+
+	/** Key of an empty slot of the solver visited set (not a valid position key) */
+	static final long EMPTY = -1L;
+
+	/** Number of bits of the distance in a value */
+	static final int DISTANCE_BITS = 14;
+
+	/** Number of keys in each mapped chunk (a mapping cannot exceed 2 GB) */
+	static final int KEYS_PER_CHUNK = 1 << 27;
+
+	/** The mapped keys, by chunks of {@link #KEYS_PER_CHUNK} keys */
+	private final MappedByteBuffer[] keys;
+
+	/** The mapped values */
+	private final MappedByteBuffer values;
+
+	/** Number of positions of the table */
+	private final int count;
+
+	/**
+	 * Open a table file
+	 * @param file
+	 * @throws IOException if the file cannot be read or is not a table of solved positions
+	 */
+	public SolvedPositions(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException("Not a table of solved positions: " + file);
+			count = (int) header.getLong(8);
+			keys = new MappedByteBuffer[(count + KEYS_PER_CHUNK - 1) / KEYS_PER_CHUNK];
+			for (int chunk = 0; chunk < keys.length; ++chunk) {
+				long first = (long) chunk * KEYS_PER_CHUNK;
+				keys[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8L * first,
+						8L * Math.min(KEYS_PER_CHUNK, count - first));
+			}
+			values = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8L * count, 2L * count);
+		}
+	}
+
+	/**
+	 * Key of a position: masks of the white pawns, black pawns and kings of its canonical form
+	 * (see {@link EnglishDraughts#canonical()}), computed without building it.
+	 * Only valid for boards with at most 18 tiles (6x6).
+	 * @param game
+	 * @return The key of the position
+	 */
+	static long key(EnglishDraughts game) {
+		CheckerBoard board = game.board;
+		if (game.isCanonical())
+			return board.whiteMask() | (board.blackMask() << 18) | (board.kingMask() << 36);
+		// The mirror: the board rotated, with the colours swapped
+		return board.mirrorMask(board.blackMask()) | (board.mirrorMask(board.whiteMask()) << 18)
+				| (board.mirrorMask(board.kingMask()) << 36);
+	}
+
+	/**
+	 * Set up the position of a key (inverse of {@link #key(EnglishDraughts)}), with the whites to move
+	 * @param key
+	 * @param game A 6x6 game
+	 */
+	static void setPosition(long key, EnglishDraughts game) {
+		long squares = (1L << 18) - 1;
+		game.board.setFromMasks(key & squares, (key >>> 18) & squares, (key >>> 36) & squares);
+		game.playerId = PlayerId.ONE;
+		game.nbKingMovesWithoutCapture = 0;
+	}
+
+	/**
+	 * First slot of a key in the solver visited set
+	 * @param key
+	 * @param capacity The capacity of the set (a power of 2)
+	 * @return The slot where the probing starts
+	 */
+	static int slot(long key, int capacity) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		key *= 0xC4CEB9FE1A85EC53L;
+		key ^= key >>> 33;
+		return (int) key & (capacity - 1);
+	}
+
+	/**
+	 * Look up the raw value of a position
+	 * @param key The key of the position
+	 * @return The raw value (value and distance), or -1 if the position is not in the table
+	 */
+	int lookup(long key) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int rank = (low + high) >>> 1;
+			long stored = keys[rank / KEYS_PER_CHUNK].getLong(8 * (rank % KEYS_PER_CHUNK));
+			if (stored < key) {
+				low = rank + 1;
+			} else if (stored > key) {
+				high = rank - 1;
+			} else {
+				return values.getShort(2 * rank) & 0xFFFF;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Value of a position for the side to move
+	 * @param game A 6x6 game
+	 * @return {@link EndgameTablebase#WIN}, {@link EndgameTablebase#LOSS}, {@link EndgameTablebase#DRAW},
+	 *         or {@link EndgameTablebase#UNKNOWN} if the position is not in the table
+	 */
+	public byte value(EnglishDraughts game) {
+		if (game.board.size != 6)
+			return EndgameTablebase.UNKNOWN;
+		int raw = lookup(key(game));
+		return raw < 0 ? EndgameTablebase.UNKNOWN : (byte) (raw >>> DISTANCE_BITS);
+	}
+
+	/**
+	 * Distance to the end of the game with a perfect play
+	 * @param game A 6x6 game
+	 * @return The number of plies, or -1 if the position is not in the table
+	 */
+	public int distance(EnglishDraughts game) {
+		if (game.board.size != 6)
+			return -1;
+		int raw = lookup(key(game));
+		return raw < 0 ? -1 : raw & ((1 << DISTANCE_BITS) - 1);
+	}
+}
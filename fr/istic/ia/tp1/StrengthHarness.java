@@ -0,0 +1,189 @@
+package fr.istic.ia.tp1;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fr.istic.ia.tp1.MainGameLoop.NamedSupplier;
+import fr.istic.ia.tp1.Tournament.MatchResult;
+
+/**
+ * Strength-versus-time regression harness: plays a match between a baseline and a candidate player at several
+ * time budgets per move, and reports the Elo difference of the candidate and the search speed of both players
+ * (playouts per second of thinking time) at each budget (as CSV).
+ *
+ * The games start from random openings drawn from a fixed seed, each opening being played twice with the colours
+ * swapped, so that two runs play the same openings. At equal time per move, the Elo difference measures the
+ * strength per CPU time. The harness exits with status 1 if, at any budget, the Elo difference of the candidate
+ * is below <code>-maxRegression</code>, or if its playouts per second are more than <code>maxSlowdown</code>
+ * (a fraction) below those of the baseline while it is not significantly stronger (the lower bound of its Elo
+ * interval is not positive).
+ *
+ * The player specifications are those of {@link MatchRunner#parsePlayer(String)}, without the time of the MCTS
+ * players (e.g. <code>mcts:rave</code>), which is set to each budget.
+ *
+ * Usage: <code>StrengthHarness --baseline spec --candidate spec [--times 100,500,2000] [--games 100] [--size 8]
+ * [--seed 1] [--opening-plies 6] [--threads n] [--max-plies 500] [--max-regression 30] [--max-slowdown 0.1]</code>
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class StrengthHarness {
+	/**
+	 * Set the time of a player specification
+	 * @param spec A player specification, with or without time
+	 * @param timeMillis The time per move, in milliseconds
+	 * @return The specification with this time if it is an MCTS player, the specification itself otherwise
+	 */
+	static String withTime(String spec, int timeMillis) {
+		String[] parts = spec.split(":");
+		if (!parts[0].equals("mcts"))
+			return spec;
+		StringBuilder sb = new StringBuilder("mcts:").append(timeMillis);
+		int first = parts.length > 1 && parts[1].matches("\\d+") ? 2 : 1;
+		for (int i = first; i < parts.length; ++i) {
+			sb.append(':').append(parts[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Draw distinct openings by playing random moves from the initial position
+	 * @param boardSize Size of the board
+	 * @param count Number of openings
+	 * @param plies Number of random moves of each opening
+	 * @param seed Seed of the random moves
+	 * @return The openings (fewer than <code>count</code> if the board has not enough distinct openings)
+	 */
+	static List<EnglishDraughts> openings(int boardSize, int count, int plies, long seed) {
+		Random random = new Random(seed);
+		List<EnglishDraughts> openings = new ArrayList<>();
+		Set<Long> hashes = new HashSet<>();
+		for (int attempt = 0; openings.size() < count && attempt < 100 * count; ++attempt) {
+			EnglishDraughts game = new EnglishDraughts(boardSize);
+			for (int ply = 0; ply < plies && !game.isTerminal(); ++ply) {
+				game.playIndex(random.nextInt(game.moveCount()));
+			}
+			if (!game.isTerminal() && hashes.add(game.hash())) {
+				openings.add(game);
+			}
+		}
+		return openings;
+	}
+
+	static String csvHeader() {
+		return "time_ms,games,wins,draws,losses,score,elo,elo_low,elo_high,baseline_ms_per_move,"
+				+ "candidate_ms_per_move,baseline_playouts_per_s,candidate_playouts_per_s";
+	}
+
+	/**
+	 * CSV line of a match result
+	 * @param timeMillis The time budget of the match
+	 * @param result The result, from the point of view of the candidate (first player)
+	 * @return The line
+	 */
+	static String toCsv(int timeMillis, MatchResult result) {
+		double score = Elo.score(result.wins, result.draws, result.losses);
+		double[] interval = Elo.confidenceInterval(result.wins, result.draws, result.losses);
+		return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%.4f,%.1f,%.1f,%.1f,%.2f,%.2f,%.0f,%.0f",
+				timeMillis, result.games(), result.wins, result.draws, result.losses, score, Elo.difference(score),
+				interval[0], interval[1], result.millisPerMove(1), result.millisPerMove(0),
+				result.playoutsPerSecond(1), result.playoutsPerSecond(0));
+	}
+
+	/**
+	 * Check a match result against the regression thresholds
+	 * @param timeMillis The time budget of the match
+	 * @param result The result, from the point of view of the candidate (first player)
+	 * @param maxRegression The largest accepted Elo loss of the candidate
+	 * @param maxSlowdown The largest accepted drop of the playouts per second of the candidate, as a fraction of
+	 *        those of the baseline, when the candidate is not significantly stronger
+	 * @return The description of the regression, or <code>null</code> if there is none
+	 */
+	static String regression(int timeMillis, MatchResult result, double maxRegression, double maxSlowdown) {
+		double elo = Elo.difference(Elo.score(result.wins, result.draws, result.losses));
+		if (elo < -maxRegression)
+			return String.format(Locale.ROOT, "Regression at %d ms per move: %.1f Elo (limit -%.1f)", timeMillis,
+					elo, maxRegression);
+		double baselineSpeed = result.playoutsPerSecond(1);
+		double candidateSpeed = result.playoutsPerSecond(0);
+		if (baselineSpeed > 0 && candidateSpeed < (1.0 - maxSlowdown) * baselineSpeed
+				&& Elo.confidenceInterval(result.wins, result.draws, result.losses)[0] <= 0)
+			return String.format(Locale.ROOT,
+					"Regression at %d ms per move: %.0f playouts/s instead of %.0f (limit -%.0f%%) for %.1f Elo",
+					timeMillis, candidateSpeed, baselineSpeed, 100 * maxSlowdown, elo);
+		return null;
+	}
+
+	/**
+	 * Harness entry point
+	 * @param args See the class documentation
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String baseline = null;
+		String candidate = null;
+		String times = "100,500,2000";
+		int games = 100;
+		int boardSize = 8;
+		long seed = 1;
+		int openingPlies = 6;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxPlies = 500;
+		double maxRegression = 30.0;
+		double maxSlowdown = 0.1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--baseline":       baseline = args[i+1]; break;
+			case "--candidate":      candidate = args[i+1]; break;
+			case "--times":          times = args[i+1]; break;
+			case "--games":          games = Integer.parseInt(args[i+1]); break;
+			case "--size":           boardSize = Integer.parseInt(args[i+1]); break;
+			case "--seed":           seed = Long.parseLong(args[i+1]); break;
+			case "--opening-plies":  openingPlies = Integer.parseInt(args[i+1]); break;
+			case "--threads":        threads = Integer.parseInt(args[i+1]); break;
+			case "--max-plies":      maxPlies = Integer.parseInt(args[i+1]); break;
+			case "--max-regression": maxRegression = Double.parseDouble(args[i+1]); break;
+			case "--max-slowdown":   maxSlowdown = Double.parseDouble(args[i+1]); break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(2);
+			}
+		}
+		if (baseline == null || candidate == null) {
+			System.err.println("Usage: StrengthHarness --baseline spec --candidate spec [--times 100,500,2000] "
+					+ "[--games 100] [--size 8] [--seed 1] [--opening-plies 6] [--threads n] [--max-plies 500] "
+					+ "[--max-regression 30] [--max-slowdown 0.1]");
+			System.exit(2);
+		}
+
+		List<EnglishDraughts> openings = openings(boardSize, (games + 1) / 2, openingPlies, seed);
+		games = Math.min(games, 2 * openings.size());
+		boolean regression = false;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			System.out.println(csvHeader());
+			for (String time : times.split(",")) {
+				int timeMillis = Integer.parseInt(time.trim());
+				NamedSupplier<Player> candidatePlayer = MatchRunner.parsePlayer(withTime(candidate, timeMillis));
+				NamedSupplier<Player> baselinePlayer = MatchRunner.parsePlayer(withTime(baseline, timeMillis));
+				MatchResult result = Tournament.playMatch(executor, candidatePlayer, baselinePlayer, boardSize, games,
+						maxPlies, openings, null);
+				System.out.println(toCsv(timeMillis, result));
+				String message = regression(timeMillis, result, maxRegression, maxSlowdown);
+				if (message != null) {
+					System.err.println(message);
+					regression = true;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.exit(regression ? 1 : 0);
+	}
+}
@@ -4,7 +4,15 @@ import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 
 
@@ -144,6 +152,224 @@ public class TestEnglishDraughts {
 		//"Duplicate moves", 
 	}
 	
+	@Test
+	public void testPossibleMovesMutipleTakeBlack() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(9,17,18), asList(), asList(6), asList());
+		draughts.playerId = PlayerId.TWO;
+		
+		List<Game.Move> initMoves = asList( 
+				newMove(draughts, asList(6,13,22)) );
+		List<Game.Move> moves = draughts.possibleMoves();
+		//"Black multiple take goes down", 
+		assertEquals(new HashSet<Game.Move>(initMoves), new HashSet<Game.Move>(moves));
+		//"Indexed moves", 
+		assertEquals(moves.size(), draughts.moveCount());
+		assertEquals(moves.get(0), draughts.moveAt(0));
+		draughts.playIndex(0);
+		assertEquals("2. W:W18:B22", draughts.toString());
+		assertEquals(PlayerId.ONE, draughts.player());
+	}
+	
+	@Test
+	public void testCanonicalMirror() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(9,17,18), asList(), asList(6), asList());
+		draughts.playerId = PlayerId.TWO;
+		EnglishDraughts canonical = draughts.canonical();
+		//"Whites to move in the canonical form", 
+		assertEquals(PlayerId.ONE, canonical.player());
+		assertEquals("1. W:W27:B15,16,24", canonical.toString());
+		assertEquals(canonical.hash(), draughts.canonicalHash());
+		assertEquals(draughts.hash(), canonical.mirror().hash());
+		//"Moves translated", 
+		assertEquals(asList(newMove(canonical, asList(27,20,11))), canonical.possibleMoves());
+		assertEquals(draughts.possibleMoves().get(0), draughts.canonicalMove(canonical.possibleMoves().get(0)));
+		//"Canonical form of a canonical position", 
+		assertSame(canonical, canonical.canonical());
+	}
+	
+	@Test
+	public void testSolverAndPerfectPlayer() throws Exception {
+		EnglishDraughts draughts = new EnglishDraughts(6);
+		setBoard(draughts.board, asList(14), asList(8), asList(4), asList());
+		Draughts6x6Solver solver = new Draughts6x6Solver();
+		long count = solver.enumerate(draughts);
+		//"Dense table of the reachable positions", 
+		assertEquals(count, solver.positions.length);
+		solver.solve();
+		Path file = Files.createTempFile("solved", ".bin");
+		try {
+			solver.write(file);
+			assertEquals(SolvedPositions.HEADER_SIZE + 10 * count, Files.size(file));
+			SolvedPositions table = new SolvedPositions(file);
+			assertEquals(EndgameTablebase.WIN, table.value(draughts));
+			assertEquals(EndgameTablebase.UNKNOWN, table.value(new EnglishDraughts(6)));
+			//"Perfect play wins in the distance of the table", 
+			int distance = table.distance(draughts);
+			PlayerPerfect perfect = new PlayerPerfect(table);
+			int plies = 0;
+			while (draughts.winner() == null && draughts.moveCount() > 0) {
+				draughts.play(perfect.play(draughts));
+				plies++;
+			}
+			assertEquals(PlayerId.ONE, draughts.winner() != null ? draughts.winner() : draughts.player().other());
+			assertEquals(distance, plies);
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testTablebaseSliceWrittenLater() throws Exception {
+		Path dir = Files.createTempDirectory("tb");
+		EndgameTablebase tablebase = new EndgameTablebase(dir, 2);
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(), asList(22), asList(), asList(10));
+		assertEquals(EndgameTablebase.UNKNOWN, tablebase.probe(draughts));
+		// The missing slice is remembered until the tablebase is refreshed
+		new EndgameTablebaseGenerator(dir, false).generate(2);
+		assertEquals(EndgameTablebase.UNKNOWN, tablebase.probe(draughts));
+		tablebase.refresh();
+		assertNotEquals(EndgameTablebase.UNKNOWN, tablebase.probe(draughts));
+	}
+	
+	@Test
+	public void testBatchAnalysisLines() {
+		BatchAnalysis analysis = new BatchAnalysis("random", 8, 1);
+		assertEquals("W:W22;none;1.0000;0", analysis.analyseOrError("W:W22", new PlayerRandom()));
+		assertTrue(analysis.analyseOrError("bogus", new PlayerRandom()).startsWith("bogus;error;"));
+		// A failing engine gives an error line instead of killing the worker
+		Player failing = game -> { throw new IllegalStateException("engine failure"); };
+		assertEquals("W:W21-32:B1-12;error;engine failure", analysis.analyseOrError("W:W21-32:B1-12", failing));
+	}
+	
+	@Test
+	public void testEngineServerErrors() throws Exception {
+		String commands = "go movetime\nnewgame 7\nnewgame 6\nisready\nquit\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		EngineServer server = new EngineServer();
+		server.new Session(new ByteArrayInputStream(commands.getBytes()), out).run();
+		server.executor.shutdownNow();
+		assertEquals(asList("error missing movetime value", "error unsupported board size 7", "readyok"),
+				asList(out.toString().split("\\R")));
+	}
+	
+	@Test
+	public void testSchedulerFairnessAndClose() {
+		try (SearchScheduler scheduler = new SearchScheduler(1)) {
+			// Warm-up: the first iterations of a JVM include the class initializations
+			assertNotNull(scheduler.submit(new MonteCarloTreeSearch(new EnglishDraughts(8)), 100, 0).result().join());
+			SearchScheduler.ScheduledSearch first = scheduler.submit(new MonteCarloTreeSearch(new EnglishDraughts(8)), 300, 0);
+			SearchScheduler.ScheduledSearch second = scheduler.submit(new MonteCarloTreeSearch(new EnglishDraughts(8)), 300, 0);
+			assertNotNull(first.result().join());
+			assertNotNull(second.result().join());
+			// Same deadline: the CPU is shared instead of going to the first search
+			assertTrue(second.cpuMillis() > (first.cpuMillis() + second.cpuMillis()) / 4);
+		}
+		SearchScheduler scheduler = new SearchScheduler(1);
+		SearchScheduler.ScheduledSearch running = scheduler.submit(new MonteCarloTreeSearch(new EnglishDraughts(8)), 60000, 0);
+		SearchScheduler.ScheduledSearch pending = scheduler.submit(new MonteCarloTreeSearch(new EnglishDraughts(8)), 60000, 0);
+		scheduler.close();
+		assertThrows(CompletionException.class, () -> pending.result().join());
+		assertThrows(CompletionException.class, () -> running.result().join());
+	}
+	
+	@Test
+	public void testTreeCheckpoint() throws Exception {
+		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new EnglishDraughts(8));
+		mcts.setVerbose(false);
+		Path file = Files.createTempFile("tree", ".ckpt");
+		// A snapshot at each iteration, encoded by steps while the search goes on
+		TreeCheckpoint checkpoint = new TreeCheckpoint(file, 0);
+		mcts.setCheckpoint(checkpoint);
+		for (int i = 0; i < 20; ++i) {
+			mcts.evaluateTreeWithTimeLimit(20);
+		}
+		checkpoint.close();
+		MonteCarloTreeSearch restored = TreeCheckpoint.read(file);
+		assertTrue(restored.treeSize > 1 && restored.treeSize <= mcts.treeSize);
+		// A complete snapshot of a stopped search is exact
+		TreeCheckpoint.write(mcts, file);
+		restored = TreeCheckpoint.read(file);
+		assertEquals(mcts.treeSize, restored.treeSize);
+		assertEquals(mcts.root.n, restored.root.n);
+		assertEquals(mcts.getBestMove(), restored.getBestMove());
+	}
+	
+	@Test
+	public void testNTupleEvaluator() {
+		NTupleEvaluator evaluator = new NTupleEvaluator(8);
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(9,17,18), asList(), asList(6), asList());
+		assertEquals(0.5, evaluator.evaluate(draughts), 1e-9);
+		evaluator.update(draughts, 1.0, 0.1);
+		double value = evaluator.evaluate(draughts);
+		//"Learned", 
+		assertTrue(value > 0.5);
+		//"Same value for the colour-flipped position", 
+		assertEquals(value, evaluator.evaluate(draughts.mirror()), 1e-9);
+	}
+	
+	@Test
+	public void testPerft() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		//"Known counts of the 8x8 board", 
+		assertEquals(36768, new Perft(0).perft(new EnglishDraughts(8), 6, pool));
+		assertEquals(36768, new Perft(12).perft(new EnglishDraughts(8), 6, pool));
+		pool.shutdown();
+	}
+	
+	@Test
+	public void testCaptureCacheSameMoves() {
+		// Random boards full of pawns: many captures, and more neighborhoods than cache slots
+		Random random = new Random(43);
+		byte[] values = { CheckerBoard.WHITE_CHECKER, CheckerBoard.WHITE_KING, CheckerBoard.BLACK_CHECKER, CheckerBoard.BLACK_KING };
+		long hits = 0;
+		for (int size = 4; size <= 10; size += 2) {
+			CaptureCache cache = CaptureCache.forSize(size);
+			hits -= cache.hits();
+			for (int i = 0; i < 3000; ++i) {
+				EnglishDraughts draughts = new EnglishDraughts(size);
+				clearBoard(draughts.board);
+				for (int square = 1; square <= draughts.board.nbPlayableTiles(); ++square) {
+					if (random.nextInt(3) > 0) {
+						draughts.board.set(square, values[random.nextInt(values.length)]);
+					}
+				}
+				draughts.playerId = random.nextBoolean() ? PlayerId.ONE : PlayerId.TWO;
+				EnglishDraughts uncached = draughts.clone();
+				uncached.cachedCaptures = false;
+				//"Same moves in the same order", 
+				assertEquals(uncached.possibleMoves(), draughts.possibleMoves());
+			}
+			hits += cache.hits();
+		}
+		assertTrue(hits > 0);
+		// Perft of a position with multiple captures for both sides
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(21,22,23,25,26,29,30), asList(17), asList(5,6,7,10,11,14), asList(15));
+		EnglishDraughts uncached = draughts.clone();
+		uncached.cachedCaptures = false;
+		assertEquals(new Perft(0).perft(uncached, 6, ForkJoinPool.commonPool()),
+				new Perft(0).perft(draughts, 6, ForkJoinPool.commonPool()));
+	}
+	
+	@Test
+	public void testBatchRollouts() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		// The only move of the whites takes the last black pawn
+		setBoard(draughts.board, asList(18), asList(), asList(draughts.board.neighborUpLeft(18)), asList());
+		MonteCarloTreeSearch.RolloutResults r = new BatchRollouts().rollOut(draughts, 20);
+		assertEquals(20, r.n);
+		assertEquals(20.0, r.win1);
+		assertEquals(20, r.plies);
+		// Random games from the start
+		r = new BatchRollouts().rollOut(new EnglishDraughts(8), 20);
+		assertEquals(20, r.n);
+		assertEquals(20.0, r.win1 + r.win2, 1e-9);
+	}
+	
 	@Test
 	public void testWinner() {
 		EnglishDraughts draughts = new EnglishDraughts(8);
@@ -168,6 +394,97 @@ public class TestEnglishDraughts {
 		assertEquals(PlayerId.NONE, draughts.winner());
 		//"Equality", 
 	}
+
+	@Test
+	public void testRepetitionDraw() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(), asList(22), asList(), asList(10));
+		EnglishDraughts withoutRule = draughts.clone();
+		draughts.setRepetitionLimit(1);
+		draughts.play(newMove(draughts, asList(22, 25))); // white king
+		draughts.play(newMove(draughts, asList(10, 7))); // black king
+		draughts.play(newMove(draughts, asList(25, 22))); // white king
+		assertEquals(null, draughts.winner());
+		draughts.play(newMove(draughts, asList(7, 10))); // black king: back to the initial position
+		assertEquals(PlayerId.NONE, draughts.winner());
+		//"Repetition", 
+		withoutRule.play(newMove(withoutRule, asList(22, 25)));
+		withoutRule.play(newMove(withoutRule, asList(10, 7)));
+		withoutRule.play(newMove(withoutRule, asList(25, 22)));
+		withoutRule.play(newMove(withoutRule, asList(7, 10)));
+		assertEquals(null, withoutRule.winner());
+	}
+	
+	@Test
+	public void testSearchStopsAtEndedGames() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(), asList(22), asList(), asList(10));
+		//"No repetition rule by default", 
+		assertEquals(0, ((EnglishDraughts) new MonteCarloTreeSearch(draughts).root.game).repetitionLimit);
+		draughts.setRepetitionLimit(1);
+		draughts.play(newMove(draughts, asList(22, 25))); // white king
+		draughts.play(newMove(draughts, asList(10, 7))); // black king
+		draughts.play(newMove(draughts, asList(25, 22))); // white king
+		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(draughts);
+		for (int i = 0; i < 200; ++i) {
+			assertFalse(mcts.evaluateTreeOnce());
+		}
+		MonteCarloTreeSearch.EvalNode drawn = null;
+		for (MonteCarloTreeSearch.EvalNode child : mcts.root.children) {
+			if (child.m.equals(newMove(draughts, asList(7, 10)))) {
+				drawn = child;
+			}
+		}
+		//"A repeated position is a draw, not expanded", 
+		assertNotNull(drawn);
+		assertTrue(drawn.children.isEmpty());
+		assertEquals(0.5, drawn.score(), 1e-9);
+		//"No search from an ended game", 
+		draughts.setRepetitionLimit(0);
+		for (int i = 0; i < 7; ++i) {
+			draughts.play(newMove(draughts, asList(7, 10))); // black king
+			draughts.play(newMove(draughts, asList(22, 25))); // white king
+			draughts.play(newMove(draughts, asList(10, 7))); // black king
+			draughts.play(newMove(draughts, asList(25, 22))); // white king
+		}
+		assertEquals(PlayerId.NONE, draughts.winner());
+		mcts = new MonteCarloTreeSearch(draughts);
+		assertTrue(mcts.evaluateTreeOnce());
+		assertTrue(mcts.root.children.isEmpty());
+	}
+	
+	@Test
+	public void testRaveBlendingAndBackPropagation() {
+		EnglishDraughts draughts = new EnglishDraughts(6);
+		MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(draughts, true);
+		MonteCarloTreeSearch.EvalNode node = mcts.root;
+		node.n = 100;
+		node.w = 60;
+		node.nAmaf = 40;
+		node.wAmaf = 10;
+		// The AMAF weight equals the score weight after RAVE_EQUIVALENCE simulations
+		double beta = Math.sqrt(MonteCarloTreeSearch.RAVE_EQUIVALENCE / (3.0 * 100 + MonteCarloTreeSearch.RAVE_EQUIVALENCE));
+		assertEquals((1.0 - beta) * 0.6 + beta * 0.25, node.value(), 1e-12);
+		mcts.rave = false;
+		assertEquals(0.6, node.value(), 1e-12);
+
+		// Each node is scored for the player who played its move, the root for its player to move
+		IndexedGame first = draughts.clone();
+		first.playIndex(0);
+		IndexedGame second = first.clone();
+		second.playIndex(0);
+		List<MonteCarloTreeSearch.EvalNode> path = asList(mcts.new EvalNode(draughts.clone()),
+				mcts.new EvalNode(first), mcts.new EvalNode(second));
+		MonteCarloTreeSearch.RolloutResults results = new MonteCarloTreeSearch.RolloutResults();
+		results.n = 4;
+		results.win1 = 3;
+		results.win2 = 1;
+		MonteCarloTreeSearch.backPropagate(path, results);
+		assertEquals(3.0, path.get(0).w);
+		assertEquals(3.0, path.get(1).w);
+		assertEquals(1.0, path.get(2).w);
+		assertEquals(4, path.get(2).n);
+	}
 	
 	@Test
 	public void testPlaySimpleMoves() {
@@ -216,4 +533,190 @@ public class TestEnglishDraughts {
 		//"Finish in 4 and get crowned", 
 		assertEquals(CheckerBoard.WHITE_KING, draughts.board.get(4));
 	}
+	
+	@Test
+	public void testFenRoundTrip() {
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(18,19), asList(10), asList(6,8,15), asList(7));
+		draughts.playerId = PlayerId.TWO;
+		String fen = PositionCodec.toFen(draughts);
+		assertEquals("B:WK10,18,19:B6,K7,8,15", fen);
+		EnglishDraughts parsed = PositionCodec.fromFen(fen, 8);
+		assertEquals(fen, PositionCodec.toFen(parsed));
+		assertEquals(draughts.hash(), parsed.hash());
+		//"toString output is accepted, with the turn number",
+		for (int size : new int[] { 6, 8, 10, 12 }) {
+			EnglishDraughts init = new EnglishDraughts(size);
+			assertEquals(init.toString(), PositionCodec.fromFen(init.toString(), size).toString());
+		}
+		//"PDN ranges and final dot",
+		assertEquals(new EnglishDraughts(8).hash(), PositionCodec.fromFen("W:W21-32:B1-12.", 8).hash());
+		assertThrows(IllegalArgumentException.class, () -> PositionCodec.fromFen("W:W33:B1", 8));
+	}
+	
+	@Test
+	public void testBinaryRoundTrip() {
+		assertEquals(16, PositionCodec.binarySize(8));
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		setBoard(draughts.board, asList(18,19), asList(10), asList(6,8,15), asList(7));
+		draughts.playerId = PlayerId.TWO;
+		draughts.nbTurn = 42;
+		draughts.nbKingMovesWithoutCapture = 3;
+		EnglishDraughts decoded = PositionCodec.decode(PositionCodec.encode(draughts));
+		assertEquals(draughts.toString(), decoded.toString());
+		assertEquals(draughts.hash(), decoded.hash());
+		assertEquals(3, decoded.nbKingMovesWithoutCapture);
+		for (int size : new int[] { 6, 10, 12 }) {
+			EnglishDraughts init = new EnglishDraughts(size);
+			assertEquals(init.toString(), PositionCodec.decode(PositionCodec.encode(init)).toString());
+		}
+	}
+	
+	@Test
+	public void testOpeningBookRoundTrip() throws Exception {
+		OpeningBookBuilder builder = new OpeningBookBuilder(6, 2, 10);
+		// A position with the blacks to move: stored under its canonical form (colours flipped)
+		EnglishDraughts blacks = new EnglishDraughts(6);
+		blacks.playIndex(0);
+		EnglishDraughts canonical = blacks.canonical();
+		OpeningBookBuilder.PositionStats stats = new OpeningBookBuilder.PositionStats(canonical.moveCount());
+		stats.searches = 2;
+		stats.n[1] = 30;
+		stats.w[1] = 21;
+		stats.n[0] = 10;
+		builder.positions.put(blacks.canonicalHash(), stats);
+		// A position searched once, left out of the book
+		OpeningBookBuilder.PositionStats once = new OpeningBookBuilder.PositionStats(1);
+		once.searches = 1;
+		builder.positions.put(new EnglishDraughts(6).canonicalHash(), once);
+		Path file = Files.createTempFile("book", ".bin");
+		assertEquals(1, builder.write(file, 2));
+
+		OpeningBook book = new OpeningBook(file);
+		assertEquals(1, book.size());
+		assertNull(book.probe(new EnglishDraughts(6)));
+		assertEquals(-1.0, book.score(new EnglishDraughts(6)));
+		// Both forms share the entry: the score of the most simulated move
+		assertEquals(0.7, book.score(canonical), 1e-4);
+		assertEquals(0.7, book.score(blacks), 1e-4);
+		// The canonical form gets the best move, the probed position gets it translated back
+		assertEquals(canonical.moveAt(1), book.probe(canonical));
+		Game.Move move = book.probe(blacks);
+		assertTrue(blacks.possibleMoves().contains(move));
+		blacks.play(move);
+		canonical.playIndex(1);
+		assertEquals(canonical.canonicalHash(), blacks.canonicalHash());
+	}
+	
+	@Test
+	public void testStrengthHarnessSetup() {
+		assertEquals("mcts:250:rave", StrengthHarness.withTime("mcts:rave", 250));
+		assertEquals("mcts:250:rave", StrengthHarness.withTime("mcts:1000:rave", 250));
+		assertEquals("random", StrengthHarness.withTime("random", 250));
+		List<EnglishDraughts> openings = StrengthHarness.openings(8, 20, 6, 1);
+		List<EnglishDraughts> again = StrengthHarness.openings(8, 20, 6, 1);
+		assertEquals(20, openings.size());
+		HashSet<Long> hashes = new HashSet<>();
+		for (int i = 0; i < openings.size(); ++i) {
+			assertEquals(openings.get(i).hash(), again.get(i).hash());
+			assertTrue(hashes.add(openings.get(i).hash()));
+		}
+		// The speed is counted in playouts, not in iterations
+		MatchRunner.GameRecord record = new MatchRunner.GameRecord();
+		record.winner = PlayerId.NONE;
+		record.thinkNanos[0] = record.thinkNanos[1] = 1000000000L;
+		record.playouts[0] = 5000;
+		record.playouts[1] = 10000;
+		Tournament.MatchResult result = new Tournament.MatchResult();
+		result.add(record, true);
+		assertEquals(5000.0, result.playoutsPerSecond(0), 1e-9);
+		//"Twice slower and not stronger", 
+		assertNotNull(StrengthHarness.regression(100, result, 30, 0.1));
+		assertNull(StrengthHarness.regression(100, result, 30, 0.6));
+		record.winner = PlayerId.ONE;
+		for (int i = 0; i < 20; ++i) {
+			result.add(record, true);
+		}
+		//"Slower but stronger", 
+		assertNull(StrengthHarness.regression(100, result, 30, 0.1));
+	}
+	
+	@Test
+	public void testEloValues() {
+		assertEquals(0.0, Elo.difference(0.5), 1e-9);
+		assertEquals(190.8485, Elo.difference(0.75), 1e-4);
+		assertEquals(-190.8485, Elo.difference(0.25), 1e-4);
+		assertEquals(0.6, Elo.score(5, 2, 3), 1e-12);
+		assertEquals(0.5, Elo.score(0, 0, 0));
+		// 6 wins and 4 losses: score 0.6 +- 1.96 * 0.1549
+		double[] interval = Elo.confidenceInterval(6, 0, 4);
+		assertEquals(-150.2093, interval[0], 1e-3);
+		assertEquals(388.8321, interval[1], 1e-3);
+		assertTrue(interval[0] < Elo.difference(0.6) && Elo.difference(0.6) < interval[1]);
+		// No game: no bound
+		assertArrayEquals(new double[] { Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY },
+				Elo.confidenceInterval(0, 0, 0));
+	}
+	
+	@Test
+	public void testPdnWriter() throws Exception {
+		MatchRunner.GameRecord record = new MatchRunner.GameRecord();
+		record.white = "mcts:100";
+		record.black = "random";
+		record.boardSize = 8;
+		record.winner = PlayerId.TWO;
+		record.moves.addAll(asList("9-14", "23-18", "14x23", "27x18"));
+		Path dir = Files.createTempDirectory("pdn");
+		try (PdnWriter pdn = new PdnWriter(dir.resolve("games.pdn"), 300, "Test")) {
+			String text = pdn.format(record, 1);
+			assertTrue(text.contains("[Result \"0-1\"]"));
+			assertTrue(text.endsWith("1. 9-14 23-18 2. 14x23 27x18 0-1\n\n"));
+			for (int i = 0; i < 3; ++i) {
+				pdn.submit(record);
+			}
+		}
+		// A file per game with the 300 bytes limit
+		assertTrue(Files.readString(dir.resolve("games.pdn")).contains("[Round \"1\"]"));
+		assertTrue(Files.readString(dir.resolve("games-1.pdn")).contains("[Round \"2\"]"));
+		assertTrue(Files.readString(dir.resolve("games-2.pdn")).contains("[Round \"3\"]"));
+	}
+	
+	@Test
+	public void testTrainingDataRoundTrip() throws Exception {
+		Path file = Files.createTempFile("samples", ".bin");
+		List<TrainingSample> written = new ArrayList<>();
+		EnglishDraughts draughts = new EnglishDraughts(8);
+		// About 80 KB per sample: the first game fills more than a write buffer
+		try (TrainingDataWriter writer = new TrainingDataWriter(file)) {
+			for (int game = 0; game < 2; ++game) {
+				List<TrainingSample> samples = new ArrayList<>();
+				for (int i = 0; i < 60; ++i) {
+					int[] visits = new int[20000 + i];
+					visits[i] = game * 1000 + i;
+					TrainingSample sample = new TrainingSample(draughts, visits);
+					sample.winner = i % 3 == 0 ? PlayerId.NONE : PlayerId.TWO;
+					samples.add(sample);
+					draughts.playIndex(0);
+					if (draughts.isTerminal()) {
+						draughts = new EnglishDraughts(8);
+					}
+				}
+				writer.submit(samples);
+				written.addAll(samples);
+				// Idle writer: the pending samples are written as a chunk of their own
+				Thread.sleep(3 * TrainingDataWriter.IDLE_FLUSH_MILLIS);
+			}
+		}
+		assertTrue(Files.size(file) > TrainingDataWriter.BUFFER_SIZE);
+		int i = 0;
+		try (TrainingDataReader reader = new TrainingDataReader(file)) {
+			for (TrainingSample sample : reader) {
+				TrainingSample expected = written.get(i++);
+				assertEquals(expected.toGame().hash(), sample.toGame().hash());
+				assertEquals(expected.winner, sample.winner);
+				assertArrayEquals(expected.visits, sample.visits);
+			}
+		}
+		assertEquals(written.size(), i);
+	}
 }
@@ -0,0 +1,288 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MainGameLoop.NamedSupplier;
+import fr.istic.ia.tp1.MatchRunner.GameRecord;
+
+/**
+ * Headless tournament runner: plays many games between two players in parallel, alternating colours,
+ * and reports the results as CSV or JSON (one line or object per board size).
+ * With <code>--pdn</code>, the games are also recorded in PDN files by a {@link PdnWriter},
+ * rotating to a new file every <code>--pdn-max-mb</code> megabytes.
+ *
+ * Usage: <code>Tournament --p1 spec --p2 spec [--sizes 8,10] [--games 100] [--threads n]
+ * [--max-plies 500] [--format csv|json] [--pdn file] [--pdn-max-mb 64]</code>
+ * (see {@link MatchRunner#parsePlayer(String)} for the player specifications).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class Tournament {
+	/**
+	 * Aggregated results of a match, from the point of view of the first player
+	 */
+	static class MatchResult {
+		String player1;
+		String player2;
+		int boardSize;
+		int wins;
+		int draws;
+		int losses;
+		int adjudicated;
+		long plies;
+		long[] thinkNanos = new long[2];
+		long[] nbMoves = new long[2];
+		long[] playouts = new long[2];
+
+		/**
+		 * Add a game to the results
+		 * @param record The record of the game
+		 * @param player1White <code>true</code> if the first player had the whites
+		 */
+		void add(GameRecord record, boolean player1White) {
+			PlayerId player1 = player1White ? PlayerId.ONE : PlayerId.TWO;
+			if (record.winner == player1) {
+				wins++;
+			} else if (record.winner == PlayerId.NONE) {
+				draws++;
+			} else {
+				losses++;
+			}
+			if (record.adjudicated) {
+				adjudicated++;
+			}
+			plies += record.moves.size();
+			int white = player1White ? 0 : 1;
+			thinkNanos[white] += record.thinkNanos[0];
+			nbMoves[white] += record.nbMoves[0];
+			playouts[white] += record.playouts[0];
+			thinkNanos[1 - white] += record.thinkNanos[1];
+			nbMoves[1 - white] += record.nbMoves[1];
+			playouts[1 - white] += record.playouts[1];
+		}
+
+		int games() {
+			return wins + draws + losses;
+		}
+
+		double millisPerMove(int player) {
+			return nbMoves[player] == 0 ? 0.0 : thinkNanos[player] / 1e6 / nbMoves[player];
+		}
+
+		double playoutsPerSecond(int player) {
+			return thinkNanos[player] == 0 ? 0.0 : playouts[player] * 1e9 / thinkNanos[player];
+		}
+
+		static String csvHeader() {
+			return "size,player1,player2,games,wins,draws,losses,adjudicated,score,elo,elo_low,elo_high,"
+					+ "player1_ms_per_move,player2_ms_per_move,avg_plies";
+		}
+
+		String toCsv() {
+			double[] interval = Elo.confidenceInterval(wins, draws, losses);
+			return String.format(Locale.ROOT, "%d,%s,%s,%d,%d,%d,%d,%d,%.4f,%.1f,%.1f,%.1f,%.2f,%.2f,%.1f",
+					boardSize, player1, player2, games(), wins, draws, losses, adjudicated,
+					Elo.score(wins, draws, losses), Elo.difference(Elo.score(wins, draws, losses)),
+					interval[0], interval[1], millisPerMove(0), millisPerMove(1), (double) plies / games());
+		}
+
+		String toJson() {
+			double[] interval = Elo.confidenceInterval(wins, draws, losses);
+			return String.format(Locale.ROOT, "{\"size\": %d, \"player1\": %s, \"player2\": %s, "
+					+ "\"games\": %d, \"wins\": %d, \"draws\": %d, \"losses\": %d, \"adjudicated\": %d, "
+					+ "\"score\": %s, \"elo\": %s, \"elo_low\": %s, \"elo_high\": %s, "
+					+ "\"player1_ms_per_move\": %.2f, \"player2_ms_per_move\": %.2f, \"avg_plies\": %s}",
+					boardSize, jsonString(player1), jsonString(player2), games(), wins, draws, losses, adjudicated,
+					jsonNumber("%.4f", Elo.score(wins, draws, losses)),
+					jsonNumber("%.1f", Elo.difference(Elo.score(wins, draws, losses))),
+					jsonNumber("%.1f", interval[0]), jsonNumber("%.1f", interval[1]),
+					millisPerMove(0), millisPerMove(1), jsonNumber("%.1f", (double) plies / games()));
+		}
+
+		/**
+		 * JSON string literal
+		 * @param value
+		 * @return The value between quotes, with the quotes, backslashes and control characters escaped
+		 */
+		static String jsonString(String value) {
+			StringBuilder builder = new StringBuilder("\"");
+			for (char c : value.toCharArray()) {
+				if (c == '"' || c == '\\') {
+					builder.append('\\').append(c);
+				} else if (c < 0x20) {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+			return builder.append('"').toString();
+		}
+
+		/**
+		 * JSON number
+		 * @param format The format of a finite value
+		 * @param value
+		 * @return The formatted value, or <code>null</code> if it is not finite (e.g. without any game)
+		 */
+		static String jsonNumber(String format, double value) {
+			return Double.isFinite(value) ? String.format(Locale.ROOT, format, value) : "null";
+		}
+	}
+
+	/**
+	 * A finished game, with the colour of the first player
+	 */
+	static class PlayedGame {
+		final GameRecord record;
+		final boolean player1White;
+
+		PlayedGame(GameRecord record, boolean player1White) {
+			this.record = record;
+			this.player1White = player1White;
+		}
+	}
+
+	/**
+	 * Play a match on a pool of threads
+	 * @param executor The pool of threads
+	 * @param player1 Factory of the first player
+	 * @param player2 Factory of the second player
+	 * @param boardSize Size of the board
+	 * @param games Number of games (the first player has the whites in the even games)
+	 * @param maxPlies Plies limit of each game
+	 * @return The results of the match
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a game failed
+	 */
+	static MatchResult playMatch(ExecutorService executor, NamedSupplier<Player> player1,
+			NamedSupplier<Player> player2, int boardSize, int games, int maxPlies)
+			throws InterruptedException, ExecutionException, IOException {
+		return playMatch(executor, player1, player2, boardSize, games, maxPlies, null, null);
+	}
+
+	/**
+	 * Play a match from given openings on a pool of threads: each opening is played twice, once with each
+	 * player on the whites
+	 * @param executor The pool of threads
+	 * @param player1 Factory of the first player
+	 * @param player2 Factory of the second player
+	 * @param boardSize Size of the board
+	 * @param games Number of games (the first player has the whites in the even games)
+	 * @param maxPlies Plies limit of each game
+	 * @param openings The initial position of the games 2i and 2i+1 at index i (not modified),
+	 * or <code>null</code> to start from the initial position of the board
+	 * @param pdn The writer recording the games, in the order of the games, or <code>null</code> not to record them
+	 * @return The results of the match
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a game failed
+	 * @throws IOException if the games cannot be recorded
+	 */
+	static MatchResult playMatch(ExecutorService executor, NamedSupplier<Player> player1,
+			NamedSupplier<Player> player2, int boardSize, int games, int maxPlies, List<EnglishDraughts> openings,
+			PdnWriter pdn) throws InterruptedException, ExecutionException, IOException {
+		List<Future<PlayedGame>> futures = new ArrayList<>();
+		for (int i = 0; i < games; ++i) {
+			final boolean player1White = i % 2 == 0;
+			final EnglishDraughts start = openings == null ? new EnglishDraughts(boardSize) : openings.get(i / 2).clone();
+			final String fen = openings == null ? null : PositionCodec.toFen(start);
+			futures.add(executor.submit(() -> {
+				Player white = player1White ? player1.get() : player2.get();
+				Player black = player1White ? player2.get() : player1.get();
+				GameRecord record = MatchRunner.play(start, white, black, maxPlies);
+				record.boardSize = boardSize;
+				record.white = player1White ? player1.toString() : player2.toString();
+				record.black = player1White ? player2.toString() : player1.toString();
+				record.fen = fen;
+				return new PlayedGame(record, player1White);
+			}));
+		}
+		MatchResult result = new MatchResult();
+		result.player1 = player1.toString();
+		result.player2 = player2.toString();
+		result.boardSize = boardSize;
+		for (Future<PlayedGame> future : futures) {
+			PlayedGame game = future.get();
+			result.add(game.record, game.player1White);
+			if (pdn != null) {
+				pdn.submit(game.record);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tournament entry point
+	 * @param args See the class documentation
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String spec1 = null;
+		String spec2 = null;
+		String sizes = "8";
+		int games = 100;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxPlies = 500;
+		String format = "csv";
+		String pdnFile = null;
+		int pdnMaxMegabytes = (int) (PdnWriter.DEFAULT_MAX_FILE_BYTES >> 20);
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--p1":        spec1 = args[i+1]; break;
+			case "--p2":        spec2 = args[i+1]; break;
+			case "--sizes":     sizes = args[i+1]; break;
+			case "--games":     games = Integer.parseInt(args[i+1]); break;
+			case "--threads":   threads = Integer.parseInt(args[i+1]); break;
+			case "--max-plies": maxPlies = Integer.parseInt(args[i+1]); break;
+			case "--format":    format = args[i+1]; break;
+			case "--pdn":       pdnFile = args[i+1]; break;
+			case "--pdn-max-mb": pdnMaxMegabytes = Integer.parseInt(args[i+1]); break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				return;
+			}
+		}
+		if (spec1 == null || spec2 == null) {
+			System.err.println("Usage: Tournament --p1 spec --p2 spec [--sizes 8,10] [--games 100] [--threads n] "
+					+ "[--max-plies 500] [--format csv|json] [--pdn file] [--pdn-max-mb 64]");
+			return;
+		}
+		NamedSupplier<Player> player1 = MatchRunner.parsePlayer(spec1);
+		NamedSupplier<Player> player2 = MatchRunner.parsePlayer(spec2);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		PdnWriter pdn = pdnFile == null ? null
+				: new PdnWriter(Paths.get(pdnFile), (long) pdnMaxMegabytes << 20, spec1 + " vs " + spec2);
+		try {
+			boolean json = format.equals("json");
+			System.out.println(json ? "[" : MatchResult.csvHeader());
+			String[] boardSizes = sizes.split(",");
+			for (int i = 0; i < boardSizes.length; ++i) {
+				MatchResult result = playMatch(executor, player1, player2, Integer.parseInt(boardSizes[i].trim()),
+						games, maxPlies, null, pdn);
+				if (json) {
+					System.out.println("  " + result.toJson() + (i + 1 < boardSizes.length ? "," : ""));
+				} else {
+					System.out.println(result.toCsv());
+				}
+			}
+			if (json) {
+				System.out.println("]");
+			}
+		} finally {
+			executor.shutdown();
+			if (pdn != null) {
+				pdn.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reader of the files written by {@link TrainingDataWriter}.
+ * The file is iterated chunk by chunk, each chunk being memory-mapped.
+ * @author Le Dourner/Guerin
+ *
+ */
+public class TrainingDataReader implements Iterable<TrainingSample>, AutoCloseable {
+	/** The input file */
+	private final FileChannel channel;
+
+	/**
+	 * Open a file of training samples
+	 * @param file
+	 * @throws IOException
+	 */
+	public TrainingDataReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+	}
+
+	@Override
+	public Iterator<TrainingSample> iterator() {
+		return new Iterator<TrainingSample>() {
+			/** Offset of the next chunk in the file */
+			long offset = 0;
+
+			/** The current chunk */
+			MappedByteBuffer chunk;
+
+			/** Number of records left in the current chunk */
+			int remaining = 0;
+
+			@Override
+			public boolean hasNext() {
+				try {
+					while (remaining == 0) {
+						if (offset + TrainingDataWriter.CHUNK_HEADER_SIZE > channel.size())
+							return false;
+						ByteBuffer header = ByteBuffer.allocate(TrainingDataWriter.CHUNK_HEADER_SIZE);
+						while (header.hasRemaining()) {
+							channel.read(header, offset + header.position());
+						}
+						header.flip();
+						if (header.getInt() != TrainingDataWriter.CHUNK_MAGIC)
+							throw new IOException("Corrupted training data at offset " + offset);
+						remaining = header.getInt();
+						int length = header.getInt();
+						chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+								offset + TrainingDataWriter.CHUNK_HEADER_SIZE, length);
+						offset += TrainingDataWriter.CHUNK_HEADER_SIZE + length;
+					}
+					return true;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public TrainingSample next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				remaining--;
+				return TrainingSample.read(chunk);
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
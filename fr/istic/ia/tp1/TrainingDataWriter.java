@@ -0,0 +1,163 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only writer of {@link TrainingSample}s, shared by concurrent self-play games.
+ *
+ * Games submit their samples to a bounded queue; a single writer thread packs them in a large direct
+ * buffer and appends it to the file as a chunk (magic, number of records, number of bytes, records)
+ * when it is full, or when no game has submitted anything for a while. The games thus never wait for
+ * the disk, unless the queue is full.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class TrainingDataWriter implements AutoCloseable {
+	/** Magic number at the beginning of each chunk ("EDTD") */
+	static final int CHUNK_MAGIC = 0x45445444;
+
+	/** Size of the header of a chunk: magic, number of records, number of bytes of the records */
+	static final int CHUNK_HEADER_SIZE = 12;
+
+	/** Size of the write buffer (maximal size of a chunk) */
+	static final int BUFFER_SIZE = 4 << 20;
+
+	/** Time without submission after which the pending samples are written, in milliseconds */
+	static final long IDLE_FLUSH_MILLIS = 200;
+
+	/** Marker of the end of the submissions */
+	private static final List<TrainingSample> END = new ArrayList<>();
+
+	/** The output file */
+	private final FileChannel channel;
+
+	/** The games waiting to be written */
+	private final BlockingQueue<List<TrainingSample>> queue = new ArrayBlockingQueue<>(1024);
+
+	/** The writer thread */
+	private final Thread writer;
+
+	/** The error of the writer thread, if any */
+	private volatile IOException failure;
+
+	/**
+	 * Open a file for appending samples, and start the writer thread
+	 * @param file
+	 * @throws IOException
+	 */
+	public TrainingDataWriter(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		writer = new Thread(this::writeLoop, "training-data-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Submit the samples of a finished game
+	 * @param samples
+	 * @throws InterruptedException if interrupted while the queue is full
+	 * @throws IOException if the writer thread failed
+	 */
+	public void submit(List<TrainingSample> samples) throws InterruptedException, IOException {
+		checkWriter();
+		// The writer thread may stop while the queue is full: nobody would take the samples
+		while (!queue.offer(samples, IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkWriter();
+		}
+	}
+
+	/**
+	 * Check that the writer thread still takes the submissions
+	 * @throws IOException if the writer thread failed or stopped
+	 */
+	private void checkWriter() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (!writer.isAlive())
+			throw new IOException("The training data writer thread has stopped");
+	}
+
+	/**
+	 * Main loop of the writer thread
+	 */
+	private void writeLoop() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.position(CHUNK_HEADER_SIZE);
+		int count = 0;
+		try {
+			while (true) {
+				List<TrainingSample> samples = queue.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+				if (samples == END)
+					break;
+				if (samples == null) {
+					count = writeChunk(buffer, count);
+					continue;
+				}
+				for (TrainingSample sample : samples) {
+					if (buffer.remaining() < sample.size()) {
+						count = writeChunk(buffer, count);
+					}
+					sample.write(buffer);
+					count++;
+				}
+			}
+			writeChunk(buffer, count);
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Append the buffered records to the file as a chunk, and reset the buffer
+	 * @param buffer The buffer, with the records after the space reserved for the header
+	 * @param count The number of records in the buffer
+	 * @return The new number of records in the buffer (0)
+	 * @throws IOException
+	 */
+	private int writeChunk(ByteBuffer buffer, int count) throws IOException {
+		if (count == 0)
+			return 0;
+		buffer.putInt(0, CHUNK_MAGIC);
+		buffer.putInt(4, count);
+		buffer.putInt(8, buffer.position() - CHUNK_HEADER_SIZE);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		buffer.position(CHUNK_HEADER_SIZE);
+		return 0;
+	}
+
+	/**
+	 * Write the pending samples and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			// A writer thread stopped on an error does not take the end marker
+			while (writer.isAlive() && !queue.offer(END, IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+			}
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null)
+			throw failure;
+	}
+}
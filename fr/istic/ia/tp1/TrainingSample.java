@@ -0,0 +1,133 @@
+package fr.istic.ia.tp1;
+
+import java.nio.ByteBuffer;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+
+/**
+ * A training position from a self-play game: the board, the player to move, the visit distribution
+ * of the search at the root, and the final result of the game.
+ *
+ * Binary layout (big-endian), for boards with at most 64 tiles:
+ * white mask, black mask and king mask (8 bytes each, see {@link CheckerBoard#whiteMask()}),
+ * board size, player to move and winner (1 byte each, 0 for {@link PlayerId#NONE}, 1 and 2 for the players),
+ * number of moves (2 bytes), then the number of simulations of each move (4 bytes each),
+ * indexed as in {@link Game#possibleMoves()}.
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class TrainingSample {
+	/** Size of the fixed part of a record */
+	static final int FIXED_SIZE = 3 * 8 + 3 + 2;
+
+	/** Maximal number of tiles of the boards (one bit per tile in the masks) */
+	static final int MAX_TILES = 64;
+
+	/** Bit mask of the white pawns */
+	long white;
+
+	/** Bit mask of the black pawns */
+	long black;
+
+	/** Bit mask of the kings */
+	long kings;
+
+	/** Size of the board */
+	int boardSize;
+
+	/** The player to move */
+	PlayerId player;
+
+	/** The winner of the game */
+	PlayerId winner;
+
+	/** Number of simulations of each move of the position */
+	int[] visits;
+
+	/**
+	 * Build a sample from a game state and a visit distribution (the winner is set at the end of the game)
+	 * @param game The game state
+	 * @param visits The number of simulations of each move (see {@link MonteCarloTreeSearch#rootVisits()})
+	 * @throws IllegalArgumentException if the board has more than {@link #MAX_TILES} tiles
+	 */
+	TrainingSample(EnglishDraughts game, int[] visits) {
+		if (!supports(game.board.size))
+			throw new IllegalArgumentException("Training samples need at most " + MAX_TILES + " tiles: "
+					+ game.board.size + "x" + game.board.size);
+		this.white = game.board.whiteMask();
+		this.black = game.board.blackMask();
+		this.kings = game.board.kingMask();
+		this.boardSize = game.board.size;
+		this.player = game.player();
+		this.visits = visits;
+	}
+
+	/**
+	 * Check if the samples can record the positions of a board size
+	 * @param boardSize
+	 * @return <code>true</code> if the board has at most {@link #MAX_TILES} tiles
+	 */
+	static boolean supports(int boardSize) {
+		// Half of the squares are playable
+		return boardSize * boardSize / 2 <= MAX_TILES;
+	}
+
+	/**
+	 * Empty sample, filled by {@link #read(ByteBuffer)}
+	 */
+	TrainingSample() {
+	}
+
+	/**
+	 * Size of the record of the sample
+	 * @return The number of bytes written by {@link #write(ByteBuffer)}
+	 */
+	int size() {
+		return FIXED_SIZE + 4 * visits.length;
+	}
+
+	/**
+	 * Set up the game state of the sample
+	 * @return A new game with the position of the sample
+	 */
+	public EnglishDraughts toGame() {
+		EnglishDraughts game = new EnglishDraughts(boardSize);
+		game.board.setFromMasks(white, black, kings);
+		game.playerId = player;
+		return game;
+	}
+
+	/**
+	 * Write the record of the sample
+	 * @param buffer
+	 */
+	void write(ByteBuffer buffer) {
+		buffer.putLong(white).putLong(black).putLong(kings);
+		buffer.put((byte) boardSize).put((byte) player.ordinal()).put((byte) winner.ordinal());
+		buffer.putShort((short) visits.length);
+		for (int count : visits) {
+			buffer.putInt(count);
+		}
+	}
+
+	/**
+	 * Read a record
+	 * @param buffer
+	 * @return The sample
+	 */
+	static TrainingSample read(ByteBuffer buffer) {
+		TrainingSample sample = new TrainingSample();
+		sample.white = buffer.getLong();
+		sample.black = buffer.getLong();
+		sample.kings = buffer.getLong();
+		sample.boardSize = buffer.get();
+		sample.player = PlayerId.values()[buffer.get()];
+		sample.winner = PlayerId.values()[buffer.get()];
+		sample.visits = new int[buffer.getShort()];
+		for (int i = 0; i < sample.visits.length; ++i) {
+			sample.visits[i] = buffer.getInt();
+		}
+		return sample;
+	}
+}
@@ -0,0 +1,336 @@
+package fr.istic.ia.tp1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.istic.ia.tp1.Game.PlayerId;
+import fr.istic.ia.tp1.MonteCarloTreeSearch.EvalNode;
+
+/**
+ * Checkpoints of {@link MonteCarloTreeSearch} trees on {@link EnglishDraughts}, to resume long analyses.
+ *
+ * File layout (big-endian): a 16-byte header (magic "EDMC", version, number of nodes, RAVE flag), the root
+ * position in the binary form of {@link PositionCodec}, then the nodes in depth-first order. Each node is
+ * stored as its move (number of squares on 1 byte, then the squares on 1 byte each; no square for the root),
+ * its stats (n, w, nAmaf, wAmaf), its tablebase result (0 if unknown, 1 + {@link PlayerId#ordinal()} otherwise)
+ * and its number of children on 2 bytes. The game states are rebuilt by playing the moves from the root.
+ *
+ * A checkpoint attached to a search with {@link MonteCarloTreeSearch#setCheckpoint(TreeCheckpoint)} saves
+ * the tree periodically without pausing the search: the encoding of a snapshot is spread over the following
+ * iterations, at most {@link #NODES_PER_STEP} nodes after each iteration, and a background thread then writes
+ * it to a temporary file which replaces the checkpoint file, so that the file is always complete.
+ * Such a snapshot is fuzzy: each node is saved with its stats at the time it is encoded, and the children
+ * added to a node after it was encoded are left out (they are saved by the next checkpoint).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+public class TreeCheckpoint implements AutoCloseable {
+	/** Magic number of the files ("EDMC") */
+	static final int MAGIC = 0x45444D43;
+
+	/** Version of the file format */
+	static final int VERSION = 1;
+
+	/** Size of the header */
+	static final int HEADER_SIZE = 16;
+
+	/** Size of a node without its move squares */
+	static final int NODE_SIZE = 1 + 4 + 8 + 4 + 8 + 1 + 2;
+
+	/** Maximal number of nodes encoded after an iteration of the search */
+	static final int NODES_PER_STEP = 1024;
+
+	/** Size of the buffers of an encoded tree */
+	static final int CHUNK_SIZE = 1 << 18;
+
+	/** The checkpoint file */
+	final Path file;
+
+	/** Minimal delay between two checkpoints, in nanoseconds */
+	final long intervalNanos;
+
+	/** Time of the last checkpoint */
+	private long lastCheckpoint = System.nanoTime();
+
+	/** The snapshot being encoded, or <code>null</code> */
+	private Snapshot snapshot;
+
+	/** Set while a checkpoint is being written */
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	/** The writer thread of the last checkpoint */
+	private Thread writer;
+
+	/** The error of the last write, if any */
+	private volatile IOException failure;
+
+	/**
+	 * Periodic checkpoints of a search
+	 * @param file The checkpoint file
+	 * @param intervalMillis Minimal delay between two checkpoints, in milliseconds
+	 */
+	public TreeCheckpoint(Path file, int intervalMillis) {
+		this.file = file;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+	}
+
+	/**
+	 * Called by the search after each iteration: start a snapshot if the interval has elapsed and the previous
+	 * checkpoint is written, continue the encoding of the current snapshot, and write it once complete
+	 * @param mcts The search
+	 */
+	void afterIteration(MonteCarloTreeSearch mcts) {
+		if (snapshot == null) {
+			long now = System.nanoTime();
+			if (now - lastCheckpoint < intervalNanos || writing.get())
+				return;
+			lastCheckpoint = now;
+			snapshot = new Snapshot(mcts);
+		}
+		if (!snapshot.encode(NODES_PER_STEP))
+			return;
+		ByteBuffer[] buffers = snapshot.finish();
+		snapshot = null;
+		writing.set(true);
+		writer = new Thread(() -> {
+			try {
+				writeAtomically(buffers, file);
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				writing.set(false);
+			}
+		}, "tree-checkpoint");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Wait for the pending checkpoint to be written, and write the snapshot being encoded, if any
+	 * (to be called once the search is over)
+	 * @throws IOException if a checkpoint could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure != null)
+			throw failure;
+		if (snapshot != null) {
+			snapshot.encode(Integer.MAX_VALUE);
+			writeAtomically(snapshot.finish(), file);
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Save a tree
+	 * @param mcts The search (its root state must be an {@link EnglishDraughts})
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(MonteCarloTreeSearch mcts, Path file) throws IOException {
+		writeAtomically(encode(mcts), file);
+	}
+
+	/**
+	 * Write buffers to a temporary file, then move it to its destination
+	 * @param buffers
+	 * @param file
+	 * @throws IOException
+	 */
+	private static void writeAtomically(ByteBuffer[] buffers, Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffers[buffers.length - 1].hasRemaining()) {
+				channel.write(buffers);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Encode a tree at once
+	 * @param mcts The search (its root state must be an {@link EnglishDraughts})
+	 * @return The content of the checkpoint file, ready to be written
+	 */
+	static ByteBuffer[] encode(MonteCarloTreeSearch mcts) {
+		Snapshot snapshot = new Snapshot(mcts);
+		snapshot.encode(Integer.MAX_VALUE);
+		return snapshot.finish();
+	}
+
+	/**
+	 * A tree being encoded, in depth-first order, by steps of a bounded number of nodes.
+	 * The children of the nodes only grow, so the nodes of a step stay valid while the search goes on
+	 * between the steps.
+	 */
+	static class Snapshot {
+		/** The encoded nodes, in buffers of {@link TreeCheckpoint#CHUNK_SIZE} */
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+
+		/** The nodes still to encode (children are pushed in reverse order to be written in order) */
+		private final ArrayDeque<EvalNode> stack = new ArrayDeque<>();
+
+		/** Number of encoded nodes */
+		private int nodes;
+
+		/**
+		 * Start the snapshot of a tree: header and root position
+		 * @param mcts The search (its root state must be an {@link EnglishDraughts})
+		 */
+		Snapshot(MonteCarloTreeSearch mcts) {
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+			// The number of nodes is set by finish()
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(mcts.rave ? 1 : 0);
+			PositionCodec.encode((EnglishDraughts) mcts.root.game, buffer);
+			buffers.add(buffer);
+			stack.push(mcts.root);
+		}
+
+		/**
+		 * Encode the next nodes
+		 * @param maxNodes The maximal number of nodes to encode
+		 * @return <code>true</code> if the whole tree is encoded
+		 */
+		boolean encode(int maxNodes) {
+			for (int k = 0; k < maxNodes && !stack.isEmpty(); ++k) {
+				EvalNode node = stack.pop();
+				EnglishDraughts.DraughtsMove move = (EnglishDraughts.DraughtsMove) node.m;
+				ByteBuffer buffer = buffers.get(buffers.size() - 1);
+				if (buffer.remaining() < NODE_SIZE + (move == null ? 0 : move.size())) {
+					buffer = ByteBuffer.allocate(CHUNK_SIZE);
+					buffers.add(buffer);
+				}
+				if (move == null) {
+					buffer.put((byte) 0);
+				} else {
+					buffer.put((byte) move.size());
+					for (int square : move) {
+						buffer.put((byte) square);
+					}
+				}
+				buffer.putInt(node.n).putDouble(node.w).putInt(node.nAmaf).putDouble(node.wAmaf);
+				buffer.put((byte) (node.solved == null ? 0 : 1 + node.solved.ordinal()));
+				// The children added from now on are not in this snapshot
+				int children = node.children.size();
+				buffer.putShort((short) children);
+				for (int i = children - 1; i >= 0; --i) {
+					stack.push(node.children.get(i));
+				}
+				nodes++;
+			}
+			return stack.isEmpty();
+		}
+
+		/**
+		 * End the encoding
+		 * @return The content of the checkpoint file, ready to be written
+		 */
+		ByteBuffer[] finish() {
+			buffers.get(0).putInt(8, nodes);
+			for (ByteBuffer buffer : buffers) {
+				buffer.flip();
+			}
+			return buffers.toArray(new ByteBuffer[0]);
+		}
+	}
+
+	/**
+	 * A node being restored, with its number of children still to read
+	 */
+	private static class Frame {
+		final EvalNode node;
+		int remaining;
+
+		Frame(EvalNode node, int remaining) {
+			this.node = node;
+			this.remaining = remaining;
+		}
+	}
+
+	/**
+	 * Restore a tree
+	 * @param file A checkpoint file
+	 * @return A search with the saved tree, ready to continue
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	public static MonteCarloTreeSearch read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("Not a tree checkpoint: " + file);
+			int nodes = buffer.getInt();
+			boolean rave = buffer.getInt() != 0;
+			EnglishDraughts rootGame = PositionCodec.decode(buffer);
+
+			MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(rootGame, rave);
+			ArrayDeque<Frame> stack = new ArrayDeque<>();
+			buffer.get(); // no move for the root
+			int rootChildren = readStats(buffer, mcts.root);
+			stack.push(new Frame(mcts.root, rootChildren));
+			while (!stack.isEmpty()) {
+				Frame frame = stack.peek();
+				if (frame.remaining == 0) {
+					stack.pop();
+					continue;
+				}
+				frame.remaining--;
+				EnglishDraughts game = (EnglishDraughts) frame.node.game.clone();
+				EnglishDraughts.DraughtsMove move = game.new DraughtsMove();
+				int length = buffer.get();
+				for (int i = 0; i < length; ++i) {
+					move.add((int) buffer.get());
+				}
+				int index = frame.node.game.indexOf(move);
+				if (index < 0)
+					throw new IOException("Illegal move " + move + " in " + file);
+				long key = frame.node.game.moveKey(index);
+				game.play(move);
+				EvalNode child = mcts.new EvalNode(game, move, index, key);
+				int children = readStats(buffer, child);
+				frame.node.children.add(child);
+				stack.push(new Frame(child, children));
+			}
+			mcts.nTotal = mcts.root.n;
+			mcts.treeSize = nodes;
+			return mcts;
+		}
+	}
+
+	/**
+	 * Read the stats of a node
+	 * @param buffer
+	 * @param node
+	 * @return The number of children of the node
+	 */
+	private static int readStats(ByteBuffer buffer, EvalNode node) {
+		node.n = buffer.getInt();
+		node.w = buffer.getDouble();
+		node.nAmaf = buffer.getInt();
+		node.wAmaf = buffer.getDouble();
+		int solved = buffer.get();
+		node.solved = solved == 0 ? null : PlayerId.values()[solved - 1];
+		int children = buffer.getShort() & 0xFFFF;
+		node.children = new ArrayList<>(children);
+		return children;
+	}
+}
@@ -0,0 +1,71 @@
+package fr.istic.ia.tp1;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernel of the {@link BatchRollouts}, on the <code>jdk.incubator.vector</code> module: each vector
+ * operation handles as many games as the CPU has long lanes (4 with AVX2, 8 with AVX-512).
+ *
+ * This class is in a separate source root and only loaded by reflection, so that the other classes compile
+ * and run without the module (see {@link BatchRollouts} to build it).
+ *
+ * @author Le Dourner/Guerin
+ *
+ */
+final class VectorRolloutKernel implements BatchRollouts.Kernel {
+	/** The widest vectors of the CPU */
+	static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	@Override
+	public void moveMasks(BatchRollouts batch, BatchRollouts.Geometry g) {
+		int capacity = batch.capacity;
+		for (int i = 0; i < capacity; i += SPECIES.length()) {
+			LongVector white = LongVector.fromArray(SPECIES, batch.white, i);
+			LongVector black = LongVector.fromArray(SPECIES, batch.black, i);
+			LongVector kings = LongVector.fromArray(SPECIES, batch.kings, i);
+			LongVector wtm = LongVector.fromArray(SPECIES, batch.whiteToMove, i);
+			LongVector btm = wtm.not();
+			LongVector own = white.and(wtm).or(black.and(btm));
+			LongVector opp = black.and(wtm).or(white.and(btm));
+			LongVector empty = white.or(black).not().and(g.full);
+			for (int d = 0; d < 4; ++d) {
+				// White checkers move up, black checkers down
+				LongVector movable = own.and(kings.or(d < 2 ? wtm : btm));
+				LongVector toEmpty = sources(empty, g, d);
+				movable.and(toEmpty).intoArray(batch.simple, d * capacity + i);
+				movable.and(sources(toEmpty.and(opp), g, d)).intoArray(batch.jumps, d * capacity + i);
+			}
+		}
+	}
+
+	/**
+	 * Tiles whose neighbor in a direction is in a mask (see {@link BatchRollouts.Geometry#sources(long, int)})
+	 */
+	private static LongVector sources(LongVector mask, BatchRollouts.Geometry g, int d) {
+		return shift(mask, -g.shiftA[d]).and(g.sourceA[d]).or(shift(mask, -g.shiftB[d]).and(g.sourceB[d]));
+	}
+
+	private static LongVector shift(LongVector mask, int shift) {
+		return shift >= 0 ? mask.lanewise(VectorOperators.LSHL, shift) : mask.lanewise(VectorOperators.LSHR, -shift);
+	}
+
+	@Override
+	public void nextRandoms(BatchRollouts batch) {
+		// Same xorshift64* generator as the scalar kernel
+		for (int i = 0; i < batch.capacity; i += SPECIES.length()) {
+			LongVector x = LongVector.fromArray(SPECIES, batch.seeds, i);
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 12));
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHL, 25));
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 27));
+			x.intoArray(batch.seeds, i);
+			x.mul(0x2545F4914F6CDD1DL).intoArray(batch.randoms, i);
+		}
+	}
+
+	@Override
+	public String name() {
+		return "vector";
+	}
+}